@@ -0,0 +1,86 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * @author Andrew
+ *
+ * BatchRank kernel ranking as many hands per instruction as the preferred vector holds ints, using the incubating
+ * Vector API. It is kept in its own source root, src-vector, so the rest of the package builds without the module,
+ * and is compiled with the rest only where the module is present:<br>
+ * javac --add-modules jdk.incubator.vector -d out src/poker/*.java src-vector/poker/*.java<br>
+ * It must then be run with --add-modules jdk.incubator.vector as well. BatchRank only loads it reflectively,
+ * falling back to its scalar kernel when the class was not built or the module is missing.<br>
+ * For each card position the codes of a vector of hands are loaded together and split into numbers and suites.
+ * The numbers are shifted into a mask of numbers, their LookupTable keys gathered and summed, and each suite
+ * compared with the first card's to leave a lane mask of the flushes. Each hand is then one more gather from the
+ * combined table, at the sum of keys or at the flush offset plus the mask of numbers. Hands left over after the
+ * last full vector are ranked by the scalar kernel.
+ */
+final class VectorRank
+    implements BatchRank.Kernel
+{
+    private static final VectorSpecies<Integer>  Species = IntVector.SPECIES_PREFERRED;
+    
+    private static final IntVector  One = IntVector.broadcast(Species, 1);
+    
+    // the keys as one vector if they fit, to be looked up by number in registers rather than gathered
+    private static final IntVector  KeyVector = Species.length() < BatchRank.Keys.length ? null
+        : IntVector.fromArray(Species, Arrays.copyOf(BatchRank.Keys, Species.length()), 0);
+    
+    // indexes of one vector of gathers
+    private final int[]  m_index = new int[Species.length()];
+    
+    @Override
+    public void
+    evaluate(int[][] cards, int count, int[] ranks)
+    {
+        int  end = Species.loopBound(count);
+        for (int h = 0; h < end; h += Species.length())
+        {
+            IntVector            code   = IntVector.fromArray(Species, cards[0], h);
+            IntVector            number = code.lanewise(VectorOperators.LSHR, Card.SuiteBits);
+            IntVector            first  = code.and(Card.SuiteMask);
+            IntVector            key    = keys(number);
+            IntVector            mask   = One.lanewise(VectorOperators.LSHL, number);
+            VectorMask<Integer>  flush  = Species.maskAll(true);
+            
+            for (int i = 1; i < Hand.Size; ++i)
+            {
+                code   = IntVector.fromArray(Species, cards[i], h);
+                number = code.lanewise(VectorOperators.LSHR, Card.SuiteBits);
+                key    = key.add(keys(number));
+                mask   = mask.or(One.lanewise(VectorOperators.LSHL, number));
+                flush  = flush.and(code.and(Card.SuiteMask).eq(first));
+            }
+            
+            key.blend(mask.add(BatchRank.FlushOffset), flush).intoArray(m_index, 0);
+            IntVector.fromArray(Species, BatchRank.Table, 0, m_index, 0).intoArray(ranks, h);
+        }
+        
+        BatchRank.Scalar.evaluate(cards, end, count, ranks);
+    }
+    
+    /*
+     * Key of the number in each lane. With 512 bit vectors all the keys fit in one vector and are selected from it
+     * in registers. Selecting from several and blending is slower than a gather, which is used for narrower vectors.
+     */
+    private IntVector
+    keys(IntVector number)
+    {
+        if (KeyVector != null)
+        {
+            return number.selectFrom(KeyVector);
+        }
+        number.intoArray(m_index, 0);
+        return IntVector.fromArray(Species, BatchRank.Keys, 0, m_index, 0);
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * Ranks five card hands a batch at a time rather than one at a time. The batch is held as a structure of arrays,
+ * the codes of the first card of every hand, then of the second card and so on, and the ranks come out as an int
+ * array, so the same operation can be applied across many hands at once.<br>
+ * For Evaluator.LOOKUP each hand is a sum of LookupTable keys and a mask of numbers, with the flush test that all
+ * suites equal the first. The kernel doing this uses the Vector API, see VectorRank in the src-vector source root,
+ * when it was built and the jdk.incubator.vector module is present, or otherwise a scalar loop over the same tables.
+ * It is found reflectively, so the rest builds and runs without it. For other evaluators each hand is ranked by the
+ * evaluator itself, even under the same rules, so that the one selected is the one which runs.<br>
+ * An instance holds its batch and scratch arrays, so it can be reused for every batch without creating objects,
+ * but is not thread safe.
+ */
+public final class BatchRank
+{
+    // hands ranked at once by Counter
+    public static final int  DefaultSize = 1024;
+    
+    /**
+     * Ranks a batch of hands as Evaluator.LOOKUP does.
+     */
+    interface Kernel
+    {
+        /**
+         * @param cards  Codes of each card position in turn, for each hand
+         * @param count  Number of hands
+         * @param ranks  Filled with the packed rank of each hand
+         */
+        void
+        evaluate(int[][] cards, int count, int[] ranks);
+    }
+    
+    // tables shared with the vector kernel
+    static final int[]  Keys        = LookupTable.keys();
+    static final int[]  Table       = LookupTable.combined();
+    static final int    FlushOffset = LookupTable.flushOffset();
+    
+    private final Evaluator  m_evaluator;
+    private final Kernel     m_kernel;
+    private final int[][]    m_cards;
+    private final int[]      m_ranks;
+    private final int[]      m_codes = new int[Hand.Size];
+    
+    private  int  m_count;
+    
+    /**
+     * @param evaluator  Evaluator the ranks must match
+     * @param size       Most hands in a batch
+     */
+    public
+    BatchRank(Evaluator evaluator, int size)
+    {
+        this(evaluator, size, true);
+    }
+    
+    /*
+     * Optionally without the vector kernel, to compare it with the scalar one.
+     */
+    BatchRank(Evaluator evaluator, int size, boolean vector)
+    {
+        m_evaluator = evaluator;
+        m_kernel    = evaluator != Evaluator.LOOKUP ? null : vector ? newKernel() : new Scalar();
+        m_cards     = new int[Hand.Size][size];
+        m_ranks     = new int[size];
+    }
+    
+    /*
+     * The vector kernel if the module is present, otherwise the scalar one.
+     */
+    private static Kernel
+    newKernel()
+    {
+        try
+        {
+            return (Kernel) Class.forName("poker.VectorRank").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError ex)
+        {
+            return new Scalar();
+        }
+    }
+    
+    /**
+     * @return whether batches are ranked with the Vector API
+     */
+    public boolean
+    isVector()
+    {
+        return m_kernel != null && !(m_kernel instanceof Scalar);
+    }
+    
+    /**
+     * Ranks hands given as a structure of arrays.
+     * @param cards  Codes from Card.code, cards[i][h] being card i of hand h, which need not be sorted
+     * @param count  Number of hands
+     * @param ranks  Filled with the packed rank of each hand
+     */
+    public void
+    evaluate(int[][] cards, int count, int[] ranks)
+    {
+        if (m_kernel != null)
+        {
+            m_kernel.evaluate(cards, count, ranks);
+            return;
+        }
+        
+        for (int h = 0; h < count; ++h)
+        {
+            for (int i = 0; i < Hand.Size; ++i)
+            {
+                m_codes[i] = cards[i][h];
+            }
+            ranks[h] = m_evaluator.evaluate(m_codes, 0);
+        }
+    }
+    
+    /**
+     * Adds a hand to the batch held.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return index of the hand in the batch
+     */
+    public int
+    add(int[] codes, int offset)
+    {
+        for (int i = 0; i < Hand.Size; ++i)
+        {
+            m_cards[i][m_count] = codes[offset + i];
+        }
+        return m_count++;
+    }
+    
+    /**
+     * @return number of hands in the batch held
+     */
+    public int
+    getCount()
+    {
+        return m_count;
+    }
+    
+    /**
+     * @return number of hands which can be added before the batch is full
+     */
+    public int
+    getRemaining()
+    {
+        return m_ranks.length - m_count;
+    }
+    
+    /**
+     * Ranks the batch held and empties it.
+     * @return ranks of the hands in the order added, valid until the next call
+     */
+    public int[]
+    evaluate()
+    {
+        evaluate(m_cards, m_count, m_ranks);
+        m_count = 0;
+        return m_ranks;
+    }
+    
+    /*
+     * The same sums of keys and masks as VectorRank, a hand at a time.
+     */
+    static final class Scalar
+        implements Kernel
+    {
+        @Override
+        public void
+        evaluate(int[][] cards, int count, int[] ranks)
+        {
+            evaluate(cards, 0, count, ranks);
+        }
+        
+        /*
+         * Ranks the hands from start to end - also used for the hands left over by VectorRank.
+         */
+        static void
+        evaluate(int[][] cards, int start, int end, int[] ranks)
+        {
+            int[]  c0 = cards[0];
+            int[]  c1 = cards[1];
+            int[]  c2 = cards[2];
+            int[]  c3 = cards[3];
+            int[]  c4 = cards[4];
+            
+            for (int h = start; h < end; ++h)
+            {
+                int  a = c0[h];
+                int  b = c1[h];
+                int  c = c2[h];
+                int  d = c3[h];
+                int  e = c4[h];
+                
+                int  key  = Keys[a >>> Card.SuiteBits] + Keys[b >>> Card.SuiteBits] + Keys[c >>> Card.SuiteBits]
+                            + Keys[d >>> Card.SuiteBits] + Keys[e >>> Card.SuiteBits];
+                int  mask = 1 << (a >>> Card.SuiteBits) | 1 << (b >>> Card.SuiteBits) | 1 << (c >>> Card.SuiteBits)
+                            | 1 << (d >>> Card.SuiteBits) | 1 << (e >>> Card.SuiteBits);
+                
+                // all the suites the same as the first
+                int  suite = a & Card.SuiteMask;
+                boolean  flush = ((b ^ suite | c ^ suite | d ^ suite | e ^ suite) & Card.SuiteMask) == 0;
+                
+                ranks[h] = Table[flush ? FlushOffset + mask : key];
+            }
+        }
+    }
+    
+    /*
+     * Self check - random batches of every size up to two full batches must rank the same by the vector kernel, if
+     * present, the scalar kernel and an evaluator for every variant of the Rules.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing BatchRank");
+        try
+        {
+            Random  random = new Random(1);
+            int[]   codes  = new int[Hand.Size];
+            int     size   = 256;
+            
+            for (Evaluator evaluator : Evaluator.values())
+            {
+                Rules      rules  = evaluator.getRules();
+                BatchRank  vector = new BatchRank(evaluator, 2 * size);
+                BatchRank  scalar = new BatchRank(evaluator, 2 * size, false);
+                int[][]    cards  = new int[Hand.Size][2 * size];
+                int[]      ranks  = new int[2 * size];
+                
+                for (int count = 0; count <= 2 * size; ++count)
+                {
+                    for (int h = 0; h < count; ++h)
+                    {
+                        long  used = 0;
+                        for (int i = 0; i < Hand.Size; ++i)
+                        {
+                            do
+                            {
+                                codes[i] = random.nextInt(Card.DeckSize);
+                            }
+                            while ((used & 1L << codes[i]) != 0 || !rules.isDealt(codes[i]));
+                            used |= 1L << codes[i];
+                            cards[i][h] = codes[i];
+                        }
+                        scalar.add(codes, 0);
+                    }
+                    
+                    vector.evaluate(cards, count, ranks);
+                    int[]  expect = scalar.evaluate();
+                    for (int h = 0; h < count; ++h)
+                    {
+                        for (int i = 0; i < Hand.Size; ++i)
+                        {
+                            codes[i] = cards[i][h];
+                        }
+                        int  rank = evaluator.evaluate(codes, 0);
+                        if (ranks[h] != rank || expect[h] != rank)
+                        {
+                            throw new PokerException("Mismatch for " + Hand.fromCodes(codes, 0) + " under "
+                                                     + evaluator + ": " + rules.decode(ranks[h]));
+                        }
+                    }
+                }
+                System.out.println("Checked batches under " + evaluator + (vector.isVector() ? " by vector" : ""));
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
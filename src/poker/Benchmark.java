@@ -0,0 +1,561 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * Micro benchmarks for card parsing, hand construction, hand comparison and Counter throughput, for ranking
+ * every five card hand of the deck of each variant of the Rules with each Evaluator for it, and for ranking hands
+ * a BatchRank at a time, with the Vector API when VectorRank is built from src-vector and run with --add-modules
+ * jdk.incubator.vector.<br>
+ * Input is dealt at random from a shuffled deck with a fixed seed, so hand categories occur with their natural
+ * frequencies. Each benchmark is warmed up and then measured over several iterations, reporting operations per
+ * second, bytes allocated per operation from the thread allocation counter and the garbage collections during
+ * the measurement, so a path which should allocate nothing can be seen to.<br>
+ * Results can be saved and later checked against, failing if any benchmark is more than 10% slower or allocates
+ * more, so it can gate performance regressions:<br>
+ * Benchmark [-save FILE] [-check FILE]
+ */
+public class Benchmark
+{
+    private static final int  Warmups    = 5;
+    private static final int  Iterations = 10;
+    private static final int  Lines      = 100000;
+    
+    // passes over the hands in each run of the batch benchmarks
+    private static final int  BatchPasses = 10;
+    
+    // slower than this fraction of the saved throughput is a regression
+    private static final double  Tolerance = 0.9;
+    
+    // results are combined into this so that the work can not be optimised away
+    static volatile long  s_sink;
+    
+    /**
+     * Work measured by a benchmark.
+     */
+    interface Task
+    {
+        /**
+         * @return a value depending on the results of the work
+         */
+        long
+        run()
+            throws Exception;
+    }
+    
+    private final com.sun.management.ThreadMXBean  m_threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    private final ArrayList<String>    m_names   = new ArrayList<String>();
+    private final ArrayList<double[]>  m_results = new ArrayList<double[]>();
+    
+    /**
+     * Warms up and measures a task.
+     * @param name  Name of the benchmark
+     * @param ops   Number of operations performed by each run of the task
+     * @param task  Work to measure
+     * @return operations per second and bytes allocated per operation
+     */
+    public double[]
+    measure(String name, long ops, Task task)
+        throws Exception
+    {
+        for (int i = 0; i < Warmups; ++i)
+        {
+            s_sink += task.run();
+        }
+        
+        long  thread      = Thread.currentThread().getId();
+        long  collections = collections();
+        long  allocated   = m_threads.getThreadAllocatedBytes(thread);
+        long  start       = System.nanoTime();
+        for (int i = 0; i < Iterations; ++i)
+        {
+            s_sink += task.run();
+        }
+        long  nanos = System.nanoTime() - start;
+        long  bytes = m_threads.getThreadAllocatedBytes(thread) - allocated;
+        long  gcs   = collections() - collections;
+        
+        double[]  result = { ops * Iterations * 1e9 / nanos, (double) bytes / (ops * Iterations) };
+        System.out.println(String.format("%-28s %14.0f ops/s %10.1f B/op %6d GCs", name, result[0], result[1], gcs));
+        
+        m_names.add(name);
+        m_results.add(result);
+        return result;
+    }
+    
+    /*
+     * Garbage collections so far by all collectors, so a benchmark which allocates nothing shows none.
+     */
+    private static long
+    collections()
+    {
+        long  count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+    
+    /*
+     * Codes of every five card hand of the deck of the rules, in colex order.
+     */
+    static int[]
+    allHands(Rules rules)
+    {
+        int    deck  = rules.getDeckSize();
+        int    first = Card.DeckSize - deck;
+        int[]  index = { 0, 1, 2, 3, 4 };
+        int[]  codes = new int[(int) Colex.choose(deck, Hand.Size) * Hand.Size];
+        for (int i = 0; i < codes.length; i += Hand.Size)
+        {
+            for (int j = 0; j < Hand.Size; ++j)
+            {
+                codes[i + j] = first + index[j];
+            }
+            Colex.next(index, Hand.Size, deck);
+        }
+        return codes;
+    }
+    
+    /*
+     * Deals random lines of cards in the Counter format.
+     */
+    static String
+    deal(int lines, int cards, long seed)
+    {
+        Random         random = new Random(seed);
+        List<Card>     deck   = new ArrayList<Card>();
+        StringBuilder  buf    = new StringBuilder();
+        
+        for (int code = 0; code < Card.DeckSize; ++code)
+        {
+            deck.add(Card.get(code));
+        }
+        
+        for (int line = 0; line < lines; ++line)
+        {
+            // partial shuffle to deal the cards
+            for (int i = 0; i < cards; ++i)
+            {
+                int   j = i + random.nextInt(deck.size() - i);
+                Card  c = deck.get(j);
+                deck.set(j, deck.get(i));
+                deck.set(i, c);
+                buf.append(c).append(i + 1 < cards ? ' ' : '\n');
+            }
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Runs all benchmarks.
+     */
+    public void
+    run()
+        throws Exception
+    {
+        String          text  = deal(Lines, 2 * Hand.Size, 1);
+        final String[]  lines = text.split("\n");
+        final byte[]    input = text.getBytes();
+        
+        final ArrayList<ArrayList<Card>>  cards = new ArrayList<ArrayList<Card>>();
+        final ArrayList<Hand>             hands = new ArrayList<Hand>();
+        for (String line : lines)
+        {
+            ArrayList<Card>  parsed = Card.parseString(line);
+            cards.add(parsed);
+            hands.add(new Hand(parsed.subList(0, Hand.Size)));
+            hands.add(new Hand(parsed.subList(Hand.Size, 2 * Hand.Size)));
+        }
+        
+        measure("Card.parseString", lines.length, new Task()
+        {
+            @Override
+            public long
+            run()
+                throws PokerException
+            {
+                long  sum = 0;
+                for (String line : lines)
+                {
+                    sum += Card.parseString(line).size();
+                }
+                return sum;
+            }
+        });
+        
+        for (final Evaluator evaluator : Evaluator.values())
+        {
+            measure("Hand(List) " + evaluator, 2 * cards.size(), new Task()
+            {
+                @Override
+                public long
+                run()
+                    throws PokerException
+                {
+                    Evaluator  saved = Hand.getEvaluator();
+                    Hand.setEvaluator(evaluator);
+                    
+                    long  sum = 0;
+                    for (ArrayList<Card> line : cards)
+                    {
+                        sum += new Hand(line.subList(0, Hand.Size)).getRank();
+                        sum += new Hand(line.subList(Hand.Size, 2 * Hand.Size)).getRank();
+                    }
+                    
+                    Hand.setEvaluator(saved);
+                    return sum;
+                }
+            });
+        }
+        
+        // every five card hand of the deck of each variant of the rules, by each Evaluator for it
+        for (Rules rules : Rules.values())
+        {
+            final int[]  all = allHands(rules);
+            for (final Evaluator evaluator : Evaluator.values())
+            {
+                if (evaluator.getRules() != rules)
+                {
+                    continue;
+                }
+                measure("Exhaustive " + evaluator, all.length / Hand.Size, new Task()
+                {
+                    @Override
+                    public long
+                    run()
+                    {
+                        long  sum = 0;
+                        for (int i = 0; i < all.length; i += Hand.Size)
+                        {
+                            sum += evaluator.evaluate(all, i);
+                        }
+                        return sum;
+                    }
+                });
+            }
+        }
+        
+        final int[]  codes = new int[2 * Hand.Size * lines.length];
+        for (int i = 0; i < hands.size(); ++i)
+        {
+            for (int j = 0; j < Hand.Size; ++j)
+            {
+                codes[i * Hand.Size + j] = hands.get(i).getCode(j);
+            }
+        }
+        
+        measure("MutableHand.reset", hands.size(), new Task()
+        {
+            @Override
+            public long
+            run()
+            {
+                MutableHand  hand = new MutableHand();
+                
+                long  sum = 0;
+                for (int i = 0; i < codes.length; i += Hand.Size)
+                {
+                    sum += hand.reset(codes, i).getRank();
+                }
+                return sum;
+            }
+        });
+        
+        // the same hands a batch at a time, against the per hand evaluator the batch kernels must match. Each run
+        // passes over the hands several times, as the vector kernel takes longer than the warm up to be compiled.
+        measure("Evaluator.evaluate LOOKUP", BatchPasses * hands.size(), new Task()
+        {
+            @Override
+            public long
+            run()
+            {
+                long  sum = 0;
+                for (int pass = 0; pass < BatchPasses; ++pass)
+                {
+                    for (int i = 0; i < codes.length; i += Hand.Size)
+                    {
+                        sum += Evaluator.LOOKUP.evaluate(codes, i);
+                    }
+                }
+                return sum;
+            }
+        });
+        
+        for (final boolean vector : new boolean[] { false, true })
+        {
+            final BatchRank  batch = new BatchRank(Evaluator.LOOKUP, BatchRank.DefaultSize, vector);
+            if (vector && !batch.isVector())
+            {
+                System.out.println("BatchRank vector skipped - build src-vector and run with --add-modules "
+                                   + "jdk.incubator.vector");
+                continue;
+            }
+            measure("BatchRank " + (vector ? "vector" : "scalar"), BatchPasses * hands.size(), new Task()
+            {
+                @Override
+                public long
+                run()
+                {
+                    long  sum = 0;
+                    for (int pass = 0; pass < BatchPasses; ++pass)
+                    {
+                        for (int i = 0; i < codes.length; )
+                        {
+                            while (i < codes.length && batch.getRemaining() > 0)
+                            {
+                                batch.add(codes, i);
+                                i += Hand.Size;
+                            }
+                            int    count = batch.getCount();
+                            int[]  ranks = batch.evaluate();
+                            for (int h = 0; h < count; ++h)
+                            {
+                                sum += ranks[h];
+                            }
+                        }
+                    }
+                    return sum;
+                }
+            });
+        }
+        
+        measure("Hand.compareTo", hands.size() / 2, new Task()
+        {
+            @Override
+            public long
+            run()
+            {
+                long  sum = 0;
+                for (int i = 0; i < hands.size(); i += 2)
+                {
+                    sum += hands.get(i).compareTo(hands.get(i + 1));
+                }
+                return sum;
+            }
+        });
+        
+        measure("Counter.process", lines.length, new Task()
+        {
+            @Override
+            public long
+            run()
+                throws IOException
+            {
+                Counter  counter = new Counter();
+                counter.process(new ByteArrayInputStream(input));
+                return counter.getPlayer1();
+            }
+        });
+        
+        final Path  file = Files.createTempFile("benchmark", ".txt");
+        try
+        {
+            Files.write(file, input);
+            
+            measure("Counter.processMapped", lines.length, new Task()
+            {
+                @Override
+                public long
+                run()
+                    throws IOException
+                {
+                    Counter  counter = new Counter();
+                    counter.processMapped(file);
+                    return counter.getPlayer1();
+                }
+            });
+            
+            // results written to a channel which discards them, to measure the cost of formatting
+            final WritableByteChannel  discard = new WritableByteChannel()
+            {
+                @Override
+                public int
+                write(ByteBuffer src)
+                {
+                    int  written = src.remaining();
+                    src.position(src.limit());
+                    return written;
+                }
+                
+                @Override
+                public boolean
+                isOpen()
+                {
+                    return true;
+                }
+                
+                @Override
+                public void
+                close()
+                {
+                    // nothing to release
+                }
+            };
+            
+            measure("Counter.processMapped output", lines.length, new Task()
+            {
+                @Override
+                public long
+                run()
+                    throws IOException
+                {
+                    Counter  counter = new Counter();
+                    counter.setOutput(discard);
+                    counter.processMapped(file);
+                    return counter.getPlayer1();
+                }
+            });
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+    
+    /**
+     * Saves the results.
+     */
+    public void
+    save(File file)
+        throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(file))
+        {
+            for (int i = 0; i < m_names.size(); ++i)
+            {
+                double[]  result = m_results.get(i);
+                out.println(m_names.get(i) + "\t" + result[0] + "\t" + result[1]);
+            }
+        }
+    }
+    
+    /**
+     * Compares the results with saved results.
+     * @return descriptions of any regressions, empty if there are none
+     */
+    public List<String>
+    check(File file)
+        throws IOException
+    {
+        HashMap<String, double[]>  saved = new HashMap<String, double[]>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file)))
+        {
+            String  line;
+            while ((line = in.readLine()) != null)
+            {
+                String[]  fields = line.split("\t");
+                saved.put(fields[0], new double[] { Double.parseDouble(fields[1]), Double.parseDouble(fields[2]) });
+            }
+        }
+        
+        ArrayList<String>  regressions = new ArrayList<String>();
+        for (int i = 0; i < m_names.size(); ++i)
+        {
+            double[]  before = saved.get(m_names.get(i));
+            double[]  after  = m_results.get(i);
+            if (before == null)
+            {
+                continue;
+            }
+            
+            if (after[0] < before[0] * Tolerance)
+            {
+                regressions.add(String.format("%s: %.0f ops/s was %.0f", m_names.get(i), after[0], before[0]));
+            }
+            // allow a byte per operation for counter noise
+            if (after[1] > before[1] + 1)
+            {
+                regressions.add(String.format("%s: %.1f B/op was %.1f", m_names.get(i), after[1], before[1]));
+            }
+        }
+        return regressions;
+    }
+    
+    public static void
+    main(String... args)
+    {
+        System.out.println("Running Benchmark\n");
+        try
+        {
+            // all the options are checked before measuring, which takes a while
+            File  save  = null;
+            File  check = null;
+            for (int arg = 0; arg < args.length; arg += 2)
+            {
+                if (arg + 1 == args.length)
+                {
+                    throw new PokerException("Missing file after " + args[arg]);
+                }
+                
+                File  file = new File(args[arg + 1]);
+                if ("-save".equals(args[arg]))
+                {
+                    save = file;
+                }
+                else if ("-check".equals(args[arg]))
+                {
+                    if (!file.canRead())
+                    {
+                        throw new PokerException("Cannot read " + file);
+                    }
+                    check = file;
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + args[arg]);
+                }
+            }
+            
+            Benchmark  benchmark = new Benchmark();
+            benchmark.run();
+            
+            if (save != null)
+            {
+                benchmark.save(save);
+            }
+            if (check != null)
+            {
+                List<String>  regressions = benchmark.check(check);
+                for (String regression : regressions)
+                {
+                    System.out.println("REGRESSION " + regression);
+                }
+                if (!regressions.isEmpty())
+                {
+                    System.exit(1);
+                }
+            }
+            
+            System.out.println("\nFINISHED");
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+            System.exit(1);
+        }
+    }
+}
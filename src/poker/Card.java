@@ -14,10 +14,34 @@ import java.util.StringTokenizer;
 public class Card
     implements Comparable<Card>
 {
+    // primitive code is the number ordinal shifted above the suite ordinal, so codes sort like cards
+    public static final int  SuiteBits = 2;
+    public static final int  SuiteMask = (1 << SuiteBits) - 1;
+    public static final int  CodeBits  = 6;
+    public static final int  CodeMask  = (1 << CodeBits) - 1;
+    
+    public static final int  DeckSize  = Number.values().length << SuiteBits;
+    
+    // the only instances needed, indexed by code
+    private static final Card[]  Cards = new Card[DeckSize];
+    static
+    {
+        for (Number number : Number.values())
+        {
+            for (Suite suite : Suite.values())
+            {
+                Cards[code(number, suite)] = new Card(suite, number);
+            }
+        }
+    }
+    
     // these may be public because they are final
     public final Suite   m_suite;
     public final Number  m_number;
     
+    /**
+     * Prefer valueOf, which does not create a new card.
+     */
     public
     Card(Suite suite, Number number)
     {
@@ -25,6 +49,58 @@ public class Card
         m_number = number;
     }
     
+    /**
+     * @return the shared card with a number and suite
+     */
+    public static Card
+    valueOf(Number number, Suite suite)
+    {
+        return Cards[code(number, suite)];
+    }
+    
+    /**
+     * @param code  Primitive code from 0 to 51
+     * @return the shared card with that code
+     * @throws PokerException if the code is out of range
+     */
+    public static Card
+    valueOf(int code)
+        throws PokerException
+    {
+        if (code < 0 || code >= DeckSize)
+        {
+            throw new PokerException("Invalid card code: " + code);
+        }
+        return Cards[code];
+    }
+    
+    /*
+     * As valueOf for codes which are known to be valid.
+     */
+    static Card
+    get(int code)
+    {
+        return Cards[code];
+    }
+    
+    /**
+     * @return primitive code for this card, from 0 for the lowest card to 51 for the highest
+     */
+    public int
+    code()
+    {
+        return code(m_number, m_suite);
+    }
+    
+    /**
+     * @return primitive code for a card
+     */
+    public static int
+    code(Number number, Suite suite)
+    {
+        return number.ordinal() << SuiteBits | suite.ordinal();
+    }
+    
     public String
     toString()
     {
@@ -77,6 +153,21 @@ public class Card
     public static ArrayList<Card>
     parseString(String  s)
         throws PokerException
+    {
+        return parseString(s, false);
+    }
+    
+    /**
+     * Accepts a string containing white-space separated character pairs representing cards, optionally ignoring
+     * case so that lower case input such as "ah kd" is accepted.
+     * @param s           Input string.
+     * @param ignoreCase  Whether lower case characters are accepted as well
+     * @return  List of cards found - non-null but may be empty
+     * @throws PokerException if invalid token is found
+     */
+    public static ArrayList<Card>
+    parseString(String  s, boolean ignoreCase)
+        throws PokerException
     {
         ArrayList<Card>  result = new ArrayList<Card>();
         
@@ -94,10 +185,10 @@ public class Card
                 throw new PokerException("Invalid token: " + token);
             }
             
-            Number  number = Number.parse(token.charAt(0));
-            Suite   suite  = Suite.parse(token.charAt(1));
+            Number  number = Number.parse(token.charAt(0), ignoreCase);
+            Suite   suite  = Suite.parse(token.charAt(1), ignoreCase);
             
-            result.add(new Card(suite, number));
+            result.add(valueOf(number, suite));
         }
         return result;
     }
@@ -0,0 +1,107 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+/**
+ * @author Andrew
+ *
+ * Colexicographic indexing of subsets of k positions out of n, held as increasing arrays of positions.<br>
+ * The index of a subset c[0] &lt; c[1] &lt; ... &lt; c[k-1] is the sum of choose(c[i], i+1), which numbers the
+ * subsets from 0 to choose(n, k) - 1 whatever n is. This allows a range of subsets to be split between threads
+ * by index, each thread starting from unrank and then stepping through its range with next.
+ */
+public final class Colex
+{
+    private static final long[][]  Binomial = new long[Card.DeckSize + 1][Card.DeckSize + 1];
+    static
+    {
+        for (int n = 0; n <= Card.DeckSize; ++n)
+        {
+            Binomial[n][0] = 1;
+            for (int k = 1; k <= n; ++k)
+            {
+                Binomial[n][k] = Binomial[n - 1][k - 1] + Binomial[n - 1][k];
+            }
+        }
+    }
+    
+    private
+    Colex()
+    {
+        // static functions only
+    }
+    
+    /**
+     * @return number of ways of choosing k out of n, for n up to 52
+     */
+    public static long
+    choose(int n, int k)
+    {
+        return k < 0 || k > n ? 0 : Binomial[n][k];
+    }
+    
+    /**
+     * @param subset  Increasing positions
+     * @param k       Number of positions
+     * @return colex index of the subset
+     */
+    public static long
+    index(int[] subset, int k)
+    {
+        long  index = 0;
+        for (int i = 0; i < k; ++i)
+        {
+            index += Binomial[subset[i]][i + 1];
+        }
+        return index;
+    }
+    
+    /**
+     * Finds the subset with an index.
+     * @param index   Colex index
+     * @param k       Number of positions
+     * @param subset  Filled with the increasing positions
+     */
+    public static void
+    unrank(long index, int k, int[] subset)
+    {
+        int  c = Card.DeckSize;
+        for (int i = k; i > 0; --i)
+        {
+            // largest position whose binomial does not exceed the index
+            while (Binomial[c][i] > index)
+            {
+                c--;
+            }
+            subset[i - 1] = c;
+            index -= Binomial[c][i];
+        }
+    }
+    
+    /**
+     * Steps to the subset with the next index.
+     * @param subset  Increasing positions, updated in place
+     * @param k       Number of positions
+     * @param n       Number of positions to choose from
+     * @return false if the subset was the last one
+     */
+    public static boolean
+    next(int[] subset, int k, int n)
+    {
+        for (int i = 0; i < k; ++i)
+        {
+            int  limit = i + 1 < k ? subset[i + 1] : n;
+            if (subset[i] + 1 < limit)
+            {
+                subset[i]++;
+                for (int j = 0; j < i; ++j)
+                {
+                    subset[j] = j;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
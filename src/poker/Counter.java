@@ -3,26 +3,83 @@
  */
 package poker;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * @author Andrew
  * 
  * Main program for counting winning hands.<br>
  * It can be run either as a filter, accepting hands from standard input, or 
- * taking a filename as the only command line argument.
+ * taking a filename as the last command line argument.<br>
+ * Options:<br>
+ * -evaluator NAME   select the Evaluator used, e.g. LOOKUP, or WHEEL to play A2345 as the lowest straight<br>
+ * -rules NAME       select the first Evaluator for a variant of the Rules, e.g. SHORT_DECK or LOWBALL<br>
+ * -mmap             map the file into memory rather than reading it, which is faster for large files<br>
+ * -threads N        map the file and process it in parallel with N threads<br>
+ * -log              the file is a binary HandLog rather than text, numbered by record, not with -mmap or -threads<br>
+ * -ignorecase       accept lower case cards such as "ah kd"<br>
+ * -holdem           lines hold two hole cards for each player then five board cards, the best five cards win<br>
+ * -players N        lines hold the cards of N players rather than two<br>
+ * -cache N          cache the ranks of up to N five card hands, for input which repeats hands<br>
+ * -output FILE      write the result of each line to a file, or standard output for "-", as it is processed<br>
+ * -metrics          time each stage and count the kinds of hand, through JMX and Flight Recorder while running and
+ *                   printed at the end - see CounterMetrics
  */
 public class Counter
 {
-    private  int  m_player1;
-    private  int  m_player2;
-    private  int  m_tied;
-    private  int  m_errors;
+    // bytes read from a stream at once - lines may be longer
+    private static final int  StreamBuffer = 1 << 16;
+    
+    // largest part of a file mapped at once - lines must be shorter than this
+    private static final int  MapSize = 1 << 30;
+    
+    // smallest part of a file processed as a separate task in parallel
+    private static final int  MinChunk = 1 << 20;
+    
+    // part of a file processed as a separate task when writing results, and the parts in progress for each thread
+    private static final int  OutputChunk = 1 << 22;
+    private static final int  OutputParts = 2;
+    
+    private  Showdown      m_showdown = new Showdown();
+    private  boolean       m_ignoreCase;
+    private  boolean       m_holdem;
+    private  int           m_players  = 2;
+    private  HandCache     m_cache;     // shared by the parts of a parallel run
+    private  ResultWriter  m_output;
+    
+    // lines of five card hands waiting to be ranked together, in bulk modes, and the number of each
+    private  BatchRank  m_batch;
+    private  long[]     m_batchLines;
+    private  int        m_batched;
+    
+    // metrics shared by the parts of a parallel run, and this counter's own recorder for them
+    private  CounterMetrics           m_metrics;
+    private  CounterMetrics.Recorder  m_recorder;
+    
+    private  int[]  m_wins = new int[Showdown.MaxSeats];
+    private  int    m_tied;
+    private  int    m_errors;
+    
+    // only used when processing part of a file in parallel, where errors are held until the line numbers are known
+    private  long                  m_lines;
+    private  ArrayList<LineError>  m_pending;
     
     public
     Counter()
@@ -30,78 +87,663 @@ public class Counter
         // default initialization okay
     }
 
+    /**
+     * Processes lines from a stream. The bytes are read into a reused buffer and parsed as for processMapped, so
+     * nothing is allocated per line, with the same results and errors as reading the lines as Strings.
+     * @param is  Stream to process
+     * @throws IOException
+     */
     public void
     process(InputStream is)
         throws IOException
     {
-        BufferedReader  buffered = new BufferedReader(new InputStreamReader(is));
+        LineScanner  scanner = new LineScanner(this);
+        byte[]       bytes   = new byte[StreamBuffer];
+        ByteBuffer   buffer  = ByteBuffer.wrap(bytes);
+        int          filled  = 0;
+        long         line    = 0;
         
-        String  line = null;
-        int     num  = 0;
-        while ((line = buffered.readLine()) != null)
+        while (true)
         {
-            num++;
-            try
+            if (filled == bytes.length)
+            {
+                // a line longer than the buffer
+                bytes  = Arrays.copyOf(bytes, 2 * bytes.length);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            
+            long  started = m_recorder != null ? System.nanoTime() : 0;
+            int   read    = is.read(bytes, filled, bytes.length - filled);
+            if (m_recorder != null)
             {
-                processHands(line.trim());
+                m_recorder.add(CounterMetrics.Stage.READ, System.nanoTime() - started);
             }
-            catch (PokerException ex)
+            if (read < 0)
             {
-                System.err.println("Line " + num + ": "+ ex.getMessage());
-                m_errors++;
+                scanner.scan(buffer, 0, filled, line);
+                break;
+            }
+            filled += read;
+            
+            // scan up to the last line end, leaving a final \r in case the next read starts with \n
+            int  end = filled;
+            while (end > 0 && bytes[end - 1] != '\n' && (bytes[end - 1] != '\r' || end == filled))
+            {
+                end--;
+            }
+            if (end > 0)
+            {
+                line = scanner.scan(buffer, 0, end, line);
+                System.arraycopy(bytes, end, bytes, 0, filled - end);
+                filled -= end;
             }
         }
+        flush();
     }
-
+    
+    /**
+     * Processes a file by mapping it into memory and parsing cards straight from the bytes, which avoids creating
+     * any objects per line. Five card hands are ranked a BatchRank at a time, as for processParallel and
+     * processLog. The results and errors are the same as for process.
+     * @param path  File to process
+     * @throws IOException
+     */
+    public void
+    processMapped(Path path)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            startBatch();
+            LineScanner  scanner  = new LineScanner(this);
+            long         size     = channel.size();
+            long         position = 0;
+            long         line     = 0;
+            
+            // map a part at a time, each ending at a line boundary, as a buffer is limited to 2GB
+            while (position < size)
+            {
+                long              length  = Math.min(size - position, MapSize);
+                long              started = m_recorder != null ? System.nanoTime() : 0;
+                MappedByteBuffer  buffer  = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (m_recorder != null)
+                {
+                    m_recorder.add(CounterMetrics.Stage.READ, System.nanoTime() - started);
+                }
+                
+                int  end = (int) length;
+                if (position + length < size)
+                {
+                    while (end > 0 && buffer.get(end - 1) != '\n')
+                    {
+                        end--;
+                    }
+                    if (end == 0)
+                    {
+                        throw new IOException("Line too long at byte " + position);
+                    }
+                }
+                
+                line = scanner.scan(buffer, 0, end, line);
+                position += end;
+            }
+        }
+        flush();
+    }
+    
+    /**
+     * Processes a binary HandLog, reading it a block at a time and ranking the cards of each record without any
+     * parsing. The results are as for process on the text the log was encoded from, numbered by record.
+     * @param path  Log to process
+     * @throws IOException if the log is invalid
+     */
+    public void
+    processLog(Path path)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            startBatch();
+            HandLog.Reader  reader = new HandLog.Reader(channel);
+            int[]           codes  = new int[reader.getCards()];
+            long            record = 0;
+            
+            while (true)
+            {
+                long     started = m_recorder != null ? System.nanoTime() : 0;
+                boolean  more    = reader.next();
+                if (m_recorder != null)
+                {
+                    m_recorder.add(CounterMetrics.Stage.READ, System.nanoTime() - started);
+                }
+                if (!more)
+                {
+                    break;
+                }
+                if (m_recorder != null)
+                {
+                    m_recorder.begin();
+                }
+                
+                for (int r = 0; r < reader.getRecords(); ++r)
+                {
+                    record++;
+                    if (m_recorder != null)
+                    {
+                        m_recorder.line();
+                    }
+                    try
+                    {
+                        if (!reader.get(r, codes))
+                        {
+                            throw new PokerException("Invalid card code in record");
+                        }
+                        if (m_recorder != null)
+                        {
+                            m_recorder.lap(CounterMetrics.Stage.PARSE);
+                        }
+                        processCodes(record, codes, codes.length);
+                    }
+                    catch (PokerException ex)
+                    {
+                        error(record, ex.getMessage());
+                    }
+                }
+                drain();
+                if (m_recorder != null)
+                {
+                    m_recorder.publish();
+                }
+            }
+        }
+        flush();
+    }
+    
+    /**
+     * Processes a file in parallel. The file is split into chunks at line boundaries which are mapped into memory
+     * and processed as for processMapped, each with its own totals which are added together at the end.
+     * The results and errors are the same as for process, but the errors are only reported at the end.<br>
+     * When writing results, the chunks are instead taken in order with only a few in progress for each thread,
+     * so that their results can be written in input order while holding only the results of those chunks.
+     * @param path     File to process
+     * @param threads  Number of threads to use
+     * @throws IOException
+     */
+    public void
+    processParallel(Path path, int threads)
+        throws IOException
+    {
+        ForkJoinPool  pool = new ForkJoinPool(threads);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long  size = channel.size();
+            if (m_output == null)
+            {
+                long  chunk = Math.min(Math.max(size / (threads * 8L), MinChunk), MapSize);
+                merge(pool.invoke(new Chunk(this, channel, 0, size, chunk)));
+            }
+            else
+            {
+                ArrayDeque<ForkJoinTask<Counter>>  window   = new ArrayDeque<ForkJoinTask<Counter>>();
+                long                               position = 0;
+                while (position < size || !window.isEmpty())
+                {
+                    while (position < size && window.size() < threads * OutputParts)
+                    {
+                        long  end = nextLine(channel, Math.min(position + OutputChunk, size), size);
+                        window.add(pool.submit(new Chunk(this, channel, position, end, Long.MAX_VALUE)));
+                        position = end;
+                    }
+                    merge(window.remove().join());
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        flush();
+    }
+    
     /*
-     * Process a single line which must either be empty (which is ignored) or contains exactly 10 cards.
-     * A line with only white space has length 0 since it has been trimmed.
+     * Processes whole lines held in a buffer for a HandServer connection, numbered after a number of lines, and
+     * writes out their results. Errors are only written with the results.
+     */
+    long
+    processLines(ByteBuffer buffer, int start, int end, long line)
+    {
+        line = new LineScanner(this).scan(buffer, start, end, line);
+        m_pending.clear();
+        flush();
+        return line;
+    }
+    
+    /*
+     * Answers every line of a HandServer request with an error once processing it has failed part way, in place of
+     * any results held for it, so the client still has one result for each line it sent.
+     */
+    long
+    failLines(ByteBuffer buffer, int start, int end, long line, String message)
+    {
+        m_batched = 0;
+        if (m_batch != null)
+        {
+            // the failure may have left hands in the batch
+            m_batch = null;
+            startBatch();
+        }
+        if (m_output != null)
+        {
+            m_output.discard();
+        }
+        
+        line = new LineScanner(this).fail(buffer, start, end, line, message);
+        m_pending.clear();
+        flush();
+        return line;
+    }
+    
+    /*
+     * Finds the position after the first new line at or after a position, or the end.
+     */
+    private static long
+    nextLine(FileChannel channel, long position, long end)
+        throws IOException
+    {
+        ByteBuffer  buffer = ByteBuffer.allocate(4096);
+        while (position < end)
+        {
+            buffer.clear();
+            int  read = channel.read(buffer, position);
+            if (read <= 0)
+            {
+                break;
+            }
+            
+            for (int i = 0; i < read; ++i)
+            {
+                if (buffer.get(i) == '\n')
+                {
+                    return Math.min(position + i + 1, end);
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+    
+    /*
+     * Writes out any results held.
      */
     private void
-    processHands(String line)
-        throws PokerException
+    flush()
     {
-        // ignore empty lines or those with only white space
-        if (line.length() == 0)
+        if (m_output != null)
         {
-            return;
+            m_output.flush();
         }
+    }
+    
+    /*
+     * Adds the totals and errors of a counter which processed the lines following those processed by this one.
+     */
+    private void
+    merge(Counter other)
+    {
+        // the part's results already include its errors
+        for (LineError e : other.m_pending)
+        {
+            report(m_lines + e.m_line, e.m_message);
+        }
+        if (m_output != null)
+        {
+            m_output.append(other.m_output, m_lines);
+        }
+        
+        for (int i = 0; i < m_wins.length; ++i)
+        {
+            m_wins[i] += other.m_wins[i];
+        }
+        m_tied  += other.m_tied;
+        m_lines += other.m_lines;
+    }
+    
+    /*
+     * Reports an error on a line and counts it.
+     */
+    void
+    error(long line, String message)
+    {
+        // keep the results in line order
+        drain();
+        if (m_recorder != null)
+        {
+            m_recorder.error();
+        }
+        if (m_output != null)
+        {
+            m_output.error(line, message);
+        }
+        report(line, message);
+    }
+    
+    private void
+    report(long line, String message)
+    {
+        if (m_pending != null)
+        {
+            m_pending.add(new LineError(line, message));
+        }
+        else
+        {
+            System.err.println("Line " + line + ": "+ message);
+        }
+        m_errors++;
+    }
 
-        ArrayList<Card> cards = Card.parseString(line);
+    /*
+     * Process the cards of a single line as primitive codes.
+     * The count may be more than the number of codes if the line had too many cards.
+     */
+    void
+    processCodes(long line, int[] codes, int count)
+        throws PokerException
+    {
+        int  expect = m_holdem ? m_players * SevenCardRank.HoleCards + Hand.Size : m_players * Hand.Size;
+        if (count != expect)
+        {
+            throw new PokerException("Hands with " + count + " cards");
+        }
         
-        if (cards.size() != 10)
+        Evaluator  evaluator = Hand.getEvaluator();
+        if (evaluator.getRules().getLowest() != Number.TWO)
         {
-            throw new PokerException("Hands with " + cards.size() + " cards");
+            checkDeck(evaluator.getRules(), codes, count);
         }
+        checkDistinct(codes, count);
         
-        Hand hand1 = new Hand(cards.subList(0, 5));
-        Hand hand2 = new Hand(cards.subList(5, 10));
+        // rank directly rather than building Hand objects
+        if (m_batch != null)
+        {
+            queue(line, codes);
+            return;
+        }
         
-        int comp = hand1.compareTo(hand2);
-        if (comp == 0)
+        int  winners;
+        if (m_holdem)
         {
-            m_tied++;
+            winners = m_showdown.holdem(evaluator, codes, m_players);
+        }
+        else if (m_cache != null)
+        {
+            winners = m_showdown.hands(m_cache, codes, m_players);
+        }
+        else
+        {
+            winners = m_showdown.hands(evaluator, codes, m_players);
+        }
+        
+        if (m_recorder != null)
+        {
+            m_recorder.lap(CounterMetrics.Stage.RANK);
         }
-        else if (comp < 0)
+        decided(line, winners);
+        if (m_output != null && m_recorder != null)
         {
-            m_player2++;
+            m_recorder.lap(CounterMetrics.Stage.OUTPUT);
+        }
+    }
+    
+    /*
+     * Counts and writes out the result of a line once the showdown is decided.
+     */
+    private void
+    decided(long line, int winners)
+    {
+        if (m_showdown.isSplit())
+        {
+            m_tied++;
         }
         else
         {
-            m_player1++;
+            m_wins[Integer.numberOfTrailingZeros(winners)]++;
+        }
+        
+        if (m_recorder != null)
+        {
+            m_recorder.hands(m_showdown, m_players);
+        }
+        
+        if (m_output != null)
+        {
+            m_output.result(line, winners, m_showdown, m_players);
         }
     }
     
+    /*
+     * Ranks five card hands a BatchRank at a time from now on, for bulk input, by its kernel only for LOOKUP so that
+     * the evaluator selected is the one which runs. Not for Hold'em, or with a cache, which has its own way of
+     * avoiding work.
+     */
+    private void
+    startBatch()
+    {
+        if (!m_holdem && m_cache == null && m_batch == null)
+        {
+            m_batch      = new BatchRank(Hand.getEvaluator(), BatchRank.DefaultSize);
+            m_batchLines = new long[BatchRank.DefaultSize / m_players];
+        }
+    }
+    
+    /*
+     * Adds the hands of a line to the batch, ranking the batch first if they do not fit.
+     */
+    private void
+    queue(long line, int[] codes)
+    {
+        if (m_batched == m_batchLines.length)
+        {
+            drain();
+        }
+        
+        m_batchLines[m_batched++] = line;
+        for (int seat = 0; seat < m_players; ++seat)
+        {
+            m_batch.add(codes, seat * Hand.Size);
+        }
+    }
+    
+    /*
+     * Ranks the hands waiting in the batch and decides their lines in order. Must be called at the end of each run
+     * of lines, and before anything else is written out. When recording metrics, ranking the batch is timed as a
+     * whole as the RANK stage, and then deciding its lines as the OUTPUT stage if their results are written out,
+     * which is most of that time, or otherwise as RANK as well.
+     */
+    void
+    drain()
+    {
+        if (m_batched == 0)
+        {
+            return;
+        }
+        
+        long   started = m_recorder != null ? System.nanoTime() : 0;
+        int[]  ranks   = m_batch.evaluate();
+        long   ranked  = m_recorder != null ? System.nanoTime() : 0;
+        for (int i = 0; i < m_batched; ++i)
+        {
+            decided(m_batchLines[i], m_showdown.ranked(ranks, i * m_players, m_players));
+        }
+        m_batched = 0;
+        
+        if (m_recorder != null)
+        {
+            m_recorder.add(CounterMetrics.Stage.RANK, ranked - started);
+            m_recorder.add(m_output != null ? CounterMetrics.Stage.OUTPUT : CounterMetrics.Stage.RANK,
+                           System.nanoTime() - ranked);
+        }
+    }
+    
+    /*
+     * Checks that no card is repeated on a line, which the evaluators assume and could not rank.
+     */
+    private static void
+    checkDistinct(int[] codes, int count)
+        throws PokerException
+    {
+        long  used = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            if ((used & 1L << codes[i]) != 0)
+            {
+                throw new PokerException("Repeated card: " + Card.get(codes[i]));
+            }
+            used |= 1L << codes[i];
+        }
+    }
+    
+    /*
+     * Checks that the cards are all in the deck of rules with a short deck.
+     */
+    private static void
+    checkDeck(Rules rules, int[] codes, int count)
+        throws PokerException
+    {
+        for (int i = 0; i < count; ++i)
+        {
+            if (!rules.isDealt(codes[i]))
+            {
+                throw new PokerException("Card not in " + rules + " deck: " + Card.get(codes[i]));
+            }
+        }
+    }
+    
+    /**
+     * @param ignoreCase  Whether lower case cards such as "ah kd" are accepted as well
+     */
+    public void
+    setIgnoreCase(boolean ignoreCase)
+    {
+        m_ignoreCase = ignoreCase;
+    }
+    
+    public boolean
+    isIgnoreCase()
+    {
+        return m_ignoreCase;
+    }
+    
+    /**
+     * @param holdem  Whether lines hold each player's two hole cards followed by the five board cards, rather than
+     *                each player's five cards
+     */
+    public void
+    setHoldem(boolean holdem)
+    {
+        m_holdem = holdem;
+    }
+    
+    /**
+     * @param cache  Cache to rank five card hands through, or null to rank each directly. Not used for Hold'em.
+     */
+    public void
+    setCache(HandCache cache)
+    {
+        m_cache = cache;
+    }
+    
+    /**
+     * @param output  Channel to write the result of each line to as it is processed, or null for just the totals
+     */
+    public void
+    setOutput(WritableByteChannel output)
+    {
+        m_output = output != null ? new ResultWriter(output) : null;
+    }
+    
+    /**
+     * @param metrics  Metrics to record the lines processed into, or null to record none
+     */
+    public void
+    setMetrics(CounterMetrics metrics)
+    {
+        m_metrics  = metrics;
+        m_recorder = metrics != null ? metrics.newRecorder() : null;
+    }
+    
+    /*
+     * Recorder of this counter for the metrics, or null if none.
+     */
+    CounterMetrics.Recorder
+    getRecorder()
+    {
+        return m_recorder;
+    }
+    
+    /**
+     * @param players  Number of players on each line, from 2 to 10
+     * @throws PokerException if the number is out of range
+     */
+    public void
+    setPlayers(int players)
+        throws PokerException
+    {
+        if (players < 2 || players > Showdown.MaxSeats)
+        {
+            throw new PokerException("Invalid players: " + players);
+        }
+        m_players = players;
+    }
+    
+    /*
+     * Creates an empty counter with the same settings, to process part of the input.
+     */
+    private Counter
+    newPart()
+    {
+        Counter  part = new Counter();
+        part.m_ignoreCase = m_ignoreCase;
+        part.m_holdem     = m_holdem;
+        part.m_players    = m_players;
+        part.m_cache      = m_cache;
+        part.setMetrics(m_metrics);
+        part.startBatch();
+        part.m_output     = m_output != null ? new ResultWriter() : null;
+        part.m_pending    = new ArrayList<LineError>();
+        return part;
+    }
+    
+    /*
+     * Creates an empty counter with the same settings writing its results to a channel, for a HandServer connection.
+     */
+    Counter
+    newConnection(WritableByteChannel output)
+    {
+        Counter  counter = newPart();
+        counter.m_output = new ResultWriter(output);
+        return counter;
+    }
+    
     public int
     getPlayer1()
     {
-        return m_player1;
+        return m_wins[0];
     }
     
     public int
     getPlayer2()
     {
-        return m_player2;
+        return m_wins[1];
+    }
+    
+    /**
+     * @param player  Player from 0 for the first on each line
+     * @return number of lines won outright by the player
+     */
+    public int
+    getWins(int player)
+    {
+        return m_wins[player];
     }
     
     public int
@@ -116,6 +758,90 @@ public class Counter
         return m_tied;
     }
 
+    /*
+     * Error held until the line number of the first line of a chunk is known.
+     */
+    private static final class LineError
+    {
+        final long    m_line;
+        final String  m_message;
+        
+        LineError(long line, String message)
+        {
+            m_line    = line;
+            m_message = message;
+        }
+    }
+    
+    /*
+     * Task processing the lines between two positions in a file, each of which is either the start or end of the
+     * file or just after a new line. Large chunks are split in two and processed in parallel.
+     */
+    private static final class Chunk
+        extends RecursiveTask<Counter>
+    {
+        private static final long  serialVersionUID = 1L;
+        
+        private final Counter      m_owner;
+        private final FileChannel  m_channel;
+        private final long         m_start;
+        private final long         m_end;
+        private final long         m_chunk;
+        
+        Chunk(Counter owner, FileChannel channel, long start, long end, long chunk)
+        {
+            m_owner   = owner;
+            m_channel = channel;
+            m_start   = start;
+            m_end     = end;
+            m_chunk   = chunk;
+        }
+        
+        @Override
+        protected Counter
+        compute()
+        {
+            try
+            {
+                if (m_end - m_start > m_chunk)
+                {
+                    long  split = nextLine(m_channel, m_start + (m_end - m_start) / 2, m_end);
+                    if (split < m_end)
+                    {
+                        Chunk  first = new Chunk(m_owner, m_channel, m_start, split, m_chunk);
+                        first.fork();
+                        
+                        Counter  second = new Chunk(m_owner, m_channel, split, m_end, m_chunk).compute();
+                        Counter  result = first.join();
+                        result.merge(second);
+                        return result;
+                    }
+                }
+                
+                if (m_end - m_start > MapSize)
+                {
+                    throw new IOException("Line too long at byte " + m_start);
+                }
+                
+                Counter  counter = m_owner.newPart();
+                
+                long              started = System.nanoTime();
+                MappedByteBuffer  buffer  = m_channel.map(FileChannel.MapMode.READ_ONLY, m_start, m_end - m_start);
+                if (counter.m_recorder != null)
+                {
+                    counter.m_recorder.add(CounterMetrics.Stage.READ, System.nanoTime() - started);
+                }
+                counter.m_lines = new LineScanner(counter).scan(buffer, 0, buffer.limit(), 0);
+                return counter;
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        
+    }
+    
     public static void
     main(String... args)
     {
@@ -123,21 +849,110 @@ public class Counter
         try
         {
             Counter  counter = new Counter();
+            boolean  mapped  = false;
+            int      threads = 0;
+            int      cache   = 0;
+            String   output  = null;
+            boolean  metrics = false;
+            boolean  log     = false;
             
-            if (args.length > 0)
+            int  arg = 0;
+            while (arg < args.length && args[arg].startsWith("-"))
             {
-                try (FileInputStream fis = new FileInputStream(args[0]))
+                String  option = args[arg++];
+                
+                if ("-evaluator".equals(option) && arg < args.length)
+                {
+                    Hand.setEvaluator(Evaluator.parse(args[arg++]));
+                }
+                else if ("-rules".equals(option) && arg < args.length)
+                {
+                    Hand.setEvaluator(Evaluator.forRules(Rules.parse(args[arg++])));
+                }
+                else if ("-ignorecase".equals(option))
+                {
+                    counter.setIgnoreCase(true);
+                }
+                else if ("-holdem".equals(option))
                 {
-                    counter.process(fis);
+                    counter.setHoldem(true);
                 }
+                else if ("-players".equals(option) && arg < args.length)
+                {
+                    counter.setPlayers(parseCount(option, args[arg++]));
+                }
+                else if ("-cache".equals(option) && arg < args.length)
+                {
+                    cache = parseCount(option, args[arg++]);
+                }
+                else if ("-output".equals(option) && arg < args.length)
+                {
+                    output = args[arg++];
+                }
+                else if ("-metrics".equals(option))
+                {
+                    metrics = true;
+                }
+                else if ("-log".equals(option))
+                {
+                    log = true;
+                }
+                else if ("-mmap".equals(option))
+                {
+                    mapped = true;
+                }
+                else if ("-threads".equals(option) && arg < args.length)
+                {
+                    threads = parseCount(option, args[arg++]);
+                    mapped  = true;
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+            }
+            
+            if (log && mapped)
+            {
+                throw new PokerException("-log cannot be used with -mmap or -threads");
+            }
+            
+            // after the options, so that it uses the evaluator chosen
+            if (cache > 0)
+            {
+                counter.setCache(new HandCache(cache, Hand.getEvaluator()));
+            }
+            if (metrics)
+            {
+                counter.setMetrics(new CounterMetrics(Hand.getEvaluator().getRules()));
+                counter.m_metrics.register("main");
+            }
+            
+            if (output == null)
+            {
+                run(counter, args, arg, mapped, threads, log);
+            }
+            else if ("-".equals(output))
+            {
+                counter.setOutput(Channels.newChannel(System.out));
+                run(counter, args, arg, mapped, threads, log);
+                System.out.flush();
             }
             else
             {
-                counter.process(System.in);
+                try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                                                            StandardOpenOption.WRITE,
+                                                            StandardOpenOption.TRUNCATE_EXISTING))
+                {
+                    counter.setOutput(channel);
+                    run(counter, args, arg, mapped, threads, log);
+                }
             }
             
-            System.out.println("Player 1: " + counter.m_player1);
-            System.out.println("Player 2: " + counter.m_player2);
+            for (int i = 0; i < counter.m_players; ++i)
+            {
+                System.out.println("Player " + (i + 1) + ": " + counter.m_wins[i]);
+            }
             if (counter.m_tied > 0)
             {
                 System.out.println("Tied    : " + counter.m_tied);
@@ -146,6 +961,15 @@ public class Counter
             {
                 System.out.println("Errors  : " + counter.m_errors);
             }
+            if (counter.m_cache != null)
+            {
+                System.out.println(counter.m_cache);
+            }
+            if (counter.m_metrics != null)
+            {
+                System.out.println(counter.m_metrics);
+                counter.m_metrics.close();
+            }
             
             System.out.println("\nFINISHED");
         }
@@ -154,4 +978,70 @@ public class Counter
             System.err.println("\nERROR: " + ex);
         }
     }
+    
+    /*
+     * Processes the file named by the argument after the options, or standard input if there is none.
+     */
+    private static void
+    run(Counter counter, String[] args, int arg, boolean mapped, int threads, boolean log)
+        throws IOException, PokerException
+    {
+        if (log)
+        {
+            if (arg == args.length)
+            {
+                throw new PokerException("-log needs a file");
+            }
+            counter.processLog(Paths.get(args[arg]));
+        }
+        else if (mapped)
+        {
+            if (arg == args.length)
+            {
+                throw new PokerException("-mmap needs a file");
+            }
+            
+            if (threads > 0)
+            {
+                counter.processParallel(Paths.get(args[arg]), threads);
+            }
+            else
+            {
+                counter.processMapped(Paths.get(args[arg]));
+            }
+        }
+        else if (arg < args.length)
+        {
+            try (FileInputStream fis = new FileInputStream(args[arg]))
+            {
+                counter.process(fis);
+            }
+        }
+        else
+        {
+            counter.process(System.in);
+        }
+    }
+    
+    /*
+     * Parses the positive number following an option.
+     */
+    private static int
+    parseCount(String option, String value)
+        throws PokerException
+    {
+        try
+        {
+            int  count = Integer.parseInt(value);
+            if (count > 0)
+            {
+                return count;
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            // reported below
+        }
+        throw new PokerException("Invalid " + option + ": " + value);
+    }
 }
@@ -0,0 +1,577 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * @author Andrew
+ *
+ * Counts what the Counters processing some input spend their time on: lines scanned, hands ranked of each
+ * Evaluation.Kind, lines in error and the time spent in each Stage. They can be read directly, through JMX once
+ * registered, or from Flight Recorder events.<br>
+ * Each Counter records into its own Recorder of plain fields, which is added to the shared LongAdders at the end of
+ * each buffer scanned and every 65536 lines, so nothing is shared per line. Reading is timed on every read, but the
+ * other stages are only timed on one line in SampleInterval and scaled up, which keeps the calls to System.nanoTime
+ * well under the cost of ranking a line. The times of parallel parts are added together, so they may exceed the
+ * time taken.<br>
+ * While Flight Recorder is running a poker.CounterScan event is committed for each buffer scanned, and periodic
+ * poker.CounterStatistics and poker.CounterKind events give the totals.
+ */
+public class CounterMetrics
+    implements CounterMetricsMXBean, AutoCloseable
+{
+    // one line in this many is timed - a power of two
+    public static final int  SampleInterval = 64;
+    
+    private static final int  SampleMask = SampleInterval - 1;
+    
+    // lines after which a recorder adds its counts to the metrics even in the middle of a buffer
+    private static final int  PublishMask = (1 << 16) - 1;
+    
+    private static final Evaluation.Kind[]  Kinds = Evaluation.Kind.values();
+    
+    /**
+     * The parts of processing a line which are timed separately.
+     */
+    public enum Stage
+    {
+        /**
+         * Reading input, or mapping it into memory
+         */
+        READ,
+        
+        /**
+         * Splitting lines and parsing cards, which for mapped input includes the page faults reading the file
+         */
+        PARSE,
+        
+        /**
+         * Ranking the hands and choosing the winners, which is done in the same pass
+         */
+        RANK,
+        
+        /**
+         * Writing the result of each line, when results are written
+         */
+        OUTPUT
+    }
+    
+    private static final Stage[]  Stages = Stage.values();
+    
+    private final Rules        m_rules;
+    private final long         m_created = System.nanoTime();
+    private final LongAdder    m_lines   = new LongAdder();
+    private final LongAdder    m_errors  = new LongAdder();
+    private final LongAdder[]  m_kinds   = newAdders(Kinds.length);
+    private final LongAdder[]  m_nanos   = newAdders(Stages.length);
+    
+    // set while registered
+    private  ObjectName  m_name;
+    private  Runnable    m_statistics;    // periodic event hooks
+    private  Runnable    m_kindsHook;
+    
+    /**
+     * @param rules  Rules the hands are ranked under, to decode the kind of each rank
+     */
+    public
+    CounterMetrics(Rules rules)
+    {
+        m_rules = rules;
+    }
+    
+    private static LongAdder[]
+    newAdders(int count)
+    {
+        LongAdder[]  adders = new LongAdder[count];
+        for (int i = 0; i < count; ++i)
+        {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+    
+    /**
+     * Registers the metrics with the platform MBean server as poker:type=Counter,name=NAME and adds the periodic
+     * Flight Recorder events.
+     * @param name  Name distinguishing these metrics from others in the JVM
+     * @throws PokerException if the name is invalid or already registered
+     */
+    public synchronized void
+    register(String name)
+        throws PokerException
+    {
+        try
+        {
+            MBeanServer  server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName   object = ObjectName.getInstance("poker:type=Counter,name=" + ObjectName.quote(name));
+            server.registerMBean(this, object);
+            m_name = object;
+        }
+        catch (JMException ex)
+        {
+            throw new PokerException("Can not register metrics " + name + ": " + ex);
+        }
+        
+        m_statistics = new Runnable()
+        {
+            @Override
+            public void
+            run()
+            {
+                commitStatistics();
+            }
+        };
+        m_kindsHook = new Runnable()
+        {
+            @Override
+            public void
+            run()
+            {
+                commitKinds();
+            }
+        };
+        FlightRecorder.addPeriodicEvent(StatisticsEvent.class, m_statistics);
+        FlightRecorder.addPeriodicEvent(KindEvent.class, m_kindsHook);
+    }
+    
+    /**
+     * Unregisters the metrics if they were registered.
+     */
+    @Override
+    public synchronized void
+    close()
+    {
+        if (m_statistics != null)
+        {
+            FlightRecorder.removePeriodicEvent(m_statistics);
+            FlightRecorder.removePeriodicEvent(m_kindsHook);
+            m_statistics = null;
+            m_kindsHook  = null;
+        }
+        if (m_name != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_name);
+            }
+            catch (JMException ex)
+            {
+                // already gone
+            }
+            m_name = null;
+        }
+    }
+    
+    /**
+     * @return new recorder for one Counter to record into
+     */
+    Recorder
+    newRecorder()
+    {
+        return new Recorder();
+    }
+    
+    @Override
+    public long
+    getLines()
+    {
+        return m_lines.sum();
+    }
+    
+    @Override
+    public long
+    getErrors()
+    {
+        return m_errors.sum();
+    }
+    
+    @Override
+    public long
+    getHands()
+    {
+        long  hands = 0;
+        for (LongAdder kind : m_kinds)
+        {
+            hands += kind.sum();
+        }
+        return hands;
+    }
+    
+    @Override
+    public double
+    getLinesPerSecond()
+    {
+        long  elapsed = System.nanoTime() - m_created;
+        return elapsed > 0 ? getLines() * 1e9 / elapsed : 0;
+    }
+    
+    @Override
+    public int
+    getSampleInterval()
+    {
+        return SampleInterval;
+    }
+    
+    /**
+     * @param stage  Stage of processing
+     * @return nanoseconds spent in the stage, estimated from the sampled lines other than for READ
+     */
+    public long
+    getNanos(Stage stage)
+    {
+        return m_nanos[stage.ordinal()].sum();
+    }
+    
+    @Override
+    public long
+    getReadNanos()
+    {
+        return getNanos(Stage.READ);
+    }
+    
+    @Override
+    public long
+    getParseNanos()
+    {
+        return getNanos(Stage.PARSE);
+    }
+    
+    @Override
+    public long
+    getRankNanos()
+    {
+        return getNanos(Stage.RANK);
+    }
+    
+    @Override
+    public long
+    getOutputNanos()
+    {
+        return getNanos(Stage.OUTPUT);
+    }
+    
+    /**
+     * @param kind  Kind of hand
+     * @return number of hands ranked of that kind
+     */
+    public long
+    getHands(Evaluation.Kind kind)
+    {
+        return m_kinds[kind.ordinal()].sum();
+    }
+    
+    @Override
+    public Map<String, Long>
+    getKinds()
+    {
+        Map<String, Long>  kinds = new LinkedHashMap<String, Long>();
+        for (Evaluation.Kind kind : Kinds)
+        {
+            kinds.put(kind.name(), getHands(kind));
+        }
+        return kinds;
+    }
+    
+    /*
+     * Commits the periodic event with the totals so far.
+     */
+    private void
+    commitStatistics()
+    {
+        StatisticsEvent  statistics = new StatisticsEvent();
+        if (statistics.isEnabled())
+        {
+            statistics.lines          = getLines();
+            statistics.errors         = getErrors();
+            statistics.hands          = getHands();
+            statistics.linesPerSecond = getLinesPerSecond();
+            statistics.readNanos      = getReadNanos();
+            statistics.parseNanos     = getParseNanos();
+            statistics.rankNanos      = getRankNanos();
+            statistics.outputNanos    = getOutputNanos();
+            statistics.commit();
+        }
+    }
+    
+    /*
+     * Commits a periodic event for each kind with the hands so far.
+     */
+    private void
+    commitKinds()
+    {
+        for (Evaluation.Kind kind : Kinds)
+        {
+            KindEvent  event = new KindEvent();
+            if (!event.isEnabled())
+            {
+                break;
+            }
+            event.kind  = kind.name();
+            event.hands = getHands(kind);
+            event.commit();
+        }
+    }
+    
+    @Override
+    public String
+    toString()
+    {
+        StringBuilder  buf = new StringBuilder();
+        buf.append("Lines   : ").append(getLines()).append(String.format(" (%.0f/s)", getLinesPerSecond()));
+        buf.append("\nErrors  : ").append(getErrors());
+        for (Stage stage : Stages)
+        {
+            buf.append(String.format("\n%-8s: %.3f s", stage, getNanos(stage) / 1e9));
+        }
+        for (Evaluation.Kind kind : Kinds)
+        {
+            long  hands = getHands(kind);
+            if (hands > 0)
+            {
+                buf.append(String.format("\n%-16s: %d", kind, hands));
+            }
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * The counts of one Counter, added to the metrics from time to time. Not thread safe.<br>
+     * A scan calls begin, then line for each line, lap at the end of each stage of a line and publish at the end.
+     */
+    final class Recorder
+    {
+        private final long[]  m_kindFields = new long[Kinds.length];    // hands by kind field of the rank
+        private final long[]  m_stageNanos = new long[Stages.length];
+        
+        // lines and errors ever seen, and those already added to the metrics or seen before the scan
+        private  long       m_lines;
+        private  long       m_errors;
+        private  long       m_addedLines;
+        private  long       m_addedErrors;
+        private  long       m_scanLines;
+        private  long       m_scanErrors;
+        
+        private  boolean    m_timed;
+        private  long       m_mark;
+        private  ScanEvent  m_event;
+        
+        /**
+         * Starts a scan.
+         */
+        void
+        begin()
+        {
+            m_scanLines  = m_lines;
+            m_scanErrors = m_errors;
+            m_event      = new ScanEvent();
+            m_event.begin();
+        }
+        
+        /**
+         * Counts a line, and starts timing it if it is sampled.
+         */
+        void
+        line()
+        {
+            if ((m_lines & PublishMask) == PublishMask)
+            {
+                add();
+            }
+            
+            m_timed = (m_lines++ & SampleMask) == 0;
+            if (m_timed)
+            {
+                m_mark = System.nanoTime();
+            }
+        }
+        
+        /**
+         * Ends a stage of a sampled line.
+         * @param stage  Stage ended, timed from the end of the last
+         */
+        void
+        lap(Stage stage)
+        {
+            if (m_timed)
+            {
+                long  now = System.nanoTime();
+                m_stageNanos[stage.ordinal()] += (now - m_mark) * SampleInterval;
+                m_mark = now;
+            }
+        }
+        
+        /**
+         * Adds time spent in a stage which is timed every time, such as reading.
+         * @param stage  Stage of processing
+         * @param nanos  Nanoseconds spent
+         */
+        void
+        add(Stage stage, long nanos)
+        {
+            m_stageNanos[stage.ordinal()] += nanos;
+        }
+        
+        /**
+         * Counts the kind of each hand of a showdown.
+         * @param showdown  Showdown just decided
+         * @param seats     Number of seats
+         */
+        void
+        hands(Showdown showdown, int seats)
+        {
+            for (int seat = 0; seat < seats; ++seat)
+            {
+                m_kindFields[showdown.getRank(seat) >>> HandRank.KindShift]++;
+            }
+        }
+        
+        /**
+         * Counts a line in error.
+         */
+        void
+        error()
+        {
+            m_errors++;
+        }
+        
+        /**
+         * Ends a scan, adding the counts to the metrics.
+         */
+        void
+        publish()
+        {
+            if (m_event != null)
+            {
+                m_event.end();
+                if (m_event.shouldCommit())
+                {
+                    m_event.lines  = m_lines - m_scanLines;
+                    m_event.errors = m_errors - m_scanErrors;
+                    m_event.commit();
+                }
+                m_event = null;
+            }
+            add();
+        }
+        
+        /*
+         * Adds the counts since last added to the metrics.
+         */
+        private void
+        add()
+        {
+            CounterMetrics.this.m_lines.add(m_lines - m_addedLines);
+            CounterMetrics.this.m_errors.add(m_errors - m_addedErrors);
+            m_addedLines  = m_lines;
+            m_addedErrors = m_errors;
+            
+            for (int field = 0; field < m_kindFields.length; ++field)
+            {
+                if (m_kindFields[field] != 0)
+                {
+                    m_kinds[m_rules.kind(field << HandRank.KindShift).ordinal()].add(m_kindFields[field]);
+                    m_kindFields[field] = 0;
+                }
+            }
+            for (int stage = 0; stage < m_stageNanos.length; ++stage)
+            {
+                if (m_stageNanos[stage] != 0)
+                {
+                    m_nanos[stage].add(m_stageNanos[stage]);
+                    m_stageNanos[stage] = 0;
+                }
+            }
+        }
+    }
+    
+    /*
+     * Flight Recorder events - the fields are read by the recorder, so are set directly.
+     */
+    @Name("poker.CounterScan")
+    @Label("Counter Scan")
+    @Category({ "Poker", "Counter" })
+    @Description("A buffer of lines scanned by a Counter")
+    @StackTrace(false)
+    static final class ScanEvent
+        extends Event
+    {
+        @Label("Lines")
+        long  lines;
+        
+        @Label("Errors")
+        long  errors;
+    }
+    
+    @Name("poker.CounterStatistics")
+    @Label("Counter Statistics")
+    @Category({ "Poker", "Counter" })
+    @Description("Totals of the Counters recording into a CounterMetrics")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class StatisticsEvent
+        extends Event
+    {
+        @Label("Lines")
+        long    lines;
+        
+        @Label("Errors")
+        long    errors;
+        
+        @Label("Hands")
+        long    hands;
+        
+        @Label("Lines per Second")
+        double  linesPerSecond;
+        
+        @Label("Read Time")
+        @Timespan
+        long    readNanos;
+        
+        @Label("Parse Time")
+        @Timespan
+        long    parseNanos;
+        
+        @Label("Rank Time")
+        @Timespan
+        long    rankNanos;
+        
+        @Label("Output Time")
+        @Timespan
+        long    outputNanos;
+    }
+    
+    @Name("poker.CounterKind")
+    @Label("Counter Kind")
+    @Category({ "Poker", "Counter" })
+    @Description("Hands of one Evaluation.Kind ranked by the Counters recording into a CounterMetrics")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class KindEvent
+        extends Event
+    {
+        @Label("Kind")
+        String  kind;
+        
+        @Label("Hands")
+        long    hands;
+    }
+}
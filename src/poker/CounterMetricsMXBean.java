@@ -0,0 +1,75 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Map;
+
+/**
+ * @author Andrew
+ *
+ * Management interface of CounterMetrics, registered with the platform MBean server by CounterMetrics.register.
+ * Stage times other than reading are estimated from a sample of the lines.
+ */
+public interface CounterMetricsMXBean
+{
+    /**
+     * @return number of lines scanned, including empty lines and lines in error
+     */
+    long
+    getLines();
+    
+    /**
+     * @return number of lines in error
+     */
+    long
+    getErrors();
+    
+    /**
+     * @return number of hands ranked
+     */
+    long
+    getHands();
+    
+    /**
+     * @return lines scanned per second since the metrics were created
+     */
+    double
+    getLinesPerSecond();
+    
+    /**
+     * @return one line in this many is timed
+     */
+    int
+    getSampleInterval();
+    
+    /**
+     * @return nanoseconds spent reading input
+     */
+    long
+    getReadNanos();
+    
+    /**
+     * @return estimated nanoseconds spent splitting lines and parsing cards
+     */
+    long
+    getParseNanos();
+    
+    /**
+     * @return estimated nanoseconds spent ranking hands and choosing the winners
+     */
+    long
+    getRankNanos();
+    
+    /**
+     * @return estimated nanoseconds spent writing the result of each line
+     */
+    long
+    getOutputNanos();
+    
+    /**
+     * @return number of hands ranked of each Evaluation.Kind, by name
+     */
+    Map<String, Long>
+    getKinds();
+}
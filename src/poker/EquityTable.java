@@ -0,0 +1,546 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * @author Andrew
+ *
+ * Heads-up preflop equities of every starting hand against every other, read from a file mapped into memory so a
+ * lookup is a single read with nothing copied onto the heap.<br>
+ * The table is either by the 169 classes of Isomorphism.preflop, or by the 1326 pairs of hole cards indexed by
+ * combo. Each entry is the exact equity of the row hand against the column hand over all boards, ties counting
+ * half, averaged over the pairs of hole cards of a class which do not share a card.<br>
+ * Enumerating the boards of every matchup separately would take hours, so the boards are enumerated once instead.
+ * Renaming the suites of a board only renames the suites of the hole cards, so only the representative of each of
+ * the Isomorphism.HandClasses classes of boards is ranked, counting for every board in its class. On each, every
+ * pair of hole cards not on the board is ranked with SevenCardRank and the pairs are swept in rank order, each
+ * row gaining the pairs below it in every column at once, see Sweep. The counts are then added up over the 24
+ * renamings of the suites.<br>
+ * The file holds a header with a magic number, the format version, the size of the table and a CRC32 of the
+ * entries, followed by the entries as unsigned shorts. A file which is missing or does not match is generated
+ * again when loaded.
+ */
+public final class EquityTable
+{
+    public static final int  Classes = Isomorphism.PreflopClasses;
+    public static final int  Combos  = Card.DeckSize * (Card.DeckSize - 1) / 2;
+    
+    public static final int  Version = 2;
+    
+    private static final int  Magic      = 0x50455154;    // "PEQT"
+    private static final int  HeaderSize = 20;
+    
+    // an entry is the equity scaled to this, with all bits set where the hands share a card
+    private static final int  Scale      = 0xFFFE;
+    private static final int  Impossible = 0xFFFF;
+    
+    // boards dealt with each matchup of hole cards
+    private static final long  Boards = Colex.choose(Card.DeckSize - 4, Hand.Size);
+    
+    private final MappedByteBuffer  m_buffer;
+    private final int               m_size;
+    
+    private
+    EquityTable(MappedByteBuffer buffer, int size)
+    {
+        m_buffer = buffer;
+        m_size   = size;
+    }
+    
+    /**
+     * @return index of a pair of hole cards from 0 to Combos - 1, high * (high - 1) / 2 + low by code
+     */
+    public static int
+    combo(int code1, int code2)
+    {
+        int  high = Math.max(code1, code2);
+        int  low  = Math.min(code1, code2);
+        return high * (high - 1) / 2 + low;
+    }
+    
+    /**
+     * @param combo  Index of a pair of hole cards
+     * @param codes  Filled with the codes of the cards, high card first
+     */
+    public static void
+    comboCodes(int combo, int[] codes)
+    {
+        int  high = (int) ((1 + Math.sqrt(1 + 8.0 * combo)) / 2);
+        while (high * (high - 1) / 2 > combo)
+        {
+            high--;
+        }
+        codes[0] = high;
+        codes[1] = combo - high * (high - 1) / 2;
+    }
+    
+    /**
+     * Maps a table, generating it first if the file is missing or does not match.
+     * @param path     File holding the table
+     * @param size     Classes or Combos
+     * @param threads  Number of threads to generate on
+     * @return the table
+     * @throws IOException
+     * @throws PokerException if the size is not one of the tables
+     */
+    public static EquityTable
+    load(Path path, int size, int threads)
+        throws IOException, PokerException
+    {
+        EquityTable  table = Files.exists(path) ? map(path) : null;
+        if (table == null || table.m_size != size)
+        {
+            generate(path, size, threads);
+            table = map(path);
+            if (table == null)
+            {
+                throw new IOException("Generated table is invalid: " + path);
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * Maps a table.
+     * @return the table, or null if the file is not a valid table of this version
+     * @throws IOException
+     */
+    public static EquityTable
+    map(Path path)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if (channel.size() < HeaderSize)
+            {
+                return null;
+            }
+            MappedByteBuffer  buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            
+            int   magic   = buffer.getInt(0);
+            int   version = buffer.getInt(4);
+            int   size    = buffer.getInt(8);
+            long  crc     = buffer.getLong(12);
+            if (magic != Magic || version != Version || (size != Classes && size != Combos)
+                || channel.size() != HeaderSize + 2L * size * size)
+            {
+                return null;
+            }
+            
+            ByteBuffer  entries = buffer.duplicate();
+            entries.position(HeaderSize);
+            CRC32  check = new CRC32();
+            check.update(entries);
+            if (check.getValue() != crc)
+            {
+                return null;
+            }
+            return new EquityTable(buffer, size);
+        }
+    }
+    
+    /**
+     * @return Classes or Combos
+     */
+    public int
+    getSize()
+    {
+        return m_size;
+    }
+    
+    /**
+     * @param row     Index of the first hand, from Isomorphism.preflop or combo according to the size
+     * @param column  Index of the second hand
+     * @return equity of the first hand against the second, NaN if they share a card
+     */
+    public double
+    getEquity(int row, int column)
+    {
+        int  entry = m_buffer.getShort(HeaderSize + 2 * (row * m_size + column)) & 0xFFFF;
+        return entry == Impossible ? Double.NaN : (double) entry / Scale;
+    }
+    
+    /**
+     * Enumerates the equities and writes a table, replacing the file only once it is complete.
+     * @param path     File to write
+     * @param size     Classes or Combos
+     * @param threads  Number of threads to enumerate on
+     * @throws IOException
+     * @throws PokerException if the size is not one of the tables
+     */
+    public static void
+    generate(Path path, int size, int threads)
+        throws IOException, PokerException
+    {
+        if (size != Classes && size != Combos)
+        {
+            throw new PokerException("Invalid table size " + size);
+        }
+        
+        // row and column of each pair of hole cards, and how many pairs make up each entry
+        int[]   indexes = new int[Combos];
+        long[]  cards   = new long[Combos];
+        int[]   codes   = new int[2];
+        for (int combo = 0; combo < Combos; ++combo)
+        {
+            comboCodes(combo, codes);
+            indexes[combo] = size == Classes ? Isomorphism.preflop(codes[0], codes[1]) : combo;
+            cards[combo]   = 1L << codes[0] | 1L << codes[1];
+        }
+        long[]  pairs = new long[size * size];
+        for (int first = 0; first < Combos; ++first)
+        {
+            for (int second = 0; second < Combos; ++second)
+            {
+                if ((cards[first] & cards[second]) == 0)
+                {
+                    pairs[indexes[first] * size + indexes[second]]++;
+                }
+            }
+        }
+        
+        // boards standing for each class of boards
+        int[]  boards = new int[Isomorphism.HandClasses];
+        int[]  board  = { 0, 1, 2, 3, 4 };
+        do
+        {
+            boards[Isomorphism.index(board, 0)]++;
+        }
+        while (Colex.next(board, Hand.Size, Card.DeckSize));
+        
+        ArrayList<Sweep>  sweeps = new ArrayList<Sweep>();
+        for (int t = 0; t < threads; ++t)
+        {
+            sweeps.add(new Sweep(size, indexes, boards, (int) ((long) boards.length * t / threads),
+                                 (int) ((long) boards.length * (t + 1) / threads)));
+        }
+        ForkJoinPool  pool = new ForkJoinPool(threads);
+        try
+        {
+            for (Sweep sweep : sweeps)
+            {
+                pool.execute(sweep);
+            }
+            for (Sweep sweep : sweeps)
+            {
+                sweep.join();
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        
+        // the sweeps only ranked one board of each class, so add the entries of every renaming of the suites
+        int[][]  renamings = renamings(size);
+        long[]   wins      = new long[size * size];
+        for (Sweep sweep : sweeps)
+        {
+            for (int[] renaming : renamings)
+            {
+                for (int row = 0; row < size; ++row)
+                {
+                    for (int column = 0; column < size; ++column)
+                    {
+                        wins[row * size + column] += sweep.m_wins[renaming[row] * size + renaming[column]];
+                    }
+                }
+            }
+        }
+        
+        ByteBuffer  buffer = ByteBuffer.allocate(HeaderSize + 2 * size * size);
+        buffer.position(HeaderSize);
+        for (int entry = 0; entry < size * size; ++entry)
+        {
+            if (pairs[entry] == 0)
+            {
+                buffer.putShort((short) Impossible);
+            }
+            else
+            {
+                // wins are counted in halves for each renaming, so a tie counts one
+                double  equity = wins[entry] / (2.0 * renamings.length * pairs[entry] * Boards);
+                buffer.putShort((short) Math.round(equity * Scale));
+            }
+        }
+        
+        CRC32  crc = new CRC32();
+        buffer.position(HeaderSize);
+        crc.update(buffer);
+        buffer.putInt(0, Magic).putInt(4, Version).putInt(8, size).putLong(12, crc.getValue());
+        buffer.rewind();
+        
+        Path  temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /*
+     * For each of the 24 renamings of the suites, the row or column each row or column of the table becomes.
+     */
+    private static int[][]
+    renamings(int size)
+    {
+        int[][]  renamings = new int[24][size];
+        int      n         = 0;
+        for (int permutation = 0; permutation < 1 << 2 * Card.SuiteMask + 2; ++permutation)
+        {
+            // only those sending the four suites to four different suites
+            int  suites = 0;
+            for (int s = 0; s <= Card.SuiteMask; ++s)
+            {
+                suites |= 1 << (permutation >>> 2 * s & Card.SuiteMask);
+            }
+            if (suites != 0xF)
+            {
+                continue;
+            }
+            
+            int[]  codes = new int[2];
+            for (int index = 0; index < size; ++index)
+            {
+                if (size == Classes)
+                {
+                    // the classes do not depend on the suites
+                    renamings[n][index] = index;
+                }
+                else
+                {
+                    comboCodes(index, codes);
+                    renamings[n][index] = combo(Isomorphism.apply(permutation, codes[0]),
+                                                Isomorphism.apply(permutation, codes[1]));
+                }
+            }
+            n++;
+        }
+        return renamings;
+    }
+    
+    /*
+     * Task ranking every pair of hole cards on the representative boards of a range of classes of boards.
+     * The pairs are sorted by rank on each board, and as they are swept from the lowest each pair's row gains, for
+     * every column, the pairs in that column below it and not sharing a card with it. These are counted as all the
+     * pairs below in the column, less those holding either of its cards, the pair itself being added back once it
+     * is counted. Pairs of the same rank are counted before and after adding them, so that a tie counts one and a
+     * win two, and each board counts for all the boards in its class.
+     */
+    private static final class Sweep
+        extends RecursiveAction
+    {
+        private static final long  serialVersionUID = 1L;
+        
+        private final int    m_size;
+        private final int[]  m_indexes;
+        private final int[]  m_boards;
+        private final int    m_first;
+        private final int    m_end;
+        private final int[]  m_wins;
+        
+        // pairs swept in each column, and those holding each card
+        private final int[]  m_below;
+        private final int[]  m_byCard;
+        
+        Sweep(int size, int[] indexes, int[] boards, int first, int end)
+        {
+            m_size    = size;
+            m_indexes = indexes;
+            m_boards  = boards;
+            m_first   = first;
+            m_end     = end;
+            m_wins    = new int[size * size];
+            m_below   = new int[size];
+            m_byCard  = new int[Card.DeckSize * size];
+        }
+        
+        @Override
+        protected void
+        compute()
+        {
+            int[]   board = new int[Hand.Size];
+            int[]   codes = new int[2];
+            long[]  keys  = new long[Combos];
+            
+            for (int index = m_first; index < m_end; ++index)
+            {
+                Isomorphism.representative(index, board);
+                long  suites = SevenCardRank.suites(board, 0, Hand.Size);
+                long  used   = 0;
+                for (int code : board)
+                {
+                    used |= 1L << code;
+                }
+                
+                // the rank of every pair not on the board, with the pair in the low bits
+                int  live = 0;
+                for (int combo = 0; combo < Combos; ++combo)
+                {
+                    comboCodes(combo, codes);
+                    if ((used & (1L << codes[0] | 1L << codes[1])) == 0)
+                    {
+                        int  rank = SevenCardRank.evaluate(suites | SevenCardRank.suites(codes, 0, 2));
+                        keys[live++] = (long) rank << Integer.SIZE | combo;
+                    }
+                }
+                Arrays.sort(keys, 0, live);
+                
+                Arrays.fill(m_below, 0);
+                Arrays.fill(m_byCard, 0);
+                int  weight = m_boards[index];
+                int  first  = 0;
+                while (first < live)
+                {
+                    // the pairs of the same rank
+                    long  rank = keys[first] >>> Integer.SIZE;
+                    int   end  = first + 1;
+                    while (end < live && keys[end] >>> Integer.SIZE == rank)
+                    {
+                        end++;
+                    }
+                    
+                    for (int i = first; i < end; ++i)
+                    {
+                        count((int) keys[i], weight, false, codes);
+                    }
+                    for (int i = first; i < end; ++i)
+                    {
+                        comboCodes((int) keys[i], codes);
+                        int  column = m_indexes[(int) keys[i]];
+                        m_below[column]++;
+                        m_byCard[codes[0] * m_size + column]++;
+                        m_byCard[codes[1] * m_size + column]++;
+                    }
+                    for (int i = first; i < end; ++i)
+                    {
+                        count((int) keys[i], weight, true, codes);
+                    }
+                    first = end;
+                }
+            }
+        }
+        
+        /*
+         * Adds the pairs below a pair not sharing a card with it to its row.
+         */
+        private void
+        count(int combo, int weight, boolean counted, int[] codes)
+        {
+            comboCodes(combo, codes);
+            int  row   = m_indexes[combo] * m_size;
+            int  card1 = codes[0] * m_size;
+            int  card2 = codes[1] * m_size;
+            for (int column = 0; column < m_size; ++column)
+            {
+                m_wins[row + column] += weight * (m_below[column] - m_byCard[card1 + column]
+                                                  - m_byCard[card2 + column]);
+            }
+            if (counted)
+            {
+                m_wins[row + m_indexes[combo]] += weight;
+            }
+        }
+    }
+    
+    /**
+     * Runs from the command line, loading or generating a table and looking up pairs of hands:<br>
+     * EquityTable [-combos] [-threads N] FILE [hand hand] ...<br>
+     * A hand is a class such as "AKs" or "TT" for the 169 class table, or two cards such as "AH KH" with -combos.
+     */
+    public static void
+    main(String... args)
+    {
+        try
+        {
+            int  size    = Classes;
+            int  threads = Runtime.getRuntime().availableProcessors();
+            
+            int  arg = 0;
+            while (arg < args.length && args[arg].startsWith("-"))
+            {
+                String  option = args[arg++];
+                if ("-combos".equals(option))
+                {
+                    size = Combos;
+                }
+                else if ("-threads".equals(option) && arg < args.length)
+                {
+                    threads = Integer.parseInt(args[arg++]);
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+            }
+            if (arg == args.length)
+            {
+                throw new PokerException("Usage: EquityTable [options] FILE [hand hand] ...");
+            }
+            
+            long         start = System.nanoTime();
+            EquityTable  table = load(Paths.get(args[arg++]), size, threads);
+            System.out.println("Loaded " + size + " x " + size + " table in "
+                               + (System.nanoTime() - start) / 1000000 + "ms");
+            
+            for (; arg + 1 < args.length; arg += 2)
+            {
+                int  row    = index(args[arg], size);
+                int  column = index(args[arg + 1], size);
+                System.out.println(String.format("%s vs %s: %.4f", args[arg], args[arg + 1],
+                                                 table.getEquity(row, column)));
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Index of a hand on the command line.
+     */
+    private static int
+    index(String hand, int size)
+        throws PokerException
+    {
+        if (size == Combos)
+        {
+            int[]  codes = MonteCarlo.codes(hand);
+            if (codes.length != 2 || codes[0] == codes[1])
+            {
+                throw new PokerException("Invalid hole cards: " + hand);
+            }
+            return combo(codes[0], codes[1]);
+        }
+        
+        for (int index = 0; index < Classes; ++index)
+        {
+            if (Isomorphism.preflopName(index).equalsIgnoreCase(hand))
+            {
+                return index;
+            }
+        }
+        throw new PokerException("Invalid hand class: " + hand);
+    }
+}
@@ -10,7 +10,7 @@ package poker;
  */
 public class Evaluation implements Comparable<Evaluation>
 {
-    // note - royal flush is just a straight flush, Ace high, as A2345 is not a straight.
+    // note - royal flush is just a straight flush, Ace high, as A2345 is not a straight under standard Rules.
 
     enum Kind { HIGH_CARD, ONE_PAIR, TWO_PAIRS, THREE_OF_A_KIND, STRAIGHT,
                 FLUSH, FULL_HOUSE, FOUR_OF_A_KIND, STRAIGHT_FLUSH }
@@ -117,12 +117,35 @@ public class Evaluation implements Comparable<Evaluation>
     public static Evaluation
     evalFourOfAKind(Number value)
     {
-        return new Evaluation(Kind.HIGH_CARD, value, null);
+        return new Evaluation(Kind.FOUR_OF_A_KIND, value, null);
     }
     
     public static Evaluation
     evalStraightFlush(Number high)
     {
-        return new Evaluation(Kind.HIGH_CARD, high, null);
+        return new Evaluation(Kind.STRAIGHT_FLUSH, high, null);
+    }
+    
+    /**
+     * Decodes a packed rank from HandRank into an Evaluation
+     * @param rank  Packed rank
+     * @return matching Evaluation - compares the same way as the rank, apart from the highest card comparison
+     */
+    public static Evaluation
+    decode(int rank)
+    {
+        Kind    kind  = HandRank.kind(rank);
+        Number  value = HandRank.number(rank, 0);
+        
+        // second value is the lower pair which follows the higher one, or the pair which follows the three
+        switch (kind)
+        {
+            case TWO_PAIRS:
+                return new Evaluation(kind, value, HandRank.number(rank, 2));
+            case FULL_HOUSE:
+                return new Evaluation(kind, value, HandRank.number(rank, 3));
+            default:
+                return new Evaluation(kind, value, null);
+        }
     }
 }
@@ -0,0 +1,255 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+/**
+ * @author Andrew
+ * 
+ * The different ways of evaluating five cards into a HandRank packed rank.
+ * All of them for the same Rules give exactly the same rank, so they can be swapped at runtime.
+ */
+public enum Evaluator
+{
+    /**
+     * Evaluates directly from the cards using HandRank - no start up cost
+     */
+    REFERENCE(Rules.STANDARD)
+    {
+        @Override
+        public int
+        evaluate(Card[] cards, int offset)
+        {
+            return HandRank.evaluate(cards, offset);
+        }
+        
+        @Override
+        public int
+        evaluate(int[] codes, int offset)
+        {
+            return HandRank.evaluate(codes, offset);
+        }
+        
+        @Override
+        public int
+        evaluate(long suites)
+        {
+            return SevenCardRank.evaluate(suites);
+        }
+    },
+    
+    /**
+     * Evaluates with a few reads from tables built when first used - see LookupTable
+     */
+    LOOKUP(Rules.STANDARD)
+    {
+        @Override
+        public int
+        evaluate(Card[] cards, int offset)
+        {
+            return LookupTable.evaluate(cards, offset);
+        }
+        
+        @Override
+        public int
+        evaluate(int[] codes, int offset)
+        {
+            return LookupTable.evaluate(codes, offset);
+        }
+        
+        @Override
+        public int
+        evaluate(long suites)
+        {
+            return SevenCardRank.evaluate(suites);
+        }
+    },
+    
+    /**
+     * Evaluates from the 13 bit masks of numbers in each suite - see SevenCardRank
+     */
+    MASK(Rules.STANDARD)
+    {
+        @Override
+        public int
+        evaluate(Card[] cards, int offset)
+        {
+            return SevenCardRank.evaluate(SevenCardRank.suites(cards, offset, Hand.Size));
+        }
+        
+        @Override
+        public int
+        evaluate(int[] codes, int offset)
+        {
+            return SevenCardRank.evaluate(SevenCardRank.suites(codes, offset, Hand.Size));
+        }
+        
+        @Override
+        public int
+        evaluate(long suites)
+        {
+            return SevenCardRank.evaluate(suites);
+        }
+    },
+    
+    /**
+     * Evaluates as MASK, but playing A2345 as the lowest straight
+     */
+    WHEEL(Rules.WHEEL)
+    {
+        @Override
+        public int
+        evaluate(Card[] cards, int offset)
+        {
+            return SevenCardRank.evaluateWheel(SevenCardRank.suites(cards, offset, Hand.Size));
+        }
+        
+        @Override
+        public int
+        evaluate(int[] codes, int offset)
+        {
+            return SevenCardRank.evaluateWheel(SevenCardRank.suites(codes, offset, Hand.Size));
+        }
+        
+        @Override
+        public int
+        evaluate(long suites)
+        {
+            return SevenCardRank.evaluateWheel(suites);
+        }
+    },
+    
+    /**
+     * Evaluates under the short deck rules - see ShortDeckRank
+     */
+    SHORT_DECK(Rules.SHORT_DECK)
+    {
+        @Override
+        public int
+        evaluate(Card[] cards, int offset)
+        {
+            return ShortDeckRank.evaluate(SevenCardRank.suites(cards, offset, Hand.Size));
+        }
+        
+        @Override
+        public int
+        evaluate(int[] codes, int offset)
+        {
+            return ShortDeckRank.evaluate(codes, offset);
+        }
+        
+        @Override
+        public int
+        evaluate(long suites)
+        {
+            return ShortDeckRank.evaluate(suites);
+        }
+    },
+    
+    /**
+     * Evaluates under the ace to five lowball rules - see LowballRank
+     */
+    LOWBALL(Rules.LOWBALL)
+    {
+        @Override
+        public int
+        evaluate(Card[] cards, int offset)
+        {
+            return LowballRank.evaluate(SevenCardRank.suites(cards, offset, Hand.Size));
+        }
+        
+        @Override
+        public int
+        evaluate(int[] codes, int offset)
+        {
+            return LowballRank.evaluate(codes, offset);
+        }
+        
+        @Override
+        public int
+        evaluate(long suites)
+        {
+            return LowballRank.evaluate(suites);
+        }
+    };
+    
+    private final Rules  m_rules;
+    
+    private
+    Evaluator(Rules rules)
+    {
+        m_rules = rules;
+    }
+    
+    /**
+     * @return rule variant the evaluator ranks under
+     */
+    public Rules
+    getRules()
+    {
+        return m_rules;
+    }
+    
+    /**
+     * Evaluates five consecutive cards of an array, which need not be sorted.
+     * @param cards   Array holding the cards
+     * @param offset  Index of the first of the five cards
+     * @return packed rank - a higher rank is a better hand
+     */
+    public abstract int
+    evaluate(Card[] cards, int offset);
+    
+    /**
+     * Evaluates five consecutive primitive card codes of an array, which need not be sorted.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return packed rank - a higher rank is a better hand
+     */
+    public abstract int
+    evaluate(int[] codes, int offset);
+    
+    /**
+     * Evaluates the best five of five to seven different cards.
+     * @param suites  Masks of numbers per suite from SevenCardRank.suites, combined with or
+     * @return packed rank - a higher rank is a better hand
+     */
+    public abstract int
+    evaluate(long suites);
+    
+    /**
+     * @param rules  Rule variant
+     * @return first evaluator ranking under the rules
+     */
+    public static Evaluator
+    forRules(Rules rules)
+    {
+        for (Evaluator e : Evaluator.values())
+        {
+            if (e.m_rules == rules)
+            {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("No Evaluator for " + rules);
+    }
+    
+    /**
+     * Parses the name of an evaluator, ignoring case.
+     * @param name  Name of the evaluator
+     * @return matching Evaluator
+     * @throws PokerException if no match found
+     */
+    public static Evaluator
+    parse(String  name)
+        throws PokerException
+    {
+        for (Evaluator e : Evaluator.values())
+        {
+            if (e.name().equalsIgnoreCase(name))
+            {
+                return e;
+            }
+        }
+        throw new PokerException("Invalid Evaluator: " + name);
+    }
+}
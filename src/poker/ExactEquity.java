@@ -0,0 +1,532 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Andrew
+ *
+ * Calculates exact Hold'em equities by enumerating every way of completing the board, and optionally every
+ * hole card pair of one opponent whose cards are unknown, ranking each with SevenCardRank.<br>
+ * The board completions are numbered by their Colex index over the cards still live, so the enumeration is split
+ * between ForkJoin tasks by index range. Cards are held as 64 bit masks by code, so dead cards and the opponent
+ * pairs which clash with a board are excluded with a single and.<br>
+ * Ties are counted exactly: a pot shared by n players gives each of them Share / n, which is a whole number for
+ * up to ten players, so the equities are exact fractions with no rounding error.
+ */
+public class ExactEquity
+{
+    // divisible by every number of players from 1 to 10
+    public static final long  Share = 2520;
+    
+    public static final int  MaxPlayers = 10;
+    
+    private final long[]  m_holes;    // suite masks of each known player's hole cards, as from SevenCardRank.suites
+    private final long    m_board;
+    private final int     m_missing;  // board cards still to be dealt
+    private final int[]   m_deck;     // codes of the live cards
+    private final long[]  m_pairs;    // card masks and suite masks of the pairs an unknown opponent may hold
+    private final long[]  m_pairSuites;
+    
+    private  int  m_threads = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * @param holes    Hole cards of each player whose cards are known, at least one
+     * @param board    Known board cards, from none to five
+     * @param dead     Cards known not to be in play
+     * @param unknown  Whether there is one more opponent whose cards are unknown
+     * @throws PokerException if the numbers of cards are wrong or a card appears twice
+     */
+    public
+    ExactEquity(int[][] holes, int[] board, int[] dead, boolean unknown)
+        throws PokerException
+    {
+        int  players = holes.length + (unknown ? 1 : 0);
+        if (holes.length == 0 || players < 2 || players > MaxPlayers)
+        {
+            throw new PokerException("Invalid number of players " + players);
+        }
+        if (board.length > Hand.Size)
+        {
+            throw new PokerException("Board cards " + board.length);
+        }
+        
+        long  used = 0;
+        m_holes = new long[holes.length];
+        for (int p = 0; p < holes.length; ++p)
+        {
+            if (holes[p].length != SevenCardRank.HoleCards)
+            {
+                throw new PokerException("Hole cards " + holes[p].length);
+            }
+            used = use(used, holes[p]);
+            m_holes[p] = SevenCardRank.suites(holes[p], 0, holes[p].length);
+        }
+        used = use(used, board);
+        used = use(used, dead);
+        
+        m_board   = SevenCardRank.suites(board, 0, board.length);
+        m_missing = Hand.Size - board.length;
+        
+        m_deck = new int[Card.DeckSize - Long.bitCount(used)];
+        for (int code = 0, n = 0; code < Card.DeckSize; ++code)
+        {
+            if ((used & 1L << code) == 0)
+            {
+                m_deck[n++] = code;
+            }
+        }
+        if (m_deck.length < m_missing + (unknown ? SevenCardRank.HoleCards : 0))
+        {
+            throw new PokerException("Not enough live cards");
+        }
+        
+        if (unknown)
+        {
+            int  count = (int) Colex.choose(m_deck.length, SevenCardRank.HoleCards);
+            m_pairs      = new long[count];
+            m_pairSuites = new long[count];
+            for (int i = 0, n = 0; i < m_deck.length; ++i)
+            {
+                for (int j = 0; j < i; ++j, ++n)
+                {
+                    m_pairs[n]      = 1L << m_deck[i] | 1L << m_deck[j];
+                    m_pairSuites[n] = SevenCardRank.suites(m_deck[i]) | SevenCardRank.suites(m_deck[j]);
+                }
+            }
+        }
+        else
+        {
+            m_pairs      = null;
+            m_pairSuites = null;
+        }
+    }
+    
+    /*
+     * Adds cards to a mask of used cards, checking they are valid and not already used.
+     */
+    private static long
+    use(long used, int[] codes)
+        throws PokerException
+    {
+        for (int code : codes)
+        {
+            Card  card = Card.valueOf(code);
+            if ((used & 1L << code) != 0)
+            {
+                throw new PokerException("Card appears twice: " + card);
+            }
+            used |= 1L << code;
+        }
+        return used;
+    }
+    
+    /**
+     * @param threads  Number of threads to enumerate on, by default the number of processors
+     * @throws PokerException if there are no threads
+     */
+    public void
+    setThreads(int threads)
+        throws PokerException
+    {
+        if (threads < 1)
+        {
+            throw new PokerException("Invalid threads " + threads);
+        }
+        m_threads = threads;
+    }
+    
+    /**
+     * @return number of showdowns which will be enumerated
+     */
+    public long
+    getOutcomes()
+    {
+        long  boards = Colex.choose(m_deck.length, m_missing);
+        return m_pairs == null ? boards : boards * Colex.choose(m_deck.length - m_missing, SevenCardRank.HoleCards);
+    }
+    
+    /**
+     * Enumerates every outcome.
+     * @return exact totals, the unknown opponent if any being the last player
+     */
+    public Result
+    run()
+    {
+        long  boards = Colex.choose(m_deck.length, m_missing);
+        long  chunk  = Math.max(boards / (m_threads * 16L), 1);
+        
+        ForkJoinPool  pool = new ForkJoinPool(m_threads);
+        try
+        {
+            return pool.invoke(new Range(0, boards, chunk));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Exact totals for each player.
+     */
+    public static class Result
+    {
+        private  long    m_outcomes;
+        private  long[]  m_wins;
+        private  long[]  m_ties;
+        private  long[]  m_shares;   // in units of 1/Share of a pot
+        
+        Result(int players)
+        {
+            m_wins   = new long[players];
+            m_ties   = new long[players];
+            m_shares = new long[players];
+        }
+        
+        void
+        add(Result other)
+        {
+            m_outcomes += other.m_outcomes;
+            for (int p = 0; p < m_wins.length; ++p)
+            {
+                m_wins[p]   += other.m_wins[p];
+                m_ties[p]   += other.m_ties[p];
+                m_shares[p] += other.m_shares[p];
+            }
+        }
+        
+        /*
+         * Credits the players holding the best rank with a number of outcomes.
+         */
+        void
+        credit(int[] ranks, int players, int best, int winners, long outcomes)
+        {
+            for (int p = 0; p < players; ++p)
+            {
+                if (ranks[p] == best)
+                {
+                    if (winners == 1)
+                    {
+                        m_wins[p] += outcomes;
+                    }
+                    else
+                    {
+                        m_ties[p] += outcomes;
+                    }
+                    m_shares[p] += outcomes * (Share / winners);
+                }
+            }
+        }
+        
+        public int
+        getPlayers()
+        {
+            return m_wins.length;
+        }
+        
+        public long
+        getOutcomes()
+        {
+            return m_outcomes;
+        }
+        
+        public long
+        getWins(int player)
+        {
+            return m_wins[player];
+        }
+        
+        public long
+        getTies(int player)
+        {
+            return m_ties[player];
+        }
+        
+        /**
+         * @return pots won by the player, in units of 1/Share of a pot - divide by Share * getOutcomes for equity
+         */
+        public long
+        getShares(int player)
+        {
+            return m_shares[player];
+        }
+        
+        public double
+        getEquity(int player)
+        {
+            return (double) m_shares[player] / Share / m_outcomes;
+        }
+        
+        @Override
+        public String
+        toString()
+        {
+            StringBuilder  buf = new StringBuilder("Outcomes ").append(m_outcomes);
+            for (int p = 0; p < m_wins.length; ++p)
+            {
+                buf.append(String.format("%nPlayer %d: win %.6f tie %.6f equity %.6f", p + 1,
+                                         (double) m_wins[p] / m_outcomes, (double) m_ties[p] / m_outcomes,
+                                         getEquity(p)));
+            }
+            return buf.toString();
+        }
+    }
+    
+    /*
+     * Task enumerating the boards with colex indices in a range, splitting large ranges in two.
+     */
+    private final class Range
+        extends RecursiveTask<Result>
+    {
+        private static final long  serialVersionUID = 1L;
+        
+        private final long  m_first;
+        private final long  m_end;
+        private final long  m_chunk;
+        
+        Range(long first, long end, long chunk)
+        {
+            m_first = first;
+            m_end   = end;
+            m_chunk = chunk;
+        }
+        
+        @Override
+        protected Result
+        compute()
+        {
+            if (m_end - m_first > m_chunk)
+            {
+                long   middle = m_first + (m_end - m_first) / 2;
+                Range  first  = new Range(m_first, middle, m_chunk);
+                first.fork();
+                
+                Result  result = new Range(middle, m_end, m_chunk).compute();
+                result.add(first.join());
+                return result;
+            }
+            
+            int      known   = m_holes.length;
+            int      players = known + (m_pairs != null ? 1 : 0);
+            Result   result  = new Result(players);
+            int[]    ranks   = new int[players];
+            int[]    subset  = new int[Hand.Size];
+            
+            Colex.unrank(m_first, m_missing, subset);
+            for (long index = m_first; index < m_end; ++index)
+            {
+                long  board = m_board;
+                long  cards = 0;
+                for (int i = 0; i < m_missing; ++i)
+                {
+                    int  code = m_deck[subset[i]];
+                    board |= SevenCardRank.suites(code);
+                    cards |= 1L << code;
+                }
+                
+                // best of the known players
+                int  best    = 0;
+                int  winners = 0;
+                for (int p = 0; p < known; ++p)
+                {
+                    int  rank = SevenCardRank.evaluate(board | m_holes[p]);
+                    ranks[p] = rank;
+                    if (rank > best)
+                    {
+                        best    = rank;
+                        winners = 1;
+                    }
+                    else if (rank == best)
+                    {
+                        winners++;
+                    }
+                }
+                
+                if (m_pairs == null)
+                {
+                    result.m_outcomes++;
+                    result.credit(ranks, known, best, winners, 1);
+                }
+                else
+                {
+                    // count the opponent's pairs which beat, tie with or lose to the known players
+                    long  beat  = 0;
+                    long  tie   = 0;
+                    long  lose  = 0;
+                    for (int i = 0; i < m_pairs.length; ++i)
+                    {
+                        if ((m_pairs[i] & cards) != 0)
+                        {
+                            continue;
+                        }
+                        
+                        int  rank = SevenCardRank.evaluate(board | m_pairSuites[i]);
+                        if (rank > best)
+                        {
+                            beat++;
+                        }
+                        else if (rank == best)
+                        {
+                            tie++;
+                        }
+                        else
+                        {
+                            lose++;
+                        }
+                    }
+                    
+                    result.m_outcomes += beat + tie + lose;
+                    result.credit(ranks, known, best, winners, lose);
+                    
+                    ranks[known] = best;
+                    result.credit(ranks, players, best, winners + 1, tie);
+                    
+                    ranks[known] = Integer.MAX_VALUE;
+                    result.credit(ranks, players, Integer.MAX_VALUE, 1, beat);
+                }
+                
+                Colex.next(subset, m_missing, m_deck.length);
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Runs from the command line:<br>
+     * ExactEquity [-board "cards"] [-dead "cards"] [-unknown] [-threads N] "hole cards" ...<br>
+     * With no arguments, runs a self check.
+     */
+    public static void
+    main(String... args)
+    {
+        if (args.length == 0)
+        {
+            check();
+            return;
+        }
+        
+        try
+        {
+            int[]    board   = new int[0];
+            int[]    dead    = new int[0];
+            boolean  unknown = false;
+            int      threads = Runtime.getRuntime().availableProcessors();
+            
+            ArrayList<int[]>  holes = new ArrayList<int[]>();
+            for (int arg = 0; arg < args.length; ++arg)
+            {
+                String  option = args[arg];
+                if ("-board".equals(option) && arg + 1 < args.length)
+                {
+                    board = MonteCarlo.codes(args[++arg]);
+                }
+                else if ("-dead".equals(option) && arg + 1 < args.length)
+                {
+                    dead = MonteCarlo.codes(args[++arg]);
+                }
+                else if ("-unknown".equals(option))
+                {
+                    unknown = true;
+                }
+                else if ("-threads".equals(option) && arg + 1 < args.length)
+                {
+                    threads = Integer.parseInt(args[++arg]);
+                }
+                else if (option.startsWith("-"))
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+                else
+                {
+                    holes.add(MonteCarlo.codes(option));
+                }
+            }
+            
+            ExactEquity  equity = new ExactEquity(holes.toArray(new int[holes.size()][]), board, dead, unknown);
+            equity.setThreads(threads);
+            
+            long  start = System.nanoTime();
+            System.out.println(equity.run());
+            System.out.println("Time " + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Self check - the counts of known matchups must be exact on one thread and on several, a board which is a
+     * royal flush must split every pot, and no threads must be rejected.
+     */
+    private static void
+    check()
+    {
+        System.out.println("Testing ExactEquity");
+        try
+        {
+            // hole cards, board, unknown opponent, then outcomes, wins and ties of the first player and wins of the
+            // second
+            Object[][]  cases = {
+                { new String[] { "AH AS", "KD KC" }, "", false, new long[] { 1712304, 1388072, 6056, 318176 } },
+                { new String[] { "AH AD" }, "KS KH 2D", true, new long[] { 1070190, 955274, 1076, 113840 } },
+                { new String[] { "2C 3D", "7H 8H" }, "AS KS QS JS TS", false, new long[] { 1, 0, 1, 0 } } };
+            for (Object[] c : cases)
+            {
+                String[]  hands  = (String[]) c[0];
+                int[][]   holes  = new int[hands.length][];
+                for (int p = 0; p < hands.length; ++p)
+                {
+                    holes[p] = MonteCarlo.codes(hands[p]);
+                }
+                long[]    expect = (long[]) c[3];
+                
+                for (int threads : new int[] { 1, 4 })
+                {
+                    ExactEquity  equity = new ExactEquity(holes, MonteCarlo.codes((String) c[1]), new int[0],
+                                                          (Boolean) c[2]);
+                    equity.setThreads(threads);
+                    Result  result = equity.run();
+                    long[]  counts = { result.getOutcomes(), result.getWins(0), result.getTies(0), result.getWins(1) };
+                    if (!Arrays.equals(counts, expect) || equity.getOutcomes() != result.getOutcomes())
+                    {
+                        throw new PokerException(String.join(" vs ", hands) + " on " + c[1] + " on " + threads
+                                                 + " threads: " + Arrays.toString(counts) + " expected "
+                                                 + Arrays.toString(expect));
+                    }
+                    if (threads == 1)
+                    {
+                        System.out.println(String.format("%-14s on %-14s equity %.6f", String.join(" vs ", hands),
+                                                         c[1], result.getEquity(0)));
+                    }
+                }
+            }
+            
+            try
+            {
+                new ExactEquity(new int[][] { MonteCarlo.codes("AH AS") }, new int[0], new int[0], true)
+                    .setThreads(0);
+                throw new PokerException("Ran on no threads");
+            }
+            catch (PokerException ex)
+            {
+                if (ex.getMessage().startsWith("Ran"))
+                {
+                    throw ex;
+                }
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
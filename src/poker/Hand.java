@@ -3,27 +3,32 @@
  */
 package poker;
 
-import java.util.Arrays;
 import java.util.List;
 
 /**
  * @author Andrew
  *
  * Represents a hand of five cards. Immutable as the input array is copied.
- * Cards are sorted on construction to simplify evaluation.
+ * Cards are sorted on construction and stored as their primitive codes packed into a long, lowest card in the
+ * lowest bits, so a hand takes no more memory than its header, the rank and the Rules it was ranked under.<br>
+ * Where hands are only needed briefly, a MutableHand can be reset for each instead of allocating a Hand.
  */
 public class Hand
     implements Comparable<Hand>
 {
     public static final int Size = 5;
     
-    private  Card[]      m_cards;
-    private  Evaluation  m_evaluation;
+    // evaluator used by all new hands - selectable at runtime
+    private static Evaluator  s_evaluator = Evaluator.REFERENCE;
+    
+    private  long   m_cards;
+    private  int    m_rank;
+    private  Rules  m_rules;    // of the evaluator which ranked the cards
     
     /**
      * Constructor from a list.
-     * @param cards must contain exactly 5 cards
-     * @throws PokerException
+     * @param cards must contain exactly 5 different cards
+     * @throws PokerException if the count is wrong or a card is repeated
      */
     public
     Hand(List<Card> cards)
@@ -34,17 +39,18 @@ public class Hand
             throw new PokerException("Hand with illegal card count " + cards.size());
         }
         
-        m_cards = new Card[Size];
-        cards.toArray(m_cards);
-        Arrays.sort(m_cards);
-        
-        m_evaluation = makeEvaluation();
+        int[]  codes = new int[Size];
+        for (int i = 0; i < Size; ++i)
+        {
+            codes[i] = cards.get(i).code();
+        }
+        init(codes);
     }
     
     /**
      * Constructor from an array
-     * @param cards must contain exactly 5 elements
-     * @throws PokerException
+     * @param cards must contain exactly 5 different elements
+     * @throws PokerException if the count is wrong or a card is repeated
      */
     public
     Hand(Card...cards)
@@ -55,11 +61,69 @@ public class Hand
             throw new PokerException("Hand with illegal card count " + cards.length);
         }
         
-        m_cards = new Card[Size];
-        System.arraycopy(cards, 0, m_cards, 0, Size);
-        Arrays.sort(m_cards);
+        int[]  codes = new int[Size];
+        for (int i = 0; i < Size; ++i)
+        {
+            codes[i] = cards[i].code();
+        }
+        init(codes);
+    }
+    
+    /**
+     * Constructor from primitive card codes
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return new hand
+     * @throws PokerException if a code is out of range or repeated
+     */
+    public static Hand
+    fromCodes(int[] codes, int offset)
+        throws PokerException
+    {
+        int[]  copy = new int[Size];
+        for (int i = 0; i < Size; ++i)
+        {
+            // check the code is valid
+            copy[i] = Card.valueOf(codes[offset + i]).code();
+        }
         
-        m_evaluation = makeEvaluation();
+        Hand  hand = new Hand();
+        hand.init(copy);
+        return hand;
+    }
+    
+    private
+    Hand()
+    {
+        // only for fromCodes
+    }
+    
+    /*
+     * Constructor from cards already sorted, packed and ranked under some Rules, for MutableHand.
+     */
+    Hand(long cards, int rank, Rules rules)
+    {
+        m_cards = cards;
+        m_rank  = rank;
+        m_rules = rules;
+    }
+    
+    /*
+     * Sorts, packs and evaluates the codes, which the evaluators need to be different.
+     */
+    private void
+    init(int[] codes)
+        throws PokerException
+    {
+        MutableHand.sort(codes, 0);
+        int  repeated = MutableHand.repeated(codes, 0);
+        if (repeated >= 0)
+        {
+            throw new PokerException("Repeated card: " + Card.get(repeated));
+        }
+        m_cards = MutableHand.pack(codes, 0);
+        m_rank  = s_evaluator.evaluate(codes, 0);
+        m_rules = s_evaluator.getRules();
     }
     
     @Override
@@ -68,193 +132,82 @@ public class Hand
     {
         StringBuilder  buf = new StringBuilder();
         
-        for (Card c : m_cards)
+        for (int i = 0; i < Size; ++i)
         {
-            buf.append(c).append(' ');
+            buf.append(getCard(i)).append(' ');
         }
-        buf.append(m_evaluation);
+        buf.append(getEvaluation());
         return  buf.toString();
     }
     
-    private Evaluation
-    makeEvaluation()
+    /**
+     * @param i  Position from 0 for the lowest card to 4 for the highest
+     * @return primitive code of the card
+     */
+    public int
+    getCode(int i)
     {
-        // determine pattern of cards based on cards with the same number to generate an easily understandable key
-        // uses the fact that the hand is sorted so that cards with the same number are consecutive 
-        
-        StringBuilder  buf = new StringBuilder();
-        {
-            Number  last  = m_cards[0].m_number;
-            int     count = 0;
-            
-            for (Card c : m_cards)
-            {
-                if (last == c.m_number)
-                {
-                    count++;
-                }
-                else
-                {
-                    buf.append(count);
-                    last = c.m_number;
-                    count = 1;
-                }
-            }
-            
-            buf.append(count);
-        }
-        
-        String  key = buf.toString();
-        
-        // one pair - first card in pair in positions 0-3
-        if ("2111".equals(key))
-        {
-            return Evaluation.evalOnePair(m_cards[0].m_number);
-        }
-        
-        if ("1211".equals(key))
-        {
-            return Evaluation.evalOnePair(m_cards[1].m_number);
-        }
-        
-        if ("1121".equals(key))
-        {
-            return Evaluation.evalOnePair(m_cards[2].m_number);
-        }
-        
-        if ("1112".equals(key))
-        {
-            return Evaluation.evalOnePair(m_cards[3].m_number);
-        }
-        
-        // two pairs - note the higher pair appears later. Odd card in position 4, 2, 0
-        if ("221".equals(key))
-        {
-            return Evaluation.evalTwoPair(m_cards[2].m_number, m_cards[0].m_number);
-        }
-        
-        if ("212".equals(key))
-        {
-            return Evaluation.evalTwoPair(m_cards[3].m_number, m_cards[0].m_number);
-        }
-        
-        if ("122".equals(key))
-        {
-            return Evaluation.evalTwoPair(m_cards[3].m_number, m_cards[1].m_number);
-        }
-        
-        // three of a kind - first card can appear in positions 0-2
-        if ("311".equals(key))
-        {
-            return Evaluation.evalThreeOfAKind(m_cards[0].m_number);
-        }
-        
-        if ("131".equals(key))
-        {
-            return Evaluation.evalThreeOfAKind(m_cards[1].m_number);
-        }
-        
-        if ("113".equals(key))
-        {
-            return Evaluation.evalThreeOfAKind(m_cards[2].m_number);
-        }
-        
-        // full house - three of a kind can appear in positions 0 and 2, pair in 3 and 0 respectively
-        if ("32".equals(key))
-        {
-            return Evaluation.evalFullHouse(m_cards[0].m_number, m_cards[3].m_number);
-        }
-        
-        if ("23".equals(key))
-        {
-            return Evaluation.evalFullHouse(m_cards[2].m_number, m_cards[0].m_number);
-        }
-        
-        // four of a kind - can appear in positions 0 and 1 only.
-        if ("41".equals(key))
-        {
-            return Evaluation.evalFourOfAKind(m_cards[0].m_number);
-        }
-
-        if ("14".equals(key))
-        {
-            return Evaluation.evalFourOfAKind(m_cards[1].m_number);
-        }
-        
-        // only other valid key is 11111 - all different numbers.
-        // Assertion because this is a programming error if wrong!
-        assert "11111".equals(key);
-        
-        Number  low      = m_cards[0].m_number;
-        Number  high     = m_cards[Size-1].m_number;
-        
-        boolean straight = low.ordinal() + 4 == high.ordinal();
-        
-        // note that if we needed to allow the Ace to have value 1 to make a straight, would change line above
-        // to allow low == Number.TWO && m_cards[3] == Number.FIVE && high == Number.ACE as well.
-        // this would also require a tweak of the Evaluation object and other small changes.
-
-        boolean flush    = true;
-        {
-            Suite   suite = m_cards[0].m_suite;
-            
-            for (int i = 1; i < Size && flush; ++i)
-            {
-                Card c = m_cards[i];
-                if (c.m_suite != suite)
-                {
-                    flush = false;
-                }
-            }
-        }
-        
-        if (straight && flush)
-        {
-            return Evaluation.evalStraightFlush(high);
-        }
-        
-        if (flush)
-        {
-            return Evaluation.evalFlush(high);
-        }
-        
-        if (straight)
-        {
-            return Evaluation.evalStraight(high);
-        }
-        
-        // nothing
-        return Evaluation.evalHighCard(high);
+        return (int) (m_cards >>> (i * Card.CodeBits)) & Card.CodeMask;
     }
-
+    
+    /**
+     * @param i  Position from 0 for the lowest card to 4 for the highest
+     * @return the card
+     */
+    public Card
+    getCard(int i)
+    {
+        return Card.get(getCode(i));
+    }
+    
+    /**
+     * @return evaluator used when constructing hands
+     */
+    public static Evaluator
+    getEvaluator()
+    {
+        return s_evaluator;
+    }
+    
+    /**
+     * Selects the evaluator for hands constructed afterwards. All evaluators for the same Rules give the same ranks.
+     * @param evaluator  Evaluator to use
+     */
+    public static void
+    setEvaluator(Evaluator evaluator)
+    {
+        s_evaluator = evaluator;
+    }
+    
+    /**
+     * @return packed rank from HandRank - a higher rank is a better hand
+     */
+    public int
+    getRank()
+    {
+        return m_rank;
+    }
+    
+    /**
+     * @return evaluation decoded from the rank under the Rules of the evaluator which ranked the hand, even if another
+     * has been selected since
+     */
+    public Evaluation
+    getEvaluation()
+    {
+        return m_rules.decode(m_rank);
+    }
+    
     /**
      * Compare two hands to see which one is highest. I use the Comparable interface here because maybe at some
-     * point we need to sort more than two hands.
+     * point we need to sort more than two hands. Only hands ranked under the same Rules compare meaningfully.
      */
     @Override
     public int
     compareTo(Hand other)
     {
-        // perform straight evaluation comparison
-        int  comp = m_evaluation.compareTo(other.m_evaluation);
-        if (comp != 0)
-        {
-            return comp;
-        }
-        
-        // compare highest cards in descending order
-        
-        for (int i = Size-1; i >= 0; --i)
-        {
-            int diff = m_cards[i].compareNumber(other.m_cards[i]);
-            if (diff != 0)
-            {
-                return diff;
-            }
-        }
-        
-        // Tie - basically the hands are identical differing only in suites
-        return 0;
+        // the rank includes the highest card comparison, so equal ranks differ only in suites
+        return Integer.compare(m_rank, other.m_rank);
     }
     
     /*
@@ -272,6 +225,44 @@ public class Hand
             test("4D 6S 9H QH QC", "3D 6D 7H QD QS", false);
             test("2H 2D 4C 4D 4S", "3C 3D 3S 9S 9D", false);
             
+            // the evaluators cannot rank a repeated card, so no hand may hold one
+            Evaluator  saved = getEvaluator();
+            try
+            {
+                for (Evaluator evaluator : Evaluator.values())
+                {
+                    setEvaluator(evaluator);
+                    try
+                    {
+                        Hand  hand = new Hand(Card.parseString("AH AH KC QC JC"));
+                        throw new PokerException("Repeated card ranked under " + evaluator + ": " + hand);
+                    }
+                    catch (PokerException ex)
+                    {
+                        if (!ex.getMessage().startsWith("Repeated card:"))
+                        {
+                            throw ex;
+                        }
+                    }
+                }
+                System.out.println("\nRejected a repeated card under every evaluator");
+                
+                // a hand keeps decoding under the Rules it was ranked by
+                setEvaluator(Evaluator.REFERENCE);
+                Hand    straight = new Hand(Card.parseString("9S TD JC QH KD"));
+                String  expect   = straight.getEvaluation().toString();
+                setEvaluator(Evaluator.LOWBALL);
+                if (!straight.getEvaluation().toString().equals(expect) || !straight.toString().endsWith(expect))
+                {
+                    throw new PokerException("Decoded under LOWBALL: " + straight + " expected " + expect);
+                }
+                System.out.println("Kept " + straight + " after selecting LOWBALL");
+            }
+            finally
+            {
+                setEvaluator(saved);
+            }
+            
             System.out.println("\nTest PASSED");
         }
         catch (PokerException ex)
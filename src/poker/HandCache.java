@@ -0,0 +1,291 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Andrew
+ *
+ * Bounded cache of five card hand ranks and evaluations, for input which repeats the same hands.<br>
+ * The rank of a hand depends only on its numbers and whether it is a flush, so the key is the count of each number
+ * packed 3 bits apiece plus a flush bit. This needs no sorting and makes hands which differ only in suites share an
+ * entry.<br>
+ * The cache is set associative: a key hashes to a set of Ways slots and is evicted within its set by CLOCK, so a
+ * slot whose entry has been used since the hand last passed it gets a second chance. Readers only read the slots
+ * of an AtomicReferenceArray and set the entry's reference bit, taking no lock. Writers lock only the stripe
+ * holding their set.<br>
+ * Hits, misses and evictions are counted with LongAdders so the counting does not contend between threads.
+ */
+public class HandCache
+{
+    // slots in each set
+    public static final int  Ways = 4;
+    
+    // sets sharing a writer lock
+    private static final int  LockStripes = 64;
+    
+    private static final int  NumberBits = 3;
+    private static final int  FlushBit   = Number.values().length * NumberBits;
+    
+    /*
+     * Immutable apart from the reference bit, so it can be read without locking once published in a slot.
+     */
+    private static final class Entry
+    {
+        final long        m_key;
+        final int         m_rank;
+        final Evaluation  m_evaluation;
+        
+        volatile boolean  m_referenced;
+        
+        Entry(long key, int rank, Rules rules)
+        {
+            m_key        = key;
+            m_rank       = rank;
+            m_evaluation = rules.decode(rank);
+        }
+    }
+    
+    private final Evaluator                    m_evaluator;
+    private final AtomicReferenceArray<Entry>  m_slots;
+    private final int[]                        m_hands;    // CLOCK hand of each set, guarded by the stripe lock
+    private final Object[]                     m_locks = new Object[LockStripes];
+    private final int                          m_setMask;
+    
+    private final LongAdder  m_hits      = new LongAdder();
+    private final LongAdder  m_misses    = new LongAdder();
+    private final LongAdder  m_evictions = new LongAdder();
+    
+    /**
+     * @param capacity   Most hands held, rounded up to a power of two of at least 2 * Ways
+     * @param evaluator  Evaluator used to rank hands which are not held
+     */
+    public
+    HandCache(int capacity, Evaluator evaluator)
+    {
+        int  sets = Integer.highestOneBit(Math.max((capacity + Ways - 1) / Ways, 2) - 1) << 1;
+        
+        m_evaluator = evaluator;
+        m_slots     = new AtomicReferenceArray<Entry>(sets * Ways);
+        m_hands     = new int[sets];
+        m_setMask   = sets - 1;
+        for (int i = 0; i < m_locks.length; ++i)
+        {
+            m_locks[i] = new Object();
+        }
+    }
+    
+    /**
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Position of the five codes
+     * @return suite normalised key of the hand
+     */
+    public static long
+    key(int[] codes, int offset)
+    {
+        long  counts = 0;
+        int   suites = 0;
+        for (int i = offset; i < offset + Hand.Size; ++i)
+        {
+            counts += 1L << (codes[i] >>> Card.SuiteBits) * NumberBits;
+            suites |= 1 << (codes[i] & Card.SuiteMask);
+        }
+        return (suites & suites - 1) == 0 ? counts | 1L << FlushBit : counts;
+    }
+    
+    /**
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Position of the five codes
+     * @return packed rank from HandRank
+     */
+    public int
+    getRank(int[] codes, int offset)
+    {
+        return get(codes, offset).m_rank;
+    }
+    
+    /**
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Position of the five codes
+     * @return evaluation of the hand, shared by all hands with the same key
+     */
+    public Evaluation
+    getEvaluation(int[] codes, int offset)
+    {
+        return get(codes, offset).m_evaluation;
+    }
+    
+    /*
+     * Finds the entry for a hand, ranking and adding it if it is not held.
+     */
+    private Entry
+    get(int[] codes, int offset)
+    {
+        long  key  = key(codes, offset);
+        int   set  = set(key);
+        int   base = set * Ways;
+        
+        for (int way = 0; way < Ways; ++way)
+        {
+            Entry  entry = m_slots.get(base + way);
+            if (entry != null && entry.m_key == key)
+            {
+                // avoid writing the shared line when already set
+                if (!entry.m_referenced)
+                {
+                    entry.m_referenced = true;
+                }
+                m_hits.increment();
+                return entry;
+            }
+        }
+        
+        m_misses.increment();
+        Entry  entry = new Entry(key, m_evaluator.evaluate(codes, offset), m_evaluator.getRules());
+        synchronized (m_locks[set & LockStripes - 1])
+        {
+            // another writer may have added it meanwhile, or filled an empty slot
+            for (int way = 0; way < Ways; ++way)
+            {
+                Entry  other = m_slots.get(base + way);
+                if (other == null)
+                {
+                    m_slots.set(base + way, entry);
+                    return entry;
+                }
+                if (other.m_key == key)
+                {
+                    return other;
+                }
+            }
+            
+            // sweep the hand round the set, clearing reference bits until an unreferenced entry is found
+            int  hand = m_hands[set];
+            while (true)
+            {
+                Entry  victim = m_slots.get(base + hand);
+                if (!victim.m_referenced)
+                {
+                    break;
+                }
+                victim.m_referenced = false;
+                hand = (hand + 1) % Ways;
+            }
+            m_slots.set(base + hand, entry);
+            m_hands[set] = (hand + 1) % Ways;
+            m_evictions.increment();
+        }
+        return entry;
+    }
+    
+    /*
+     * Set of a key, mixing all its bits as keys differ mostly in the low bits.
+     */
+    private int
+    set(long key)
+    {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & m_setMask;
+    }
+    
+    /**
+     * @return most hands held
+     */
+    public int
+    getCapacity()
+    {
+        return m_slots.length();
+    }
+    
+    public long
+    getHits()
+    {
+        return m_hits.sum();
+    }
+    
+    public long
+    getMisses()
+    {
+        return m_misses.sum();
+    }
+    
+    public long
+    getEvictions()
+    {
+        return m_evictions.sum();
+    }
+    
+    @Override
+    public String
+    toString()
+    {
+        return "Cache " + getCapacity() + ": hits " + getHits() + " misses " + getMisses()
+               + " evictions " + getEvictions();
+    }
+    
+    /*
+     * Self check - random hands must rank the same through caches of several sizes as directly, which fails if a
+     * flush shares a key with a hand that is not, and must share a key with their suites rotated.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing HandCache");
+        try
+        {
+            Random  random = new Random(1);
+            int[]   deck   = new int[Card.DeckSize];
+            int[]   codes  = new int[Hand.Size];
+            int[]   other  = new int[Hand.Size];
+            for (int i = 0; i < deck.length; ++i)
+            {
+                deck[i] = i;
+            }
+            
+            for (int capacity : new int[] { 1, 100, 10000, 1000000 })
+            {
+                HandCache  cache = new HandCache(capacity, Evaluator.REFERENCE);
+                for (int n = 0; n < 1000000; ++n)
+                {
+                    // partial shuffle to deal the cards
+                    for (int i = 0; i < Hand.Size; ++i)
+                    {
+                        int  j = i + random.nextInt(deck.length - i);
+                        int  t = deck[i];
+                        deck[i] = deck[j];
+                        deck[j] = t;
+                        codes[i] = deck[i];
+                    }
+                    
+                    int  expect = HandRank.evaluate(codes, 0);
+                    if (cache.getRank(codes, 0) != expect
+                        || cache.getEvaluation(codes, 0).compareTo(Evaluation.decode(expect)) != 0)
+                    {
+                        throw new PokerException("Wrong rank from cache " + capacity);
+                    }
+                    
+                    // same numbers with the suites rotated
+                    int  rotate = random.nextInt(Card.SuiteMask + 1);
+                    for (int i = 0; i < Hand.Size; ++i)
+                    {
+                        other[i] = codes[i] & ~Card.SuiteMask | (codes[i] + rotate) & Card.SuiteMask;
+                    }
+                    if (key(other, 0) != key(codes, 0) || HandRank.evaluate(other, 0) != expect)
+                    {
+                        throw new PokerException("Key depends on suites");
+                    }
+                }
+                System.out.println(cache);
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
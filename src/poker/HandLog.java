@@ -0,0 +1,632 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * @author Andrew
+ *
+ * Binary hand log holding the same lines of cards as Counter reads, packed 6 bits to a card so that a line of ten
+ * cards fits in one long rather than 30 bytes of text, and nothing needs parsing when it is read back.<br>
+ * The file starts with a header of a magic number, the format version and the number of cards on every line,
+ * followed by blocks of up to BlockRecords records. Each block has a header of its record count and a CRC32 of its
+ * records, followed by the records. A record is the cards of a line in order, ten to a long with the first card in
+ * the lowest bits, using as many longs as the cards need. All values are big endian.<br>
+ * Only lines of valid cards can be packed, so encoding reports and leaves out empty lines and lines in error, and
+ * a record's number in the log is its position among the lines kept.<br>
+ * Run as a converter: HandLog -encode TEXT LOG or HandLog -decode LOG TEXT, with -ignorecase before the files to
+ * accept lower case cards. The number of cards is that of the first line. With no arguments it runs a self check.
+ */
+public final class HandLog
+{
+    public static final int  Version = 1;
+    
+    // cards packed into each long of a record
+    public static final int  CardsPerWord = Long.SIZE / Card.CodeBits;
+    
+    // most records in a block
+    public static final int  BlockRecords = 1 << 13;
+    
+    private static final int  Magic       = 0x504B484C;    // "PKHL"
+    private static final int  HeaderSize  = 12;
+    private static final int  BlockHeader = 12;
+    
+    private static final int  MaxCards = 64;
+    
+    private
+    HandLog()
+    {
+        // static functions and nested classes only
+    }
+    
+    /**
+     * @param cards  Number of cards on each line
+     * @return number of longs in a record of that many cards
+     */
+    public static int
+    words(int cards)
+    {
+        return (cards + CardsPerWord - 1) / CardsPerWord;
+    }
+    
+    /**
+     * Writes records a block at a time to a channel.
+     */
+    public static final class Writer
+        implements AutoCloseable
+    {
+        private final WritableByteChannel  m_channel;
+        private final int                  m_cards;
+        private final int                  m_words;
+        private final ByteBuffer           m_block;
+        private final CRC32                m_crc = new CRC32();
+        
+        private  int  m_records;
+        
+        /**
+         * Writes the file header.
+         * @param channel  Channel to write to, which is not closed with the writer
+         * @param cards    Number of cards on each line, from 1 to 64
+         * @throws IOException
+         * @throws PokerException if the number of cards is out of range
+         */
+        public
+        Writer(WritableByteChannel channel, int cards)
+            throws IOException, PokerException
+        {
+            if (cards < 1 || cards > MaxCards)
+            {
+                throw new PokerException("Invalid cards per line: " + cards);
+            }
+            
+            m_channel = channel;
+            m_cards   = cards;
+            m_words   = words(cards);
+            m_block   = ByteBuffer.allocateDirect(BlockHeader + BlockRecords * m_words * Long.BYTES);
+            
+            m_block.putInt(Magic).putInt(Version).putInt(cards).flip();
+            writeFully();
+            m_block.clear().position(BlockHeader);
+        }
+        
+        /**
+         * Appends a record, which is not checked.
+         * @param codes   Array holding the codes from Card.code
+         * @param offset  Index of the first code of the line
+         * @throws IOException
+         */
+        public void
+        write(int[] codes, int offset)
+            throws IOException
+        {
+            for (int word = 0; word < m_words; ++word)
+            {
+                int   first = offset + word * CardsPerWord;
+                int   last  = Math.min(first + CardsPerWord, offset + m_cards);
+                long  bits  = 0;
+                for (int i = last - 1; i >= first; --i)
+                {
+                    bits = bits << Card.CodeBits | codes[i];
+                }
+                m_block.putLong(bits);
+            }
+            
+            if (++m_records == BlockRecords)
+            {
+                writeBlock();
+            }
+        }
+        
+        /**
+         * Writes any records held as a last, shorter block.
+         * @throws IOException
+         */
+        @Override
+        public void
+        close()
+            throws IOException
+        {
+            if (m_records > 0)
+            {
+                writeBlock();
+            }
+        }
+        
+        private void
+        writeBlock()
+            throws IOException
+        {
+            m_block.flip();
+            m_block.position(BlockHeader);
+            m_crc.reset();
+            m_crc.update(m_block);
+            m_block.putInt(0, m_records).putLong(4, m_crc.getValue());
+            m_block.rewind();
+            writeFully();
+            
+            m_block.clear().position(BlockHeader);
+            m_records = 0;
+        }
+        
+        private void
+        writeFully()
+            throws IOException
+        {
+            while (m_block.hasRemaining())
+            {
+                m_channel.write(m_block);
+            }
+        }
+    }
+    
+    /**
+     * Reads a block at a time from a channel into a reused direct buffer, checking each block's CRC32.
+     */
+    public static final class Reader
+    {
+        private final ReadableByteChannel  m_channel;
+        private final int                  m_cards;
+        private final int                  m_words;
+        private final ByteBuffer           m_block;
+        private final CRC32                m_crc = new CRC32();
+        
+        private  long  m_position;    // of the next block in the file
+        private  int   m_records;
+        
+        /**
+         * Reads and checks the file header.
+         * @param channel  Channel positioned at the start of the log, which is not closed with the reader
+         * @throws IOException if the header is missing or does not match
+         */
+        public
+        Reader(ReadableByteChannel channel)
+            throws IOException
+        {
+            m_channel = channel;
+            
+            ByteBuffer  header = ByteBuffer.allocate(HeaderSize);
+            if (!readFully(header))
+            {
+                throw new IOException("Not a hand log: too short");
+            }
+            int  magic   = header.getInt(0);
+            int  version = header.getInt(4);
+            int  cards   = header.getInt(8);
+            if (magic != Magic || version != Version || cards < 1 || cards > MaxCards)
+            {
+                throw new IOException("Not a hand log of version " + Version);
+            }
+            
+            m_cards    = cards;
+            m_words    = words(cards);
+            m_block    = ByteBuffer.allocateDirect(BlockHeader + BlockRecords * m_words * Long.BYTES);
+            m_position = HeaderSize;
+        }
+        
+        /**
+         * @return number of cards on each line
+         */
+        public int
+        getCards()
+        {
+            return m_cards;
+        }
+        
+        /**
+         * Reads the next block.
+         * @return false at the end of the log
+         * @throws IOException if the block is cut short or its CRC32 does not match
+         */
+        public boolean
+        next()
+            throws IOException
+        {
+            m_block.clear().limit(BlockHeader);
+            if (!readFully(m_block))
+            {
+                if (m_block.position() == 0)
+                {
+                    m_records = 0;
+                    return false;
+                }
+                throw new IOException("Hand log block cut short at byte " + m_position);
+            }
+            
+            int   records = m_block.getInt(0);
+            long  crc     = m_block.getLong(4);
+            if (records < 1 || records > BlockRecords)
+            {
+                throw new IOException("Invalid hand log block at byte " + m_position);
+            }
+            
+            m_block.limit(BlockHeader + records * m_words * Long.BYTES);
+            if (!readFully(m_block))
+            {
+                throw new IOException("Hand log block cut short at byte " + m_position);
+            }
+            
+            m_block.position(BlockHeader);
+            m_crc.reset();
+            m_crc.update(m_block);
+            if (m_crc.getValue() != crc)
+            {
+                throw new IOException("Hand log checksum mismatch in block at byte " + m_position);
+            }
+            
+            m_position += m_block.limit();
+            m_records   = records;
+            return true;
+        }
+        
+        /**
+         * @return number of records in the block read
+         */
+        public int
+        getRecords()
+        {
+            return m_records;
+        }
+        
+        /**
+         * Unpacks a record of the block read.
+         * @param record  Index of the record in the block
+         * @param codes   Filled with the codes of the cards
+         * @return true if every code is a valid card
+         */
+        public boolean
+        get(int record, int[] codes)
+        {
+            int      base  = BlockHeader + record * m_words * Long.BYTES;
+            boolean  valid = true;
+            for (int word = 0, i = 0; word < m_words; ++word)
+            {
+                long  bits = m_block.getLong(base + word * Long.BYTES);
+                for (int last = Math.min(i + CardsPerWord, m_cards); i < last; ++i)
+                {
+                    int  code = (int) bits & Card.CodeMask;
+                    valid &= code < Card.DeckSize;
+                    codes[i] = code;
+                    bits >>>= Card.CodeBits;
+                }
+            }
+            return valid;
+        }
+        
+        /*
+         * Fills a buffer up to its limit.
+         * @return false if the end of the channel came first
+         */
+        private boolean
+        readFully(ByteBuffer buffer)
+            throws IOException
+        {
+            while (buffer.hasRemaining())
+            {
+                if (m_channel.read(buffer) < 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Encodes lines of text as a hand log, leaving out empty lines and lines in error, which are reported.
+     * @param input       Text to read
+     * @param output      Channel to write the log to
+     * @param ignoreCase  Whether lower case cards such as "ah kd" are accepted as well
+     * @return number of records written
+     * @throws IOException
+     * @throws PokerException if there are no valid lines
+     */
+    public static long
+    encode(BufferedReader input, WritableByteChannel output, boolean ignoreCase)
+        throws IOException, PokerException
+    {
+        Writer  writer  = null;
+        int[]   codes   = new int[MaxCards];
+        long    line    = 0;
+        long    records = 0;
+        
+        try
+        {
+            String  text;
+            while ((text = input.readLine()) != null)
+            {
+                line++;
+                text = text.trim();
+                if (text.isEmpty())
+                {
+                    continue;
+                }
+                
+                try
+                {
+                    ArrayList<Card>  cards = Card.parseString(text, ignoreCase);
+                    if (writer == null)
+                    {
+                        writer = new Writer(output, cards.size());
+                    }
+                    if (cards.size() != writer.m_cards)
+                    {
+                        throw new PokerException("Hands with " + cards.size() + " cards");
+                    }
+                    
+                    for (int i = 0; i < cards.size(); ++i)
+                    {
+                        codes[i] = cards.get(i).code();
+                    }
+                    writer.write(codes, 0);
+                    records++;
+                }
+                catch (PokerException ex)
+                {
+                    System.err.println("Line " + line + ": " + ex.getMessage());
+                }
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+        
+        if (writer == null)
+        {
+            throw new PokerException("No lines to encode");
+        }
+        return records;
+    }
+    
+    /**
+     * Decodes a hand log back into lines of text, as Counter reads them.
+     * @param input   Log to read
+     * @param output  Channel to write the text to
+     * @return number of lines written
+     * @throws IOException if the log is invalid
+     */
+    public static long
+    decode(Reader input, WritableByteChannel output)
+        throws IOException
+    {
+        int[]       codes  = new int[input.getCards()];
+        ByteBuffer  buffer = ByteBuffer.allocate(1 << 16);
+        long        lines  = 0;
+        
+        while (input.next())
+        {
+            for (int r = 0; r < input.getRecords(); ++r)
+            {
+                lines++;
+                if (!input.get(r, codes))
+                {
+                    throw new IOException("Invalid card code in record " + lines);
+                }
+                
+                if (buffer.remaining() < 3 * codes.length)
+                {
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                    {
+                        output.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                for (int i = 0; i < codes.length; ++i)
+                {
+                    Card  card = Card.get(codes[i]);
+                    buffer.put((byte) card.m_number.m_code.charValue()).put((byte) card.m_suite.m_code.charValue())
+                          .put((byte) (i + 1 < codes.length ? ' ' : '\n'));
+                }
+            }
+        }
+        
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            output.write(buffer);
+        }
+        return lines;
+    }
+    
+    /**
+     * Converts from the command line:<br>
+     * HandLog [-ignorecase] -encode TEXT LOG<br>
+     * HandLog -decode LOG TEXT<br>
+     * With no arguments, runs a self check.
+     */
+    public static void
+    main(String... args)
+    {
+        if (args.length == 0)
+        {
+            check();
+            return;
+        }
+        
+        try
+        {
+            boolean  ignoreCase = false;
+            int      arg        = 0;
+            if (arg < args.length && "-ignorecase".equals(args[arg]))
+            {
+                ignoreCase = true;
+                arg++;
+            }
+            if (args.length != arg + 3 || !("-encode".equals(args[arg]) || "-decode".equals(args[arg])))
+            {
+                throw new PokerException("Usage: HandLog [-ignorecase] -encode TEXT LOG | -decode LOG TEXT");
+            }
+            
+            Path  from = Paths.get(args[arg + 1]);
+            Path  to   = Paths.get(args[arg + 2]);
+            try (FileChannel output = FileChannel.open(to, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                if ("-encode".equals(args[arg]))
+                {
+                    try (BufferedReader input = new BufferedReader(new InputStreamReader(Files.newInputStream(from))))
+                    {
+                        long  records = encode(input, output, ignoreCase);
+                        System.out.println("Encoded " + records + " lines, " + Files.size(from) + " bytes to "
+                                           + output.size());
+                    }
+                }
+                else
+                {
+                    try (FileChannel input = FileChannel.open(from, StandardOpenOption.READ))
+                    {
+                        long  lines = decode(new Reader(input), output);
+                        System.out.println("Decoded " + lines + " lines, " + Files.size(from) + " bytes to "
+                                           + output.size());
+                    }
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Self check - random records of several lengths, over more than one block, must read back as written, text
+     * must decode as it was encoded less its empty lines and lines in error, and a log with a changed byte, cut
+     * short or with a wrong header must be rejected.
+     */
+    private static void
+    check()
+    {
+        System.out.println("Testing HandLog");
+        try
+        {
+            Random  random  = new Random(1);
+            int     records = 2 * BlockRecords + 123;
+            
+            for (int cards : new int[] { 1, Hand.Size, 2 * Hand.Size, 2 * SevenCardRank.HoleCards + Hand.Size,
+                                         MaxCards })
+            {
+                int[][]                codes = new int[records][cards];
+                ByteArrayOutputStream  bytes = new ByteArrayOutputStream();
+                try (Writer writer = new Writer(Channels.newChannel(bytes), cards))
+                {
+                    for (int[] record : codes)
+                    {
+                        for (int i = 0; i < cards; ++i)
+                        {
+                            record[i] = random.nextInt(Card.DeckSize);
+                        }
+                        writer.write(record, 0);
+                    }
+                }
+                
+                Reader  reader = reader(bytes.toByteArray());
+                int[]   read   = new int[cards];
+                int     record = 0;
+                while (reader.next())
+                {
+                    for (int r = 0; r < reader.getRecords(); ++r, ++record)
+                    {
+                        if (!reader.get(r, read) || !Arrays.equals(read, codes[record]))
+                        {
+                            throw new PokerException("Record " + record + " of " + cards + " cards differs");
+                        }
+                    }
+                }
+                if (record != records)
+                {
+                    throw new PokerException("Read " + record + " records of " + cards + " cards, not " + records);
+                }
+                System.out.println("Read back " + records + " records of " + cards + " cards in "
+                                   + bytes.size() + " bytes");
+            }
+            
+            // the empty line and the line in error are left out
+            String                 text  = "AH KD QS JS TC 9C 8C 7D 6D 5D\n\n2C 3C 4C 5C 6C 7H 8H 9H TH\n"
+                                           + "2C 3C 4C 5C 6C 7H 8H 9H TH JS\n";
+            String                 kept  = "AH KD QS JS TC 9C 8C 7D 6D 5D\n2C 3C 4C 5C 6C 7H 8H 9H TH JS\n";
+            ByteArrayOutputStream  log   = new ByteArrayOutputStream();
+            ByteArrayOutputStream  lines = new ByteArrayOutputStream();
+            encode(new BufferedReader(new StringReader(text)), Channels.newChannel(log), false);
+            decode(reader(log.toByteArray()), Channels.newChannel(lines));
+            if (!lines.toString(StandardCharsets.US_ASCII.name()).equals(kept))
+            {
+                throw new PokerException("Decoded " + lines + " not " + kept);
+            }
+            System.out.println("Decoded the lines encoded");
+            
+            byte[]  good = log.toByteArray();
+            byte[]  bad  = good.clone();
+            bad[bad.length - 1] ^= 1;
+            expectInvalid(bad, "checksum");
+            expectInvalid(Arrays.copyOf(good, good.length - 1), "cut short");
+            bad = good.clone();
+            bad[0] ^= 1;
+            expectInvalid(bad, "Not a hand log");
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException | IOException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    private static Reader
+    reader(byte[] bytes)
+        throws IOException
+    {
+        return new Reader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+    
+    /*
+     * Checks that reading a log fails with a message containing some text.
+     */
+    private static void
+    expectInvalid(byte[] bytes, String message)
+        throws PokerException
+    {
+        try
+        {
+            Reader  reader = reader(bytes);
+            while (reader.next())
+            {
+                // read every block
+            }
+        }
+        catch (IOException ex)
+        {
+            if (!ex.getMessage().contains(message))
+            {
+                throw new PokerException("Expected " + message + " but " + ex.getMessage());
+            }
+            System.out.println("Rejected: " + ex.getMessage());
+            return;
+        }
+        throw new PokerException("Accepted a log which should fail with " + message);
+    }
+}
@@ -0,0 +1,437 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew
+ *
+ * A weighted range of hole card pairs, held as a bitset over the 1326 combos indexed by EquityTable.combo with a
+ * weight for each, so the whole range is 21 longs while every weight is 1.<br>
+ * A range is parsed from the usual notation, a list of parts separated by commas:<br>
+ * "QQ" a pair, "AKs" suited, "AKo" offsuit, "AK" both, or "AhKh" a single combo<br>
+ * "QQ+" QQ and every higher pair, "ATs+" ATs up to AKs, raising the lower card<br>
+ * "QQ-88" the pairs between, "A5s-A2s" the lower cards between, "76s-54s" connectors with the same gap<br>
+ * Any part may end with ":W" giving its combos a weight W from 0 to 1 rather than 1, so "AA, KK:0.5" holds
+ * half of the kings. A later part replaces the weight of the combos of an earlier one.
+ */
+public final class HandRange
+{
+    public static final int  Combos = EquityTable.Combos;
+    
+    private static final int  Words = (Combos + Long.SIZE - 1) / Long.SIZE;
+    
+    private static final int  Pair    = 0;
+    private static final int  Suited  = 1;
+    private static final int  Offsuit = 2;
+    private static final int  Any     = 3;
+    
+    private static final Number[]  Numbers = Number.values();
+    private static final Suite[]   Suites  = Suite.values();
+    
+    // mask of the two card codes of each combo
+    private static final long[]  Cards = new long[Combos];
+    
+    static
+    {
+        int[]  codes = new int[2];
+        for (int combo = 0; combo < Combos; ++combo)
+        {
+            EquityTable.comboCodes(combo, codes);
+            Cards[combo] = 1L << codes[0] | 1L << codes[1];
+        }
+    }
+    
+    private final long[]  m_bits = new long[Words];
+    
+    private  float[]  m_weights;    // null while every weight is 1
+    
+    /**
+     * Creates an empty range.
+     */
+    public
+    HandRange()
+    {
+        // default initialization okay
+    }
+    
+    /**
+     * @param combo  Index of a pair of hole cards, from EquityTable.combo
+     * @return mask with the bit of each of its two card codes set
+     */
+    public static long
+    cards(int combo)
+    {
+        return Cards[combo];
+    }
+    
+    /**
+     * Adds a combo, or replaces its weight.
+     * @param combo   Index of a pair of hole cards, from EquityTable.combo
+     * @param weight  Weight from 0, which removes it, to 1
+     */
+    public void
+    add(int combo, double weight)
+    {
+        if (weight <= 0)
+        {
+            m_bits[combo >>> 6] &= ~(1L << combo);
+            return;
+        }
+        
+        m_bits[combo >>> 6] |= 1L << combo;
+        if (m_weights == null && weight < 1)
+        {
+            m_weights = new float[Combos];
+            Arrays.fill(m_weights, 1);
+        }
+        if (m_weights != null)
+        {
+            m_weights[combo] = (float) weight;
+        }
+    }
+    
+    /**
+     * @param combo  Index of a pair of hole cards
+     * @return whether the range holds it
+     */
+    public boolean
+    contains(int combo)
+    {
+        return (m_bits[combo >>> 6] & 1L << combo) != 0;
+    }
+    
+    /**
+     * @param combo  Index of a pair of hole cards
+     * @return its weight, 0 if the range does not hold it
+     */
+    public double
+    getWeight(int combo)
+    {
+        return !contains(combo) ? 0 : m_weights == null ? 1 : m_weights[combo];
+    }
+    
+    /**
+     * @param combo  Index to start from
+     * @return index of the first combo held from that index on, or -1 if there are none
+     */
+    public int
+    next(int combo)
+    {
+        int  word = combo >>> 6;
+        if (word >= Words)
+        {
+            return -1;
+        }
+        long  bits = m_bits[word] & -1L << combo;
+        while (bits == 0)
+        {
+            if (++word == Words)
+            {
+                return -1;
+            }
+            bits = m_bits[word];
+        }
+        return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+    }
+    
+    /**
+     * @return number of combos held
+     */
+    public int
+    size()
+    {
+        int  size = 0;
+        for (long bits : m_bits)
+        {
+            size += Long.bitCount(bits);
+        }
+        return size;
+    }
+    
+    /**
+     * @return total weight of the combos held
+     */
+    public double
+    getWeight()
+    {
+        if (m_weights == null)
+        {
+            return size();
+        }
+        double  weight = 0;
+        for (int combo = next(0); combo >= 0; combo = next(combo + 1))
+        {
+            weight += m_weights[combo];
+        }
+        return weight;
+    }
+    
+    /**
+     * @param cards  Mask of card codes which are dead
+     * @return copy of the range without the combos which hold any of the cards
+     */
+    public HandRange
+    without(long cards)
+    {
+        HandRange  range = new HandRange();
+        for (int combo = next(0); combo >= 0; combo = next(combo + 1))
+        {
+            if ((Cards[combo] & cards) == 0)
+            {
+                range.add(combo, getWeight(combo));
+            }
+        }
+        return range;
+    }
+    
+    /**
+     * Parses a range.
+     * @param text  Parts in range notation separated by commas
+     * @return the range
+     * @throws PokerException if a part is not valid
+     */
+    public static HandRange
+    parse(String text)
+        throws PokerException
+    {
+        HandRange  range = new HandRange();
+        for (String part : text.split(","))
+        {
+            part = part.replace(" ", "");
+            if (!part.isEmpty())
+            {
+                range.addPart(part);
+            }
+        }
+        return range;
+    }
+    
+    /*
+     * Adds the combos of one part of a range.
+     */
+    private void
+    addPart(String part)
+        throws PokerException
+    {
+        double  weight = 1;
+        int     colon  = part.indexOf(':');
+        if (colon >= 0)
+        {
+            try
+            {
+                weight = Double.parseDouble(part.substring(colon + 1));
+            }
+            catch (NumberFormatException ex)
+            {
+                weight = Double.NaN;
+            }
+            if (!(weight >= 0 && weight <= 1))
+            {
+                throw new PokerException("Invalid weight: " + part);
+            }
+            part = part.substring(0, colon);
+        }
+        
+        // a single combo such as AhKh
+        if (part.length() == 4 && isSuite(part.charAt(1)) && isSuite(part.charAt(3)))
+        {
+            int  code1 = Card.code(Number.parse(part.charAt(0), true), Suite.parse(part.charAt(1), true));
+            int  code2 = Card.code(Number.parse(part.charAt(2), true), Suite.parse(part.charAt(3), true));
+            if (code1 == code2)
+            {
+                throw new PokerException("Invalid combo: " + part);
+            }
+            add(EquityTable.combo(code1, code2), weight);
+            return;
+        }
+        
+        int[]  first = new int[3];
+        int[]  last  = new int[3];
+        if (part.endsWith("+"))
+        {
+            parseClass(part.substring(0, part.length() - 1), first);
+            last[0] = first[2] == Pair ? Numbers.length - 1 : first[0];
+            last[1] = first[2] == Pair ? last[0] : first[0] - 1;
+            last[2] = first[2];
+        }
+        else if (part.indexOf('-') > 0)
+        {
+            int  dash = part.indexOf('-');
+            parseClass(part.substring(0, dash), first);
+            parseClass(part.substring(dash + 1), last);
+            if (first[2] != last[2])
+            {
+                throw new PokerException("Invalid range: " + part);
+            }
+        }
+        else
+        {
+            parseClass(part, first);
+            last = first;
+        }
+        
+        // the ends in either order, then step both numbers of pairs and connectors, or just the lower card
+        if (first[1] > last[1])
+        {
+            int[]  t = first;
+            first = last;
+            last  = t;
+        }
+        int  high = first[0];
+        int  step = first[2] == Pair || first[0] - first[1] == last[0] - last[1] ? 1 : 0;
+        if (step == 0 && first[0] != last[0])
+        {
+            throw new PokerException("Invalid range: " + part);
+        }
+        for (int low = first[1]; low <= last[1]; ++low, high += step)
+        {
+            addClass(high, low, first[2], weight);
+        }
+    }
+    
+    /*
+     * Parses a class such as QQ, AKs, AKo or AK into its higher and lower number ordinals and its type.
+     */
+    private static void
+    parseClass(String name, int[] parsed)
+        throws PokerException
+    {
+        if (name.length() < 2 || name.length() > 3)
+        {
+            throw new PokerException("Invalid hand class: " + name);
+        }
+        int  number1 = Number.parse(name.charAt(0), true).ordinal();
+        int  number2 = Number.parse(name.charAt(1), true).ordinal();
+        int  type    = Any;
+        if (name.length() == 3)
+        {
+            char  c = Character.toLowerCase(name.charAt(2));
+            type = c == 's' ? Suited : c == 'o' ? Offsuit : -1;
+        }
+        if (number1 == number2)
+        {
+            type = type == Any ? Pair : -1;
+        }
+        if (type < 0)
+        {
+            throw new PokerException("Invalid hand class: " + name);
+        }
+        parsed[0] = Math.max(number1, number2);
+        parsed[1] = Math.min(number1, number2);
+        parsed[2] = type;
+    }
+    
+    /*
+     * Adds every combo of a class.
+     */
+    private void
+    addClass(int high, int low, int type, double weight)
+    {
+        for (Suite suite1 : Suites)
+        {
+            for (Suite suite2 : Suites)
+            {
+                boolean  suited = suite1 == suite2;
+                if (type == Pair ? suite1.ordinal() < suite2.ordinal()
+                    : type == Any || suited == (type == Suited))
+                {
+                    add(EquityTable.combo(Card.code(Numbers[high], suite1), Card.code(Numbers[low], suite2)), weight);
+                }
+            }
+        }
+    }
+    
+    private static boolean
+    isSuite(char c)
+    {
+        for (Suite suite : Suites)
+        {
+            if (Character.toUpperCase(c) == suite.m_code)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return the combos held, each with its weight where that is not 1
+     */
+    @Override
+    public String
+    toString()
+    {
+        StringBuilder  buf   = new StringBuilder();
+        int[]          codes = new int[2];
+        for (int combo = next(0); combo >= 0; combo = next(combo + 1))
+        {
+            EquityTable.comboCodes(combo, codes);
+            buf.append(buf.length() > 0 ? "," : "").append(Card.get(codes[0])).append(Card.get(codes[1]));
+            if (getWeight(combo) != 1)
+            {
+                buf.append(':').append(getWeight(combo));
+            }
+        }
+        return buf.toString();
+    }
+    
+    /*
+     * Self check - the number of combos and weight of ranges in each notation.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing HandRange");
+        try
+        {
+            Object[][]  cases = {
+                { "AA", 6, 6.0 }, { "AKs", 4, 4.0 }, { "KQo", 12, 12.0 }, { "AK", 16, 16.0 }, { "AhKh", 1, 1.0 },
+                { "QQ+", 18, 18.0 }, { "22+", 78, 78.0 }, { "ATs+", 16, 16.0 }, { "K9o+", 48, 48.0 },
+                { "QQ-88", 30, 30.0 }, { "A5s-A2s", 16, 16.0 }, { "76s-54s", 12, 12.0 }, { "54s-76s", 12, 12.0 },
+                { "QQ+, AKs, KQo, 76s-54s", 46, 46.0 }, { "AA, KK:0.5", 12, 9.0 }, { "AK, AKs:0.25", 16, 13.0 },
+                { "AK, AKs:0", 12, 12.0 }, { "ah kh, AhKh", 1, 1.0 }, { "", 0, 0.0 } };
+            for (Object[] c : cases)
+            {
+                HandRange  range = parse((String) c[0]);
+                if (range.size() != (Integer) c[1] || range.getWeight() != (Double) c[2])
+                {
+                    throw new PokerException("Range \"" + c[0] + "\" has " + range.size() + " combos weighing "
+                                             + range.getWeight());
+                }
+                System.out.println(String.format("%-24s %4d combos weighing %.2f", c[0], range.size(),
+                                                 range.getWeight()));
+            }
+            
+            for (String invalid : new String[] { "AAs", "AKx", "AK+-", "AKs-QJo", "AKs-Q9s", "QQ:2", "AhAh", "XY" })
+            {
+                try
+                {
+                    parse(invalid);
+                    throw new PokerException("Accepted \"" + invalid + "\"");
+                }
+                catch (PokerException ex)
+                {
+                    if (ex.getMessage().startsWith("Accepted"))
+                    {
+                        throw ex;
+                    }
+                }
+            }
+            System.out.println("\nRejected invalid ranges");
+            
+            if (parse("AA").without(1L << Card.code(Number.ACE, Suite.SPADES)).size() != 3)
+            {
+                throw new PokerException("Blocked combos not removed");
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+/**
+ * @author Andrew
+ *
+ * Evaluates five cards into a single int rank, so that comparing two hands is a single integer comparison.
+ * No objects are created during evaluation.<br>
+ * The rank is laid out as the Evaluation.Kind ordinal in bits 20-23, followed by the ordinals of all five card
+ * numbers, 4 bits each, ordered first by the number of cards sharing that number and then by number, both
+ * descending. For example a full house of kings over twos is packed as FULL_HOUSE K K K 2 2 and a pair of fours
+ * with K 7 6 is packed as ONE_PAIR 4 4 K 7 6.<br>
+ * This gives exactly the ordering of Evaluation followed by the highest card comparison in Hand.
+ */
+public final class HandRank
+{
+    public static final int  KindShift  = 20;
+    public static final int  NumberBits = 4;
+
+    private static final Evaluation.Kind[]  Kinds   = Evaluation.Kind.values();
+    private static final Number[]           Numbers = Number.values();
+
+    // Kind ordinals, cached so evaluators do not need to touch the enum
+    static final int  HighCard      = Evaluation.Kind.HIGH_CARD.ordinal();
+    static final int  OnePair       = Evaluation.Kind.ONE_PAIR.ordinal();
+    static final int  TwoPairs      = Evaluation.Kind.TWO_PAIRS.ordinal();
+    static final int  ThreeOfAKind  = Evaluation.Kind.THREE_OF_A_KIND.ordinal();
+    static final int  Straight      = Evaluation.Kind.STRAIGHT.ordinal();
+    static final int  Flush         = Evaluation.Kind.FLUSH.ordinal();
+    static final int  FullHouse     = Evaluation.Kind.FULL_HOUSE.ordinal();
+    static final int  FourOfAKind   = Evaluation.Kind.FOUR_OF_A_KIND.ordinal();
+    static final int  StraightFlush = Evaluation.Kind.STRAIGHT_FLUSH.ordinal();
+
+    private
+    HandRank()
+    {
+        // static functions only
+    }
+
+    /**
+     * Evaluates five consecutive cards of an array, which need not be sorted.
+     * @param cards   Array holding the cards
+     * @param offset  Index of the first of the five cards
+     * @return packed rank - a higher rank is a better hand
+     */
+    public static int
+    evaluate(Card[] cards, int offset)
+    {
+        int   mask   = 0;   // bit per number present
+        long  counts = 0;   // 4 bits per number counting the cards with that number
+        int   suites = 0;   // bit per suite present
+
+        for (int i = offset; i < offset + Hand.Size; ++i)
+        {
+            int  number = cards[i].m_number.ordinal();
+
+            mask   |= 1 << number;
+            counts += 1L << (number * NumberBits);
+            suites |= 1 << cards[i].m_suite.ordinal();
+        }
+
+        return evaluate(mask, counts, Integer.bitCount(suites) == 1);
+    }
+
+    /**
+     * Evaluates five consecutive primitive card codes of an array, which need not be sorted.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return packed rank - a higher rank is a better hand
+     */
+    public static int
+    evaluate(int[] codes, int offset)
+    {
+        int   mask   = 0;
+        long  counts = 0;
+        int   suites = 0;
+
+        for (int i = offset; i < offset + Hand.Size; ++i)
+        {
+            int  number = codes[i] >>> Card.SuiteBits;
+
+            mask   |= 1 << number;
+            counts += 1L << (number * NumberBits);
+            suites |= 1 << (codes[i] & Card.SuiteMask);
+        }
+
+        return evaluate(mask, counts, Integer.bitCount(suites) == 1);
+    }
+
+    /*
+     * Works purely from the number mask and counts - the order the cards were supplied in is irrelevant.
+     */
+    static int
+    evaluate(int mask, long counts, boolean flush)
+    {
+        // pack the numbers largest group first, then highest number first, remembering the largest group size
+        int  packed  = 0;
+        int  largest = 0;
+
+        for (int size = 4; size > 0; --size)
+        {
+            for (int m = mask; m != 0; m ^= Integer.highestOneBit(m))
+            {
+                int  number = 31 - Integer.numberOfLeadingZeros(m);
+
+                if ((int) (counts >>> (number * NumberBits) & 0xF) == size)
+                {
+                    if (largest == 0)
+                    {
+                        largest = size;
+                    }
+                    for (int i = 0; i < size; ++i)
+                    {
+                        packed = packed << NumberBits | number;
+                    }
+                }
+            }
+        }
+
+        int  distinct = Integer.bitCount(mask);
+        int  kind;
+
+        if (largest == 4)
+        {
+            kind = FourOfAKind;
+        }
+        else if (largest == 3)
+        {
+            kind = distinct == 2 ? FullHouse : ThreeOfAKind;
+        }
+        else if (largest == 2)
+        {
+            kind = distinct == 3 ? TwoPairs : OnePair;
+        }
+        else
+        {
+            // five different numbers - a straight when they are consecutive. A2345 is not a straight.
+            boolean  straight = mask == 0x1F << Integer.numberOfTrailingZeros(mask);
+
+            if (straight && flush)
+            {
+                kind = StraightFlush;
+            }
+            else if (flush)
+            {
+                kind = Flush;
+            }
+            else if (straight)
+            {
+                kind = Straight;
+            }
+            else
+            {
+                kind = HighCard;
+            }
+        }
+
+        return kind << KindShift | packed;
+    }
+
+    /*
+     * Decoding functions
+     */
+    static Evaluation.Kind
+    kind(int rank)
+    {
+        return Kinds[rank >>> KindShift];
+    }
+
+    /**
+     * @param rank      Packed rank
+     * @param position  0 for the most significant number up to 4 for the least
+     * @return number stored at that position
+     */
+    static Number
+    number(int rank, int position)
+    {
+        return Numbers[rank >>> ((Hand.Size - 1 - position) * NumberBits) & 0xF];
+    }
+}
@@ -0,0 +1,465 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Andrew
+ *
+ * Resident server ranking the same lines of cards as Counter, so a JVM is started and warmed up once rather than
+ * for every file.<br>
+ * Clients connect over a local TCP port or Unix domain socket and send lines as Counter reads them, as many as
+ * they like without waiting. Each connection is served by its own thread, a virtual thread when the JVM has them,
+ * which reads whatever complete lines have arrived as one request and answers with the result of each line in the
+ * order sent, as written by Counter -output, numbered by line from the start of the connection.<br>
+ * The connection threads only do I/O. Requests are queued to a few evaluator threads, each of which takes every
+ * request waiting, up to the batch size, and ranks them together, so under load many requests are coalesced into
+ * one wake up of a thread which stays hot in the evaluator.<br>
+ * Options:<br>
+ * -port N           listen on a TCP port of the loopback address, by default 7171<br>
+ * -socket PATH      listen on a Unix domain socket instead<br>
+ * -threads N        number of evaluator threads, by default 1<br>
+ * -batch N          most requests ranked together, by default 64<br>
+ * and -evaluator, -rules, -ignorecase, -holdem, -players and -metrics as for Counter.
+ */
+public class HandServer
+{
+    public static final int  DefaultPort = 7171;
+    
+    // bytes read from a connection at once - lines may be longer
+    private static final int  ReadBuffer = 1 << 16;
+    
+    private final Counter          m_settings;    // settings copied by each connection's counter
+    private final ExecutorService  m_connections = newConnectionExecutor();
+    private final int              m_batch;
+    
+    private final LinkedBlockingQueue<Connection>  m_queue = new LinkedBlockingQueue<Connection>();
+    
+    private final AtomicLong  m_requests = new AtomicLong();
+    private final AtomicLong  m_batches  = new AtomicLong();
+    
+    /**
+     * @param settings  Counter whose settings each connection uses
+     * @param threads   Number of evaluator threads
+     * @param batch     Most requests ranked together
+     */
+    public
+    HandServer(Counter settings, int threads, int batch)
+    {
+        m_settings = settings;
+        m_batch    = batch;
+        for (int i = 0; i < threads; ++i)
+        {
+            Thread  thread = new Thread(new Batcher(), "HandServer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    /*
+     * One virtual thread per task where the JVM has them, found reflectively so the rest still runs without,
+     * otherwise a pooled platform thread.
+     */
+    private static ExecutorService
+    newConnectionExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    /**
+     * Accepts connections until the server channel is closed, serving each on its own thread.
+     * @param server  Bound channel to accept from
+     * @throws IOException
+     */
+    public void
+    serve(ServerSocketChannel server)
+        throws IOException
+    {
+        try
+        {
+            while (server.isOpen())
+            {
+                SocketChannel  channel = server.accept();
+                m_connections.execute(new Connection(channel));
+            }
+        }
+        finally
+        {
+            m_connections.shutdown();
+        }
+    }
+    
+    /**
+     * @return number of requests ranked
+     */
+    public long
+    getRequests()
+    {
+        return m_requests.get();
+    }
+    
+    /**
+     * @return number of batches the requests were ranked in
+     */
+    public long
+    getBatches()
+    {
+        return m_batches.get();
+    }
+    
+    /*
+     * Takes every request waiting, up to the batch size, and ranks them one after another, then releases their
+     * connections to write the results. A request which fails is answered with an error on each of its lines, so
+     * neither its connection nor the other requests of the batch are left waiting.
+     */
+    private final class Batcher
+        implements Runnable
+    {
+        @Override
+        public void
+        run()
+        {
+            ArrayList<Connection>  batch = new ArrayList<Connection>(m_batch);
+            try
+            {
+                while (true)
+                {
+                    batch.add(m_queue.take());
+                    m_queue.drainTo(batch, m_batch - 1);
+                    for (Connection connection : batch)
+                    {
+                        try
+                        {
+                            connection.evaluate();
+                        }
+                        catch (RuntimeException ex)
+                        {
+                            connection.fail(ex);
+                        }
+                        finally
+                        {
+                            connection.m_done.release();
+                        }
+                    }
+                    m_requests.addAndGet(batch.size());
+                    m_batches.incrementAndGet();
+                    batch.clear();
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /*
+     * Reads the lines of one client and writes back their results. Each read of complete lines is a request,
+     * ranked by an evaluator thread while this thread waits, so a connection's results are always in order.
+     */
+    private final class Connection
+        implements Runnable, WritableByteChannel
+    {
+        private final SocketChannel  m_channel;
+        private final Counter        m_counter;
+        private final Semaphore      m_done = new Semaphore(0);
+        
+        private  ByteBuffer  m_input  = ByteBuffer.allocate(ReadBuffer);
+        private  ByteBuffer  m_output = ByteBuffer.allocate(ReadBuffer);
+        private  int         m_end;     // end of the complete lines of the request
+        private  long        m_line;    // lines before the request
+        
+        Connection(SocketChannel channel)
+        {
+            m_channel = channel;
+            m_counter = m_settings.newConnection(this);
+        }
+        
+        @Override
+        public void
+        run()
+        {
+            try (SocketChannel channel = m_channel)
+            {
+                while (true)
+                {
+                    if (!m_input.hasRemaining())
+                    {
+                        // a line longer than the buffer
+                        ByteBuffer  larger = ByteBuffer.allocate(2 * m_input.capacity());
+                        m_input.flip();
+                        m_input = larger.put(m_input);
+                    }
+                    
+                    int  read = channel.read(m_input);
+                    if (read < 0)
+                    {
+                        // any last line without an end
+                        m_end = m_input.position();
+                        request();
+                        break;
+                    }
+                    
+                    // up to the last line end, leaving a final \r in case the next read starts with \n
+                    int  filled = m_input.position();
+                    int  end    = filled;
+                    while (end > 0 && m_input.get(end - 1) != '\n' && (m_input.get(end - 1) != '\r' || end == filled))
+                    {
+                        end--;
+                    }
+                    if (end > 0)
+                    {
+                        m_end = end;
+                        request();
+                        m_input.flip().position(end);
+                        m_input.compact();
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                // the client went away, nothing to answer
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /*
+         * Queues the complete lines to be ranked, waits for them and writes out the results.
+         */
+        private void
+        request()
+            throws IOException, InterruptedException
+        {
+            if (m_end == 0)
+            {
+                return;
+            }
+            m_queue.put(this);
+            m_done.acquire();
+            
+            m_output.flip();
+            while (m_output.hasRemaining())
+            {
+                m_channel.write(m_output);
+            }
+            m_output.clear();
+        }
+        
+        /*
+         * Ranks the lines of the request, on an evaluator thread.
+         */
+        void
+        evaluate()
+        {
+            m_line = m_counter.processLines(m_input, 0, m_end, m_line);
+        }
+        
+        /*
+         * Answers each line of the request with the error it failed with, dropping any results already written.
+         */
+        void
+        fail(RuntimeException ex)
+        {
+            m_output.clear();
+            m_line = m_counter.failLines(m_input, 0, m_end, m_line, ex.toString());
+        }
+        
+        /*
+         * Holds the results written by the counter's ResultWriter until the request is done.
+         */
+        @Override
+        public int
+        write(ByteBuffer src)
+        {
+            int  length = src.remaining();
+            if (m_output.remaining() < length)
+            {
+                int         size   = Math.max(2 * m_output.capacity(), m_output.position() + length);
+                ByteBuffer  larger = ByteBuffer.allocate(size);
+                m_output.flip();
+                m_output = larger.put(m_output);
+            }
+            m_output.put(src);
+            return length;
+        }
+        
+        @Override
+        public boolean
+        isOpen()
+        {
+            return true;
+        }
+        
+        @Override
+        public void
+        close()
+        {
+            // the socket is closed when the connection ends
+        }
+    }
+    
+    /*
+     * Opens a server channel on a Unix domain socket, replacing any left by an earlier run, or a loopback TCP port.
+     */
+    static ServerSocketChannel
+    open(String socket, int port)
+        throws IOException
+    {
+        if (socket != null)
+        {
+            Path  path = Paths.get(socket);
+            Files.deleteIfExists(path);
+            ServerSocketChannel  server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(path));
+            return server;
+        }
+        ServerSocketChannel  server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return server;
+    }
+    
+    /*
+     * Address to connect to a server opened with the same arguments.
+     */
+    static SocketAddress
+    address(String socket, int port)
+    {
+        return socket != null ? UnixDomainSocketAddress.of(socket)
+                              : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+    
+    /**
+     * Runs from the command line until killed:<br>
+     * HandServer [-port N | -socket PATH] [-threads N] [-batch N] [Counter options]
+     */
+    public static void
+    main(String... args)
+    {
+        try
+        {
+            Counter  counter = new Counter();
+            int      port    = DefaultPort;
+            String   socket  = null;
+            int      threads = 1;
+            int      batch   = 64;
+            boolean  metrics = false;
+            
+            for (int arg = 0; arg < args.length; ++arg)
+            {
+                String  option = args[arg];
+                if ("-port".equals(option) && arg + 1 < args.length)
+                {
+                    port = Integer.parseInt(args[++arg]);
+                }
+                else if ("-socket".equals(option) && arg + 1 < args.length)
+                {
+                    socket = args[++arg];
+                }
+                else if ("-threads".equals(option) && arg + 1 < args.length)
+                {
+                    threads = Integer.parseInt(args[++arg]);
+                }
+                else if ("-batch".equals(option) && arg + 1 < args.length)
+                {
+                    batch = Integer.parseInt(args[++arg]);
+                }
+                else if ("-evaluator".equals(option) && arg + 1 < args.length)
+                {
+                    Hand.setEvaluator(Evaluator.parse(args[++arg]));
+                }
+                else if ("-rules".equals(option) && arg + 1 < args.length)
+                {
+                    Hand.setEvaluator(Evaluator.forRules(Rules.parse(args[++arg])));
+                }
+                else if ("-ignorecase".equals(option))
+                {
+                    counter.setIgnoreCase(true);
+                }
+                else if ("-holdem".equals(option))
+                {
+                    counter.setHoldem(true);
+                }
+                else if ("-players".equals(option) && arg + 1 < args.length)
+                {
+                    counter.setPlayers(Integer.parseInt(args[++arg]));
+                }
+                else if ("-metrics".equals(option))
+                {
+                    metrics = true;
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+            }
+            if (threads < 1 || batch < 1)
+            {
+                throw new PokerException("Invalid -threads or -batch");
+            }
+            
+            // after the options, so that it decodes kinds under the rules chosen
+            final CounterMetrics  recorded = metrics ? new CounterMetrics(Hand.getEvaluator().getRules()) : null;
+            if (recorded != null)
+            {
+                recorded.register("server");
+                counter.setMetrics(recorded);
+            }
+            
+            final HandServer  server = new HandServer(counter, threads, batch);
+            Runtime.getRuntime().addShutdownHook(new Thread()
+            {
+                @Override
+                public void
+                run()
+                {
+                    System.out.println("Requests " + server.getRequests() + " in " + server.getBatches()
+                                       + " batches");
+                    if (recorded != null)
+                    {
+                        System.out.println(recorded);
+                    }
+                }
+            });
+            
+            try (ServerSocketChannel channel = open(socket, port))
+            {
+                System.out.println("HandServer listening on " + channel.getLocalAddress());
+                server.serve(channel);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
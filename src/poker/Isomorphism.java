@@ -0,0 +1,787 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * Maps cards to a suite isomorphic representative. No suite ranks above another, so renaming the suites changes
+ * neither the rank of a hand nor any equity, and every set of hands related by one of the 24 renamings can be
+ * worked on once through its representative.<br>
+ * The representative gives suite 0 the cards of the suite with the highest numbers, suite 1 the next and so on.
+ * Where the cards come in groups, such as hole cards and a board, one renaming must apply to all the groups, so
+ * the suites are ordered by the numbers they hold in the first group, then the second and so on.<br>
+ * A renaming is packed 2 bits per suite, the new ordinal of suite ordinal s in bits 2s and 2s+1, so it can be
+ * applied to codes and suite masks and inverted to map a representative back to the original cards.<br>
+ * Five card hands have a dense index from 0 to HandClasses - 1 and hole cards a dense index from 0 to
+ * PreflopClasses - 1, each with the representative cards of an index. Hole cards with a board of three, four or five
+ * cards have a dense index from 0 to FlopClasses, TurnClasses or RiverClasses - 1, the board being a set of cards
+ * whatever street each was dealt on. It is made as for a hand isomorphism indexer: the numbers of each suite in the
+ * hole cards and board have an index of their own, the suites are sorted by how many cards they hold and that
+ * index, and the index of the whole is the position of the pattern of card counts plus a mixed radix of the
+ * multisets of the suite indexes for each count. It is computed directly, so needs no tables of hands.
+ */
+public final class Isomorphism
+{
+    public static final int  HandClasses    = 134459;
+    public static final int  PreflopClasses = 169;
+    public static final int  FlopClasses    = 1286792;
+    public static final int  TurnClasses    = 13960050;
+    public static final int  RiverClasses   = 123156254;
+    
+    // renaming which leaves every suite alone
+    public static final int  Identity = 0xE4;
+    
+    private static final int  Suites     = 1 << Card.SuiteBits;
+    private static final int  Numbers    = Number.values().length;
+    private static final int  NumberMask = (1 << Numbers) - 1;
+    private static final int  SuiteMask  = (1 << SevenCardRank.SuiteBits) - 1;
+    
+    // fewest board cards of a Hold'em index, and the counts of the hole and board cards of a suite, packed as
+    // holes * Counts + board
+    private static final int  MinBoard   = 3;
+    private static final int  Counts     = Hand.Size + 1;
+    private static final int  CountCodes = SevenCardRank.HoleCards * Counts + Counts;
+    
+    private
+    Isomorphism()
+    {
+        // static functions only
+    }
+    
+    /**
+     * @param suites  Suite masks of the cards, as from SevenCardRank.suites
+     * @return renaming which makes the cards a representative
+     */
+    public static int
+    permutation(long suites)
+    {
+        return order(numbers(suites, 0), numbers(suites, 1), numbers(suites, 2), numbers(suites, 3));
+    }
+    
+    /**
+     * @param first   Suite masks of the first group of cards, such as hole cards
+     * @param second  Suite masks of the second group of cards, such as a board
+     * @return renaming which makes both groups together a representative
+     */
+    public static int
+    permutation(long first, long second)
+    {
+        return order(numbers(first, 0) << Numbers | numbers(second, 0),
+                     numbers(first, 1) << Numbers | numbers(second, 1),
+                     numbers(first, 2) << Numbers | numbers(second, 2),
+                     numbers(first, 3) << Numbers | numbers(second, 3));
+    }
+    
+    private static long
+    numbers(long suites, int suite)
+    {
+        return suites >>> suite * SevenCardRank.SuiteBits & NumberMask;
+    }
+    
+    /*
+     * Renaming which puts the suites in decreasing order of key, equal keys keeping their order.
+     */
+    private static int
+    order(long key0, long key1, long key2, long key3)
+    {
+        long[]  keys        = { key0, key1, key2, key3 };
+        int     permutation = 0;
+        for (int s = 0; s < Suites; ++s)
+        {
+            int  position = 0;
+            for (int t = 0; t < Suites; ++t)
+            {
+                if (keys[t] > keys[s] || keys[t] == keys[s] && t < s)
+                {
+                    position++;
+                }
+            }
+            permutation |= position << 2 * s;
+        }
+        return permutation;
+    }
+    
+    /**
+     * @return card code with its suite renamed
+     */
+    public static int
+    apply(int permutation, int code)
+    {
+        return code & ~Card.SuiteMask | permutation >>> 2 * (code & Card.SuiteMask) & Card.SuiteMask;
+    }
+    
+    /**
+     * @return suite masks with the suites renamed
+     */
+    public static long
+    apply(int permutation, long suites)
+    {
+        long  renamed = 0;
+        for (int s = 0; s < Suites; ++s)
+        {
+            renamed |= (suites >>> s * SevenCardRank.SuiteBits & SuiteMask)
+                       << (permutation >>> 2 * s & Card.SuiteMask) * SevenCardRank.SuiteBits;
+        }
+        return renamed;
+    }
+    
+    /**
+     * @return renaming which undoes a renaming
+     */
+    public static int
+    inverse(int permutation)
+    {
+        int  inverse = 0;
+        for (int s = 0; s < Suites; ++s)
+        {
+            inverse |= s << 2 * (permutation >>> 2 * s & Card.SuiteMask);
+        }
+        return inverse;
+    }
+    
+    /**
+     * @param suites  Suite masks of the cards, as from SevenCardRank.suites
+     * @return suite masks of the representative
+     */
+    public static long
+    canonical(long suites)
+    {
+        return apply(permutation(suites), suites);
+    }
+    
+    /**
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Position of the five codes
+     * @return index of the hand's class, from 0 to HandClasses - 1
+     */
+    public static int
+    index(int[] codes, int offset)
+    {
+        long  cards = 0;
+        for (int i = offset; i < offset + Hand.Size; ++i)
+        {
+            cards |= 1L << codes[i];
+        }
+        return Tables.ByColex[(int) colex(cards)];
+    }
+    
+    /**
+     * @param index  Index of a class of five card hands
+     * @param codes  Filled with the codes of its representative, in increasing order
+     */
+    public static void
+    representative(int index, int[] codes)
+    {
+        Colex.unrank(Tables.Representatives[index], Hand.Size, codes);
+    }
+    
+    /*
+     * Colex index of a set of cards held as a mask by code, the cards being increasing codes.
+     */
+    private static long
+    colex(long cards)
+    {
+        long  index = 0;
+        for (int k = 1; cards != 0; ++k, cards &= cards - 1)
+        {
+            index += Colex.choose(Long.numberOfTrailingZeros(cards), k);
+        }
+        return index;
+    }
+    
+    /**
+     * Classes of hole cards by numbers and whether they are suited, 13 pairs, 78 suited and 78 offsuit.
+     * The index is high * 13 + low if suited and low * 13 + high if not, so laid out as a 13 x 13 grid by
+     * number ordinal the pairs are on the diagonal, suited hands below it and offsuit hands above it.
+     * @return index of the class of two hole cards, from 0 to PreflopClasses - 1
+     */
+    public static int
+    preflop(int code1, int code2)
+    {
+        int  number1 = code1 >>> Card.SuiteBits;
+        int  number2 = code2 >>> Card.SuiteBits;
+        int  high    = Math.max(number1, number2);
+        int  low     = Math.min(number1, number2);
+        
+        return (code1 & Card.SuiteMask) == (code2 & Card.SuiteMask) ? high * Numbers + low : low * Numbers + high;
+    }
+    
+    /**
+     * @param index  Index of a class of hole cards
+     * @param codes  Filled with the codes of its representative, high card first
+     */
+    public static void
+    preflopRepresentative(int index, int[] codes)
+    {
+        int  row    = index / Numbers;
+        int  column = index % Numbers;
+        if (row >= column)
+        {
+            // pairs are necessarily offsuit, other hands below the diagonal suited
+            codes[0] = Card.code(Number.values()[row], Suite.values()[0]);
+            codes[1] = Card.code(Number.values()[column], Suite.values()[row == column ? 1 : 0]);
+        }
+        else
+        {
+            codes[0] = Card.code(Number.values()[column], Suite.values()[0]);
+            codes[1] = Card.code(Number.values()[row], Suite.values()[1]);
+        }
+    }
+    
+    /**
+     * @return number of pairs of hole cards in a class, 6 for a pair, 4 suited and 12 offsuit
+     */
+    public static int
+    preflopCombos(int index)
+    {
+        int  row    = index / Numbers;
+        int  column = index % Numbers;
+        return row == column ? 6 : row > column ? 4 : 12;
+    }
+    
+    /**
+     * @return name of a class of hole cards such as "AA", "AKs" or "72o"
+     */
+    public static String
+    preflopName(int index)
+    {
+        int   row    = index / Numbers;
+        int   column = index % Numbers;
+        char  high   = Number.values()[Math.max(row, column)].m_code;
+        char  low    = Number.values()[Math.min(row, column)].m_code;
+        
+        return row == column ? "" + high + low : "" + high + low + (row > column ? 's' : 'o');
+    }
+    
+    /**
+     * @param boardCards  Number of board cards, from 3 to 5
+     * @return number of classes of hole cards with a board of that many cards
+     */
+    public static int
+    holdemClasses(int boardCards)
+    {
+        return boardCards == 3 ? FlopClasses : boardCards == 4 ? TurnClasses : RiverClasses;
+    }
+    
+    /**
+     * @param hole   Suite masks of the two hole cards, as from SevenCardRank.suites
+     * @param board  Suite masks of a board of three to five cards, none of them hole cards
+     * @return index of the class of the hole cards and board, from 0 to holdemClasses - 1 for the board
+     */
+    public static int
+    holdem(long hole, long board)
+    {
+        // each suite's pattern of counts in the high bits and the index of its numbers in the low bits
+        long[]  suites = new long[Suites];
+        for (int s = 0; s < Suites; ++s)
+        {
+            int  holeNumbers  = (int) numbers(hole, s);
+            int  boardNumbers = (int) numbers(board, s);
+            int  holeCount    = Integer.bitCount(holeNumbers);
+            
+            // the board numbers are indexed among those not in the hole cards
+            int  rest = 0;
+            for (int m = boardNumbers; m != 0; m &= m - 1)
+            {
+                int  number = Integer.numberOfTrailingZeros(m);
+                rest |= 1 << number - Integer.bitCount(holeNumbers & (1 << number) - 1);
+            }
+            
+            long  index = colex(holeNumbers) + Colex.choose(Numbers, holeCount) * colex(rest);
+            suites[s] = (long) (holeCount * Counts + Integer.bitCount(boardNumbers)) << Integer.SIZE | index;
+        }
+        Arrays.sort(suites);
+        
+        // from the most cards down, each run of suites with the same counts is one digit
+        int   pattern = 0;
+        long  index   = 0;
+        long  radix   = 1;
+        for (int s = Suites - 1; s >= 0;)
+        {
+            int  counts = (int) (suites[s] >>> Integer.SIZE);
+            int  end    = s;
+            while (end >= 0 && suites[end] >>> Integer.SIZE == counts)
+            {
+                pattern = pattern * CountCodes + counts;
+                end--;
+            }
+            
+            // the run increases from end + 1, so adding their positions makes it strictly increasing for colex
+            long  digit = 0;
+            for (int i = 1; i <= s - end; ++i)
+            {
+                digit += choose((int) suites[end + i] + i - 1, i);
+            }
+            index += radix * digit;
+            radix *= choose(suiteIndexes(counts) + s - end - 1, s - end);
+            s = end;
+        }
+        
+        int  boardCards = Long.bitCount(board);
+        return Streets.Offsets[boardCards - MinBoard][pattern] + (int) index;
+    }
+    
+    /**
+     * @param codes       Array holding the codes from Card.code
+     * @param offset      Position of the two hole cards, followed by the board
+     * @param boardCards  Number of board cards, from 3 to 5
+     * @return index of the class of the hole cards and board, from 0 to holdemClasses - 1 for the board
+     */
+    public static int
+    holdem(int[] codes, int offset, int boardCards)
+    {
+        return holdem(SevenCardRank.suites(codes, offset, SevenCardRank.HoleCards),
+                      SevenCardRank.suites(codes, offset + SevenCardRank.HoleCards, boardCards));
+    }
+    
+    /**
+     * @param index       Index of a class of hole cards and board
+     * @param boardCards  Number of board cards, from 3 to 5
+     * @param codes       Filled with the codes of its representative, the two hole cards then the board
+     */
+    public static void
+    holdemRepresentative(int index, int boardCards, int[] codes)
+    {
+        int[]  offsets  = Streets.Offsets[boardCards - MinBoard];
+        int[]  patterns = Streets.Patterns[boardCards - MinBoard];
+        
+        // the last pattern starting at or before the index
+        int  pattern = 0;
+        for (int p = 0; p < patterns.length; ++p)
+        {
+            if (offsets[patterns[p]] <= index)
+            {
+                pattern = patterns[p];
+            }
+        }
+        long  rest = index - offsets[pattern];
+        
+        // the counts of each suite, largest first as the suites were sorted
+        int[]  counts = new int[Suites];
+        for (int s = Suites - 1; s >= 0; --s)
+        {
+            counts[s] = pattern % CountCodes;
+            pattern  /= CountCodes;
+        }
+        
+        int[]  subset = new int[Hand.Size];
+        int    hole   = 0;
+        int    board  = SevenCardRank.HoleCards;
+        for (int s = 0; s < Suites;)
+        {
+            int  end = s;
+            while (end < Suites && counts[end] == counts[s])
+            {
+                end++;
+            }
+            int   indexes = suiteIndexes(counts[s]);
+            long  size    = choose(indexes + end - s - 1, end - s);
+            long  digit   = rest % size;
+            rest /= size;
+            
+            // undo the colex index of the run, largest first
+            for (int i = end - s; i > 0; --i)
+            {
+                int  position = largest(digit, i, indexes + end - s - 1);
+                digit -= choose(position, i);
+                
+                int   holeCount  = counts[s] / Counts;
+                int   boardCount = counts[s] % Counts;
+                long  numbers    = position - (i - 1);
+                long  holeRanks  = Colex.choose(Numbers, holeCount);
+                
+                Colex.unrank(numbers % holeRanks, holeCount, subset);
+                int  holeNumbers = 0;
+                for (int c = 0; c < holeCount; ++c)
+                {
+                    holeNumbers |= 1 << subset[c];
+                    codes[hole++] = subset[c] << Card.SuiteBits | s + i - 1;
+                }
+                
+                Colex.unrank(numbers / holeRanks, boardCount, subset);
+                for (int c = 0, number = 0, free = 0; c < boardCount; ++number)
+                {
+                    // the board numbers were indexed among those not in the hole cards
+                    if ((holeNumbers & 1 << number) == 0 && free++ == subset[c])
+                    {
+                        codes[board++] = number << Card.SuiteBits | s + i - 1;
+                        c++;
+                    }
+                }
+            }
+            s = end;
+        }
+    }
+    
+    /*
+     * Number of different indexes of the numbers in a suite holding a pattern of hole and board cards.
+     */
+    private static int
+    suiteIndexes(int counts)
+    {
+        int  holeCount = counts / Counts;
+        return (int) (Colex.choose(Numbers, holeCount) * Colex.choose(Numbers - holeCount, counts % Counts));
+    }
+    
+    /*
+     * Ways of choosing k of n for the few suites of a run, where n may be far more than the size of a deck.
+     */
+    private static long
+    choose(long n, int k)
+    {
+        long  c = 1;
+        for (int i = 0; i < k; ++i)
+        {
+            c = c * (n - i) / (i + 1);
+        }
+        return c;
+    }
+    
+    /*
+     * Largest position below a limit whose choose of k does not exceed the index.
+     */
+    private static int
+    largest(long index, int k, int limit)
+    {
+        int  low  = k - 1;
+        int  high = limit;
+        while (high - low > 1)
+        {
+            int  middle = (low + high) >>> 1;
+            if (choose(middle, k) <= index)
+            {
+                low = middle;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /*
+     * Offsets of the patterns of counts for the Hold'em indexes, built on first use.
+     */
+    private static final class Streets
+    {
+        // patterns of counts of the four suites, as numbers in base CountCodes
+        static final int  AllPatterns = CountCodes * CountCodes * CountCodes * CountCodes;
+        
+        // offset of each pattern by board cards and pattern, and the valid patterns in order
+        static final int[][]  Offsets  = new int[Hand.Size - MinBoard + 1][AllPatterns];
+        static final int[][]  Patterns = new int[Hand.Size - MinBoard + 1][];
+        static
+        {
+            for (int boardCards = MinBoard; boardCards <= Hand.Size; ++boardCards)
+            {
+                ArrayList<Integer>  valid  = new ArrayList<Integer>();
+                int[]               counts = new int[Suites];
+                long                offset = 0;
+                
+                // the counts of the suites in decreasing order, as the suites are sorted
+                for (counts[0] = CountCodes - 1; counts[0] >= 0; --counts[0])
+                for (counts[1] = counts[0]; counts[1] >= 0; --counts[1])
+                for (counts[2] = counts[1]; counts[2] >= 0; --counts[2])
+                for (counts[3] = counts[2]; counts[3] >= 0; --counts[3])
+                {
+                    int  holes   = 0;
+                    int  boards  = 0;
+                    int  pattern = 0;
+                    for (int count : counts)
+                    {
+                        holes  += count / Counts;
+                        boards += count % Counts;
+                        pattern = pattern * CountCodes + count;
+                    }
+                    if (holes != SevenCardRank.HoleCards || boards != boardCards)
+                    {
+                        continue;
+                    }
+                    
+                    Offsets[boardCards - MinBoard][pattern] = (int) offset;
+                    valid.add(pattern);
+                    offset += size(counts);
+                }
+                
+                Patterns[boardCards - MinBoard] = new int[valid.size()];
+                for (int p = 0; p < valid.size(); ++p)
+                {
+                    Patterns[boardCards - MinBoard][p] = valid.get(p);
+                }
+            }
+        }
+        
+        /*
+         * Number of classes with suites holding counts in decreasing order.
+         */
+        private static long
+        size(int[] counts)
+        {
+            long  size = 1;
+            for (int s = 0; s < Suites;)
+            {
+                // a multiset of suite indexes for each run of suites with the same counts
+                int  end = s;
+                while (end < Suites && counts[end] == counts[s])
+                {
+                    end++;
+                }
+                size *= choose(suiteIndexes(counts[s]) + end - s - 1, end - s);
+                s = end;
+            }
+            return size;
+        }
+    }
+    
+    /*
+     * Five card tables, only built on first use as they take 11MB.
+     */
+    private static final class Tables
+    {
+        // class index of every hand by colex index, and colex index of the representative of every class
+        static final int[]   ByColex         = new int[(int) Colex.choose(Card.DeckSize, Hand.Size)];
+        static final long[]  Representatives = new long[HandClasses];
+        static
+        {
+            HashMap<Long, Integer>  classes = new HashMap<Long, Integer>();
+            int[]                   subset  = { 0, 1, 2, 3, 4 };
+            for (int index = 0; index < ByColex.length; ++index)
+            {
+                long     canonical = canonical(SevenCardRank.suites(subset, 0, Hand.Size));
+                Integer  found     = classes.get(canonical);
+                if (found == null)
+                {
+                    found = classes.size();
+                    classes.put(canonical, found);
+                    Representatives[found] = colex(cards(canonical));
+                }
+                ByColex[index] = found;
+                
+                Colex.next(subset, Hand.Size, Card.DeckSize);
+            }
+        }
+    }
+    
+    /*
+     * Mask of cards by code from suite masks.
+     */
+    private static long
+    cards(long suites)
+    {
+        long  cards = 0;
+        for (; suites != 0; suites &= suites - 1)
+        {
+            int  bit = Long.numberOfTrailingZeros(suites);
+            cards |= 1L << ((bit % SevenCardRank.SuiteBits) << Card.SuiteBits | bit / SevenCardRank.SuiteBits);
+        }
+        return cards;
+    }
+    
+    /*
+     * Self check - every five card hand must rank the same as its representative, both directly and through the
+     * index, and be recovered from the representative by the inverse renaming. Random hole cards and boards must
+     * keep their Hold'em ranks when renamed together, and the hole card classes must cover all 1326 pairs. Every flop
+     * must be in the class of the representative of its index, each representative having that index, and so must
+     * random turns and rivers, the rivers keeping their rank.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing Isomorphism");
+        try
+        {
+            int[]  codes  = new int[SevenCardRank.MaxCards];
+            int[]  other  = new int[SevenCardRank.MaxCards];
+            int[]  counts = new int[HandClasses];
+            
+            int  hands = 0;
+            for (codes[0] = 0; codes[0] < Card.DeckSize; ++codes[0])
+            for (codes[1] = codes[0] + 1; codes[1] < Card.DeckSize; ++codes[1])
+            for (codes[2] = codes[1] + 1; codes[2] < Card.DeckSize; ++codes[2])
+            for (codes[3] = codes[2] + 1; codes[3] < Card.DeckSize; ++codes[3])
+            for (codes[4] = codes[3] + 1; codes[4] < Card.DeckSize; ++codes[4])
+            {
+                int   rank        = HandRank.evaluate(codes, 0);
+                long  suites      = SevenCardRank.suites(codes, 0, Hand.Size);
+                int   permutation = permutation(suites);
+                for (int i = 0; i < Hand.Size; ++i)
+                {
+                    other[i] = apply(permutation, codes[i]);
+                }
+                
+                if (SevenCardRank.suites(other, 0, Hand.Size) != canonical(suites)
+                    || apply(inverse(permutation), canonical(suites)) != suites)
+                {
+                    throw new PokerException("Renaming not reversed for " + hands);
+                }
+                if (HandRank.evaluate(other, 0) != rank)
+                {
+                    throw new PokerException("Representative ranks differently for " + hands);
+                }
+                
+                int  index = index(codes, 0);
+                representative(index, other);
+                if (index(other, 0) != index || HandRank.evaluate(other, 0) != rank
+                    || canonical(SevenCardRank.suites(other, 0, Hand.Size)) != canonical(suites))
+                {
+                    throw new PokerException("Wrong class for " + hands);
+                }
+                counts[index]++;
+                hands++;
+            }
+            for (int index = 0; index < HandClasses; ++index)
+            {
+                // a class is the hands a renaming reaches, so its size divides the number of renamings
+                if (counts[index] == 0 || 24 % counts[index] != 0)
+                {
+                    throw new PokerException("Class " + index + " has " + counts[index] + " hands");
+                }
+            }
+            System.out.println("\nChecked " + hands + " five card hands in " + HandClasses + " classes");
+            
+            Random  random = new Random(1);
+            int[]   deck   = new int[Card.DeckSize];
+            for (int i = 0; i < deck.length; ++i)
+            {
+                deck[i] = i;
+            }
+            for (int n = 0; n < 1000000; ++n)
+            {
+                // partial shuffle to deal the cards
+                for (int i = 0; i < SevenCardRank.MaxCards; ++i)
+                {
+                    int  j = i + random.nextInt(deck.length - i);
+                    int  t = deck[i];
+                    deck[i] = deck[j];
+                    deck[j] = t;
+                    codes[i] = deck[i];
+                }
+                
+                long  hole        = SevenCardRank.suites(codes, 0, SevenCardRank.HoleCards);
+                long  board       = SevenCardRank.suites(codes, SevenCardRank.HoleCards, Hand.Size);
+                int   permutation = permutation(hole, board);
+                long  renamed     = apply(permutation, hole) | apply(permutation, board);
+                if (SevenCardRank.evaluate(renamed) != SevenCardRank.evaluate(hole | board)
+                    || preflop(apply(permutation, codes[0]), apply(permutation, codes[1]))
+                       != preflop(codes[0], codes[1]))
+                {
+                    throw new PokerException("Hold'em renaming ranks differently");
+                }
+            }
+            System.out.println("Checked 1000000 random hole cards and boards");
+            
+            int[]  combos = new int[PreflopClasses];
+            for (int code1 = 0; code1 < Card.DeckSize; ++code1)
+            {
+                for (int code2 = 0; code2 < code1; ++code2)
+                {
+                    combos[preflop(code1, code2)]++;
+                }
+            }
+            for (int index = 0; index < PreflopClasses; ++index)
+            {
+                preflopRepresentative(index, other);
+                if (combos[index] != preflopCombos(index) || preflop(other[0], other[1]) != index)
+                {
+                    throw new PokerException("Wrong hole card class " + preflopName(index));
+                }
+            }
+            System.out.println("Checked " + PreflopClasses + " hole card classes");
+            
+            // every flop, against the hole cards and board of the representative of its index made canonical
+            long[]  holes  = new long[FlopClasses];
+            long[]  boards = new long[FlopClasses];
+            for (int index = 0; index < FlopClasses; ++index)
+            {
+                holdemRepresentative(index, 3, other);
+                long  hole  = SevenCardRank.suites(other, 0, SevenCardRank.HoleCards);
+                long  board = SevenCardRank.suites(other, SevenCardRank.HoleCards, 3);
+                if (holdem(hole, board) != index || Long.bitCount(hole | board) != SevenCardRank.HoleCards + 3)
+                {
+                    throw new PokerException("Wrong representative of flop class " + index);
+                }
+                int  permutation = permutation(hole, board);
+                holes[index]  = apply(permutation, hole);
+                boards[index] = apply(permutation, board);
+            }
+            long  flops = 0;
+            for (codes[0] = 0; codes[0] < Card.DeckSize; ++codes[0])
+            for (codes[1] = codes[0] + 1; codes[1] < Card.DeckSize; ++codes[1])
+            {
+                long  hole = SevenCardRank.suites(codes, 0, SevenCardRank.HoleCards);
+                for (codes[2] = 0; codes[2] < Card.DeckSize; ++codes[2])
+                for (codes[3] = codes[2] + 1; codes[3] < Card.DeckSize; ++codes[3])
+                for (codes[4] = codes[3] + 1; codes[4] < Card.DeckSize; ++codes[4])
+                {
+                    long  board = SevenCardRank.suites(codes, SevenCardRank.HoleCards, 3);
+                    if ((hole & board) != 0)
+                    {
+                        continue;
+                    }
+                    
+                    int  index       = holdem(hole, board);
+                    int  permutation = permutation(hole, board);
+                    if (apply(permutation, hole) != holes[index] || apply(permutation, board) != boards[index])
+                    {
+                        throw new PokerException("Wrong class for flop " + flops);
+                    }
+                    flops++;
+                }
+            }
+            System.out.println("\nChecked " + flops + " flops in " + FlopClasses + " classes");
+            
+            // random turns and rivers, which must also keep their rank when renamed to the representative
+            for (int boardCards = 4; boardCards <= Hand.Size; ++boardCards)
+            {
+                for (int n = 0; n < 1000000; ++n)
+                {
+                    for (int i = 0; i < SevenCardRank.HoleCards + boardCards; ++i)
+                    {
+                        int  j = i + random.nextInt(deck.length - i);
+                        int  t = deck[i];
+                        deck[i] = deck[j];
+                        deck[j] = t;
+                        codes[i] = deck[i];
+                    }
+                    
+                    int   index       = holdem(codes, 0, boardCards);
+                    long  hole        = SevenCardRank.suites(codes, 0, SevenCardRank.HoleCards);
+                    long  board       = SevenCardRank.suites(codes, SevenCardRank.HoleCards, boardCards);
+                    int   permutation = permutation(hole, board);
+                    
+                    holdemRepresentative(index, boardCards, other);
+                    long  otherHole   = SevenCardRank.suites(other, 0, SevenCardRank.HoleCards);
+                    long  otherBoard  = SevenCardRank.suites(other, SevenCardRank.HoleCards, boardCards);
+                    int   renaming    = permutation(otherHole, otherBoard);
+                    
+                    if (index < 0 || index >= holdemClasses(boardCards) || holdem(otherHole, otherBoard) != index
+                        || apply(renaming, otherHole) != apply(permutation, hole)
+                        || apply(renaming, otherBoard) != apply(permutation, board))
+                    {
+                        throw new PokerException("Wrong class for " + boardCards + " board cards " + index);
+                    }
+                    if (boardCards == Hand.Size
+                        && SevenCardRank.evaluate(otherHole | otherBoard) != SevenCardRank.evaluate(hole | board))
+                    {
+                        throw new PokerException("Representative ranks differently for river " + index);
+                    }
+                }
+                System.out.println("Checked 1000000 random hole cards with " + boardCards + " board cards");
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * @author Andrew
+ *
+ * Splits a buffer of input bytes into lines and parses the two character card tokens straight into primitive card
+ * codes, which are passed to a Counter. Nothing is allocated per line unless the line is in error.<br>
+ * Gives exactly the same lines, cards and error messages as reading the bytes with BufferedReader.readLine,
+ * String.trim and Card.parseString.
+ */
+final class LineScanner
+{
+    // large enough for any valid line, extra cards are counted but not stored
+    private static final int  MaxCards = 64;
+
+    private final Counter                  m_counter;
+    private final boolean                  m_ignoreCase;
+    private final CounterMetrics.Recorder  m_recorder;    // null unless the counter records metrics
+    private final int[]                    m_codes = new int[MaxCards];
+
+    LineScanner(Counter counter)
+    {
+        m_counter    = counter;
+        m_ignoreCase = counter.isIgnoreCase();
+        m_recorder   = counter.getRecorder();
+    }
+
+    /**
+     * Scans complete lines between two positions of a buffer, the last of which need not be terminated.
+     * @param buffer  Input bytes
+     * @param start   Position of the start of the first line
+     * @param end     Position after the end of the last line
+     * @param line    Number of lines before the first line
+     * @return number of the last line scanned
+     */
+    long
+    scan(ByteBuffer buffer, int start, int end, long line)
+    {
+        return scan(buffer, start, end, line, null);
+    }
+
+    /**
+     * Splits lines as scan does, but reports each line which is not empty as an error instead of reading its cards.
+     * @param buffer   Input bytes
+     * @param start    Position of the start of the first line
+     * @param end      Position after the end of the last line
+     * @param line     Number of lines before the first line
+     * @param message  Message of the error on each line
+     * @return number of the last line scanned
+     */
+    long
+    fail(ByteBuffer buffer, int start, int end, long line, String message)
+    {
+        return scan(buffer, start, end, line, message);
+    }
+
+    private long
+    scan(ByteBuffer buffer, int start, int end, long line, String failure)
+    {
+        if (m_recorder != null)
+        {
+            m_recorder.begin();
+        }
+        
+        int  pos = start;
+        while (pos < end)
+        {
+            int  first = pos;
+
+            // lines end with \n, \r or \r\n just as for readLine
+            byte  b = 0;
+            while (pos < end && (b = buffer.get(pos)) != '\n' && b != '\r')
+            {
+                pos++;
+            }
+
+            int  last = pos;
+            if (pos < end)
+            {
+                pos++;
+                if (b == '\r' && pos < end && buffer.get(pos) == '\n')
+                {
+                    pos++;
+                }
+            }
+
+            line++;
+            if (m_recorder != null)
+            {
+                m_recorder.line();
+            }
+            try
+            {
+                if (failure == null)
+                {
+                    scanLine(line, buffer, first, last);
+                }
+                else if (!isBlank(buffer, first, last))
+                {
+                    throw new PokerException(failure);
+                }
+            }
+            catch (PokerException ex)
+            {
+                m_counter.error(line, ex.getMessage());
+            }
+        }
+        
+        m_counter.drain();
+        if (m_recorder != null)
+        {
+            m_recorder.publish();
+        }
+        return line;
+    }
+
+    /*
+     * Whether a line is empty once trimmed, so it has no result.
+     */
+    private static boolean
+    isBlank(ByteBuffer buffer, int first, int last)
+    {
+        for (int pos = first; pos < last; ++pos)
+        {
+            if ((buffer.get(pos) & 0xFF) > ' ')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Equivalent to processing the trimmed line as a String.
+     */
+    private void
+    scanLine(long line, ByteBuffer buffer, int first, int last)
+        throws PokerException
+    {
+        // trim as String.trim does
+        while (first < last && (buffer.get(first) & 0xFF) <= ' ')
+        {
+            first++;
+        }
+        while (last > first && (buffer.get(last - 1) & 0xFF) <= ' ')
+        {
+            last--;
+        }
+
+        // ignore empty lines or those with only white space
+        if (first == last)
+        {
+            return;
+        }
+
+        int  count = 0;
+        int  pos   = first;
+        while (pos < last)
+        {
+            if (isDelimiter(buffer.get(pos)))
+            {
+                pos++;
+                continue;
+            }
+
+            int  token = pos;
+            while (pos < last && !isDelimiter(buffer.get(pos)))
+            {
+                pos++;
+            }
+
+            int  code = parseCard(buffer, token, pos);
+            if (count < MaxCards)
+            {
+                m_codes[count] = code;
+            }
+            count++;
+        }
+
+        if (m_recorder != null)
+        {
+            m_recorder.lap(CounterMetrics.Stage.PARSE);
+        }
+        m_counter.processCodes(line, m_codes, count);
+    }
+
+    /*
+     * The default delimiters of the StringTokenizer used by Card.parseString - end of lines can not occur.
+     */
+    private static boolean
+    isDelimiter(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\f';
+    }
+
+    private int
+    parseCard(ByteBuffer buffer, int token, int end)
+        throws PokerException
+    {
+        if (end - token == 2)
+        {
+            byte  number = buffer.get(token);
+            byte  suite  = buffer.get(token + 1);
+
+            // only plain ASCII characters can be parsed directly from the bytes
+            if (number >= 0 && suite >= 0)
+            {
+                return Card.code(Number.parse((char) number, m_ignoreCase),
+                                 Suite.parse((char) suite, m_ignoreCase));
+            }
+        }
+
+        // error or unusual characters, so decode the token the same way as a Reader would
+        byte[]  bytes = new byte[end - token];
+        for (int i = 0; i < bytes.length; ++i)
+        {
+            bytes[i] = buffer.get(token + i);
+        }
+        String  s = new String(bytes, Charset.defaultCharset());
+
+        if (s.length() != 2)
+        {
+            throw new PokerException("Invalid token: " + s);
+        }
+        return Card.code(Number.parse(s.charAt(0), m_ignoreCase), Suite.parse(s.charAt(1), m_ignoreCase));
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Andrew
+ *
+ * Load generator for HandServer, sending requests of random hands at a target rate over a number of connections
+ * and reporting the latency percentiles.<br>
+ * Requests are sent on a fixed schedule whether or not earlier ones have been answered, and each latency is
+ * measured from when its request was due to be sent, so a stalled server is charged for every request it held up
+ * rather than only the one it stalled on. Each connection has a thread sending and a thread reading the results,
+ * matching them to requests by counting lines.<br>
+ * Options:<br>
+ * -port N           connect to a TCP port of the loopback address, by default HandServer.DefaultPort<br>
+ * -socket PATH      connect to a Unix domain socket instead<br>
+ * -rate N           requests per second over all connections, by default 10000<br>
+ * -seconds N        length of the run, by default 10<br>
+ * -connections N    number of connections, by default 4<br>
+ * -lines N          lines of hands per request, by default 1<br>
+ * -players N        players per line, by default 2
+ */
+public class LoadClient
+{
+    // different lines of hands sent in rotation
+    private static final int  Lines = 4096;
+    
+    private final byte[][]  m_lines = new byte[Lines][];
+    
+    private  String  m_socket;
+    private  int     m_port        = HandServer.DefaultPort;
+    private  double  m_rate        = 10000;
+    private  double  m_seconds     = 10;
+    private  int     m_connections = 4;
+    private  int     m_perRequest  = 1;
+    
+    /**
+     * @param players  Players on each line
+     * @param seed     Seed of the random hands
+     */
+    public
+    LoadClient(int players, long seed)
+    {
+        SplittableRandom  random = new SplittableRandom(seed);
+        int[]             deck   = new int[Card.DeckSize];
+        for (int code = 0; code < deck.length; ++code)
+        {
+            deck[code] = code;
+        }
+        
+        // lines of distinct cards as Counter reads them, "AH KD ..."
+        for (int l = 0; l < Lines; ++l)
+        {
+            StringBuilder  line = new StringBuilder();
+            for (int i = 0; i < players * Hand.Size; ++i)
+            {
+                int  j = i + random.nextInt(deck.length - i);
+                int  t = deck[i];
+                deck[i] = deck[j];
+                deck[j] = t;
+                line.append(i > 0 ? " " : "").append(Card.get(deck[i]));
+            }
+            m_lines[l] = line.append('\n').toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+    
+    /**
+     * Runs the load.
+     * @return latencies of every request in nanoseconds, sorted
+     * @throws IOException if a connection fails
+     * @throws InterruptedException
+     */
+    public long[]
+    run()
+        throws IOException, InterruptedException
+    {
+        long  requests = (long) (m_rate * m_seconds) / m_connections;
+        long  period   = (long) (1e9 * m_connections / m_rate);
+        long  start    = System.nanoTime() + 100000000L;
+        
+        ArrayList<Sender>  senders = new ArrayList<Sender>();
+        ArrayList<Thread>  threads = new ArrayList<Thread>();
+        for (int c = 0; c < m_connections; ++c)
+        {
+            // connections start spread through the period so their requests interleave
+            Sender  sender = new Sender(open(), start + c * period / m_connections, period, (int) requests);
+            senders.add(sender);
+            threads.add(new Thread(sender, "LoadClient-send-" + c));
+            threads.add(new Thread(sender.m_receiver, "LoadClient-receive-" + c));
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        for (Sender sender : senders)
+        {
+            sender.m_channel.close();
+        }
+        
+        long[]  latencies = new long[0];
+        for (Sender sender : senders)
+        {
+            if (sender.m_error != null || sender.m_receiver.m_error != null)
+            {
+                throw sender.m_error != null ? sender.m_error : sender.m_receiver.m_error;
+            }
+            long[]  more   = sender.m_receiver.m_latencies;
+            int     length = latencies.length;
+            latencies = Arrays.copyOf(latencies, length + more.length);
+            System.arraycopy(more, 0, latencies, length, more.length);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+    
+    private SocketChannel
+    open()
+        throws IOException
+    {
+        if (m_socket != null)
+        {
+            SocketChannel  channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(m_socket));
+            return channel;
+        }
+        return SocketChannel.open(HandServer.address(null, m_port));
+    }
+    
+    /*
+     * Sends the requests of a connection on schedule.
+     */
+    private final class Sender
+        implements Runnable
+    {
+        private final SocketChannel  m_channel;
+        private final long           m_start;
+        private final long           m_period;
+        private final int            m_requests;
+        private final Receiver       m_receiver;
+        
+        private  IOException  m_error;
+        
+        Sender(SocketChannel channel, long start, long period, int requests)
+        {
+            m_channel  = channel;
+            m_start    = start;
+            m_period   = period;
+            m_requests = requests;
+            m_receiver = new Receiver(this);
+        }
+        
+        @Override
+        public void
+        run()
+        {
+            ByteBuffer  buffer = ByteBuffer.allocate(m_perRequest * m_lines[0].length);
+            int         line   = 0;
+            try
+            {
+                for (int r = 0; r < m_requests; ++r)
+                {
+                    long  due = m_start + r * m_period;
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                    {
+                        LockSupport.parkNanos(wait);
+                    }
+                    
+                    buffer.clear();
+                    for (int l = 0; l < m_perRequest; ++l, line = (line + 1) % Lines)
+                    {
+                        buffer.put(m_lines[line]);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                    {
+                        m_channel.write(buffer);
+                    }
+                }
+                m_channel.shutdownOutput();
+            }
+            catch (IOException ex)
+            {
+                m_error = ex;
+            }
+        }
+    }
+    
+    /*
+     * Reads the results of a connection, timing each request from when it was due.
+     */
+    private final class Receiver
+        implements Runnable
+    {
+        private final Sender  m_sender;
+        private final long[]  m_latencies;
+        
+        private  IOException  m_error;
+        
+        Receiver(Sender sender)
+        {
+            m_sender    = sender;
+            m_latencies = new long[sender.m_requests];
+        }
+        
+        @Override
+        public void
+        run()
+        {
+            ByteBuffer  buffer = ByteBuffer.allocate(1 << 16);
+            long        lines  = 0;
+            int         done   = 0;
+            try
+            {
+                while (done < m_latencies.length && m_sender.m_channel.read(buffer) >= 0)
+                {
+                    long  now = System.nanoTime();
+                    for (int i = 0; i < buffer.position(); ++i)
+                    {
+                        if (buffer.get(i) == '\n' && ++lines % m_perRequest == 0)
+                        {
+                            m_latencies[done] = now - (m_sender.m_start + done * m_sender.m_period);
+                            done++;
+                        }
+                    }
+                    buffer.clear();
+                }
+                if (done < m_latencies.length)
+                {
+                    throw new IOException("Connection closed after " + done + " of " + m_latencies.length);
+                }
+            }
+            catch (IOException ex)
+            {
+                m_error = ex;
+            }
+        }
+    }
+    
+    /*
+     * Latency at a percentile of the sorted latencies, in microseconds.
+     */
+    private static double
+    percentile(long[] latencies, double percent)
+    {
+        int  index = (int) Math.ceil(percent / 100 * latencies.length) - 1;
+        return latencies[Math.max(index, 0)] / 1000.0;
+    }
+    
+    /**
+     * Runs from the command line:<br>
+     * LoadClient [-port N | -socket PATH] [-rate N] [-seconds N] [-connections N] [-lines N] [-players N]
+     */
+    public static void
+    main(String... args)
+    {
+        try
+        {
+            int     players     = 2;
+            String  socket      = null;
+            int     port        = HandServer.DefaultPort;
+            double  rate        = 10000;
+            double  seconds     = 10;
+            int     connections = 4;
+            int     lines       = 1;
+            
+            for (int arg = 0; arg < args.length; ++arg)
+            {
+                String  option = args[arg];
+                if ("-port".equals(option) && arg + 1 < args.length)
+                {
+                    port = Integer.parseInt(args[++arg]);
+                }
+                else if ("-socket".equals(option) && arg + 1 < args.length)
+                {
+                    socket = args[++arg];
+                }
+                else if ("-rate".equals(option) && arg + 1 < args.length)
+                {
+                    rate = Double.parseDouble(args[++arg]);
+                }
+                else if ("-seconds".equals(option) && arg + 1 < args.length)
+                {
+                    seconds = Double.parseDouble(args[++arg]);
+                }
+                else if ("-connections".equals(option) && arg + 1 < args.length)
+                {
+                    connections = Integer.parseInt(args[++arg]);
+                }
+                else if ("-lines".equals(option) && arg + 1 < args.length)
+                {
+                    lines = Integer.parseInt(args[++arg]);
+                }
+                else if ("-players".equals(option) && arg + 1 < args.length)
+                {
+                    players = Integer.parseInt(args[++arg]);
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+            }
+            if (!(rate > 0 && seconds > 0) || connections < 1 || lines < 1 || players < 2
+                || players * Hand.Size > Card.DeckSize)
+            {
+                throw new PokerException("Invalid options");
+            }
+            if (rate * seconds < connections)
+            {
+                // each connection must send at least one request for there to be latencies
+                throw new PokerException("Fewer requests than connections: " + (long) (rate * seconds));
+            }
+            
+            LoadClient  client = new LoadClient(players, 1);
+            client.m_socket      = socket;
+            client.m_port        = port;
+            client.m_rate        = rate;
+            client.m_seconds     = seconds;
+            client.m_connections = connections;
+            client.m_perRequest  = lines;
+            
+            long[]  latencies = client.run();
+            System.out.println(String.format("Requests %d at %.0f/s of %d lines over %d connections",
+                                             latencies.length, rate, lines, connections));
+            System.out.println(String.format("Latency us: p50 %.1f p90 %.1f p99 %.1f p99.9 %.1f max %.1f",
+                                             percentile(latencies, 50), percentile(latencies, 90),
+                                             percentile(latencies, 99), percentile(latencies, 99.9),
+                                             percentile(latencies, 100)));
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+/**
+ * @author Andrew
+ * 
+ * Table driven evaluator giving the same packed rank as HandRank in a few array reads.<br>
+ * Every number has a key chosen so that the sum of the keys of five cards is different for every possible set of
+ * numbers (no more than four of any number), which makes the sum a perfect hash into a table of ranks. Flushes
+ * can only occur with five different numbers so they have their own table indexed by the mask of numbers.<br>
+ * The tables are built from HandRank when the class is first used, which takes a few milliseconds.
+ */
+public final class LookupTable
+{
+    // found by a greedy search for the smallest increasing keys giving unique sums
+    private static final int[]  Keys = { 0, 1, 5, 22, 94, 312, 992, 2422, 5624, 12522, 19998, 43258, 79415 };
+    
+    private static final int  NumberCount = Keys.length;
+    
+    // indexed by the sum of keys - sized so that even five cards with the same number stay in range
+    private static final int[]  Ranks   = new int[Hand.Size * Keys[NumberCount - 1] + 1];
+    
+    // indexed by the mask of numbers, only filled where there are five numbers
+    private static final int[]  Flushes = new int[1 << NumberCount];
+    
+    static
+    {
+        build();
+    }
+    
+    private
+    LookupTable()
+    {
+        // static functions only
+    }
+    
+    /**
+     * Evaluates five consecutive cards of an array, which need not be sorted but must all be different.
+     * @param cards   Array holding the cards
+     * @param offset  Index of the first of the five cards
+     * @return packed rank identical to HandRank.evaluate
+     */
+    public static int
+    evaluate(Card[] cards, int offset)
+    {
+        int  key    = 0;
+        int  mask   = 0;
+        int  suites = 0;
+        
+        for (int i = offset; i < offset + Hand.Size; ++i)
+        {
+            int  number = cards[i].m_number.ordinal();
+            
+            key    += Keys[number];
+            mask   |= 1 << number;
+            suites |= 1 << cards[i].m_suite.ordinal();
+        }
+        
+        if (Integer.bitCount(suites) == 1)
+        {
+            return Flushes[mask];
+        }
+        return Ranks[key];
+    }
+    
+    /**
+     * Evaluates five consecutive primitive card codes of an array, which need not be sorted but must all be different.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return packed rank identical to HandRank.evaluate
+     */
+    public static int
+    evaluate(int[] codes, int offset)
+    {
+        int  key    = 0;
+        int  mask   = 0;
+        int  suites = 0;
+        
+        for (int i = offset; i < offset + Hand.Size; ++i)
+        {
+            int  number = codes[i] >>> Card.SuiteBits;
+            
+            key    += Keys[number];
+            mask   |= 1 << number;
+            suites |= 1 << (codes[i] & Card.SuiteMask);
+        }
+        
+        if (Integer.bitCount(suites) == 1)
+        {
+            return Flushes[mask];
+        }
+        return Ranks[key];
+    }
+    
+    /*
+     * Copy of the keys of each number ordinal, for evaluators working from the same tables.
+     */
+    static int[]
+    keys()
+    {
+        return Keys.clone();
+    }
+    
+    /*
+     * The table of ranks by sum of keys followed by the table of flushes, which starts at flushOffset, so that a
+     * hand is a single read from one table whether it is a flush or not.
+     */
+    static int[]
+    combined()
+    {
+        int[]  table = new int[Ranks.length + Flushes.length];
+        System.arraycopy(Ranks, 0, table, 0, Ranks.length);
+        System.arraycopy(Flushes, 0, table, Ranks.length, Flushes.length);
+        return table;
+    }
+    
+    /*
+     * Index of the flush of a mask of numbers of 0 in the combined table.
+     */
+    static int
+    flushOffset()
+    {
+        return Ranks.length;
+    }
+    
+    /*
+     * Fills the tables by running HandRank over every set of five numbers, in ascending order so that
+     * each set is visited once.
+     */
+    private static void
+    build()
+    {
+        for (int a = 0; a < NumberCount; ++a)
+        for (int b = a; b < NumberCount; ++b)
+        for (int c = b; c < NumberCount; ++c)
+        for (int d = c; d < NumberCount; ++d)
+        for (int e = d; e < NumberCount; ++e)
+        {
+            // five of a number is impossible
+            if (a == e)
+            {
+                continue;
+            }
+            
+            int   mask   = 1 << a | 1 << b | 1 << c | 1 << d | 1 << e;
+            long  counts = 0;
+            for (int number : new int[] { a, b, c, d, e })
+            {
+                counts += 1L << (number * HandRank.NumberBits);
+            }
+            
+            int  key = Keys[a] + Keys[b] + Keys[c] + Keys[d] + Keys[e];
+            
+            // Assertion because this means the keys are wrong
+            assert Ranks[key] == 0;
+            Ranks[key] = HandRank.evaluate(mask, counts, false);
+            
+            if (Integer.bitCount(mask) == Hand.Size)
+            {
+                Flushes[mask] = HandRank.evaluate(mask, counts, true);
+            }
+        }
+    }
+    
+    /*
+     * Self check - compares every one of the 2,598,960 possible hands with the reference evaluator.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing LookupTable");
+        try
+        {
+            Card[]  deck = new Card[Suite.values().length * NumberCount];
+            {
+                int  i = 0;
+                for (Number number : Number.values())
+                {
+                    for (Suite suite : Suite.values())
+                    {
+                        deck[i++] = new Card(suite, number);
+                    }
+                }
+            }
+            
+            // deck is in code order so the indices are the codes
+            Card[]  cards = new Card[Hand.Size];
+            int[]   codes = new int[Hand.Size];
+            int     hands = 0;
+            
+            for (int a = 0; a < deck.length; ++a)
+            for (int b = a + 1; b < deck.length; ++b)
+            for (int c = b + 1; c < deck.length; ++c)
+            for (int d = c + 1; d < deck.length; ++d)
+            for (int e = d + 1; e < deck.length; ++e)
+            {
+                cards[0] = deck[a];
+                cards[1] = deck[b];
+                cards[2] = deck[c];
+                cards[3] = deck[d];
+                cards[4] = deck[e];
+                
+                codes[0] = a;
+                codes[1] = b;
+                codes[2] = c;
+                codes[3] = d;
+                codes[4] = e;
+                
+                int  expect = HandRank.evaluate(cards, 0);
+                int  actual = evaluate(cards, 0);
+                if (actual != expect || evaluate(codes, 0) != expect)
+                {
+                    throw new PokerException("Mismatch for " + new Hand(cards) + ": " + Evaluation.decode(actual));
+                }
+                hands++;
+            }
+            
+            System.out.println("\nChecked " + hands + " hands");
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
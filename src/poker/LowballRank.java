@@ -0,0 +1,147 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+/**
+ * @author Andrew
+ *
+ * Evaluates the best five of five to seven cards under Rules.LOWBALL, ace to five lowball, where the lowest hand
+ * wins, the ace is always low and straights and flushes do not count.<br>
+ * The suite masks are rotated so the ace is the lowest bit, then as in SevenCardRank the numbers held by two, three
+ * and four suites are found with bitwise operations. With five or more different numbers the best hand is the five
+ * lowest with no pair. Otherwise every different number is used once and the fewest, lowest duplicates are added.
+ * <br>
+ * The kind field is from the order of Rules.LOWBALL and each number is packed as 12 less its value counting the ace
+ * as 0, largest group first and then worst first, so the best low hand has the highest rank.
+ */
+public final class LowballRank
+{
+    private static final int  NumberMask = (1 << Number.values().length) - 1;
+    private static final int  Ace        = Number.ACE.ordinal();
+    
+    private static final int  HighCard     = Rules.LOWBALL.kindCode(HandRank.HighCard) << HandRank.KindShift;
+    private static final int  OnePair      = Rules.LOWBALL.kindCode(HandRank.OnePair) << HandRank.KindShift;
+    private static final int  TwoPairs     = Rules.LOWBALL.kindCode(HandRank.TwoPairs) << HandRank.KindShift;
+    private static final int  ThreeOfAKind = Rules.LOWBALL.kindCode(HandRank.ThreeOfAKind) << HandRank.KindShift;
+    private static final int  FullHouse    = Rules.LOWBALL.kindCode(HandRank.FullHouse) << HandRank.KindShift;
+    private static final int  FourOfAKind  = Rules.LOWBALL.kindCode(HandRank.FourOfAKind) << HandRank.KindShift;
+    
+    private
+    LowballRank()
+    {
+        // static functions only
+    }
+    
+    /**
+     * Evaluates five consecutive primitive card codes of an array.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return packed rank under Rules.LOWBALL
+     */
+    public static int
+    evaluate(int[] codes, int offset)
+    {
+        return evaluate(SevenCardRank.suites(codes, offset, Hand.Size));
+    }
+    
+    /**
+     * Evaluates five to seven different cards.
+     * @param suites  Masks of numbers per suite from SevenCardRank.suites, combined with or
+     * @return packed rank of the best five cards under Rules.LOWBALL
+     */
+    public static int
+    evaluate(long suites)
+    {
+        int  a = low((int) suites);
+        int  b = low((int) (suites >>> SevenCardRank.SuiteBits));
+        int  c = low((int) (suites >>> 2 * SevenCardRank.SuiteBits));
+        int  d = low((int) (suites >>> 3 * SevenCardRank.SuiteBits));
+        
+        int  any   = a | b | c | d;
+        int  two   = (a & b) | (a & c) | (a & d) | (b & c) | (b & d) | (c & d);
+        int  three = (a & b & c) | (a & b & d) | (a & c & d) | (b & c & d);
+        
+        switch (Integer.bitCount(any))
+        {
+            case 4:
+            {
+                int  pair = Integer.lowestOneBit(two);
+                return OnePair | highest(any ^ pair, 3, repeat(pair, 2, 0));
+            }
+            case 3:
+            {
+                int  pair = Integer.lowestOneBit(two);
+                int  rest = two ^ pair;
+                if (rest != 0)
+                {
+                    int  high = Integer.lowestOneBit(rest);
+                    return TwoPairs | highest(any ^ pair ^ high, 1, repeat(pair, 2, repeat(high, 2, 0)));
+                }
+                return ThreeOfAKind | highest(any ^ pair, 2, repeat(pair, 3, 0));
+            }
+            case 2:
+            {
+                // the lowest three which leaves a pair, else four with the other as kicker
+                for (int m = three; m != 0; m ^= Integer.lowestOneBit(m))
+                {
+                    int  trips = Integer.lowestOneBit(m);
+                    if ((two & ~trips) != 0)
+                    {
+                        return FullHouse | repeat(any ^ trips, 2, repeat(trips, 3, 0));
+                    }
+                }
+                int  quad = Integer.lowestOneBit(three);
+                return FourOfAKind | repeat(any ^ quad, 1, repeat(quad, 4, 0));
+            }
+            default:
+            {
+                // the five lowest different numbers
+                int  five = any;
+                while (Integer.bitCount(five) > Hand.Size)
+                {
+                    five ^= Integer.highestOneBit(five);
+                }
+                return HighCard | highest(five, 5, 0);
+            }
+        }
+    }
+    
+    /*
+     * Rotates a mask of numbers so the ace is bit 0 and the king bit 12.
+     */
+    private static int
+    low(int mask)
+    {
+        return (mask << 1 | mask >>> Ace & 1) & NumberMask;
+    }
+    
+    /*
+     * Appends a number, as a single bit of a low mask, to packed numbers a number of times.
+     */
+    private static int
+    repeat(int bit, int times, int packed)
+    {
+        int  number = Ace - Integer.numberOfTrailingZeros(bit);
+        for (int i = 0; i < times; ++i)
+        {
+            packed = packed << HandRank.NumberBits | number;
+        }
+        return packed;
+    }
+    
+    /*
+     * Appends the highest numbers in a low mask, worst first, to packed numbers.
+     */
+    private static int
+    highest(int mask, int count, int packed)
+    {
+        for (int i = 0; i < count; ++i)
+        {
+            int  bit = Integer.highestOneBit(mask);
+            packed = repeat(bit, 1, packed);
+            mask ^= bit;
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,517 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * @author Andrew
+ *
+ * Estimates the Hold'em equity of a player's hole cards against a number of opponents with unknown cards,
+ * optionally with some of the board already known, by dealing random rollouts and ranking them with SevenCardRank.<br>
+ * Each thread has its own random generator, deck and totals, which are only added together once all threads have
+ * finished, so the threads share nothing while running and scale with the number of cores.<br>
+ * A run stops after a number of trials or a time limit, whichever comes first, and reports a confidence interval
+ * so callers can trade accuracy for speed.
+ */
+public class MonteCarlo
+{
+    // trials between checks of the time limit
+    private static final int  CheckInterval = 1024;
+    
+    // 95% confidence
+    private static final double  Z = 1.96;
+    
+    private final long   m_holeMask;       // suite masks as from SevenCardRank.suites
+    private final long   m_boardMask;
+    private final int    m_boardMissing;   // board cards still to be dealt
+    private final int    m_opponents;
+    private final int[]  m_deck;           // codes of the cards not known
+    
+    private  int               m_threads = Runtime.getRuntime().availableProcessors();
+    private  SplittableRandom  m_seeds   = new SplittableRandom();    // seeds of each thread of each run
+    
+    /**
+     * @param hole       The player's two hole cards
+     * @param board      Known board cards, from none to five
+     * @param opponents  Number of opponents, whose cards are unknown
+     * @throws PokerException if the numbers of cards are wrong or a card appears twice
+     */
+    public
+    MonteCarlo(int[] hole, int[] board, int opponents)
+        throws PokerException
+    {
+        if (hole.length != SevenCardRank.HoleCards)
+        {
+            throw new PokerException("Hole cards " + hole.length);
+        }
+        if (board.length > Hand.Size)
+        {
+            throw new PokerException("Board cards " + board.length);
+        }
+        
+        m_holeMask     = SevenCardRank.suites(hole, 0, hole.length);
+        m_boardMask    = SevenCardRank.suites(board, 0, board.length);
+        m_boardMissing = Hand.Size - board.length;
+        m_opponents    = opponents;
+        m_deck         = remaining(hole, board);
+        
+        if (opponents < 1 || m_boardMissing + opponents * SevenCardRank.HoleCards > m_deck.length)
+        {
+            throw new PokerException("Invalid opponents " + opponents);
+        }
+    }
+    
+    /**
+     * @param threads  Number of threads to run trials on, by default the number of processors
+     * @throws PokerException if there are no threads
+     */
+    public void
+    setThreads(int threads)
+        throws PokerException
+    {
+        if (threads < 1)
+        {
+            throw new PokerException("Invalid threads " + threads);
+        }
+        m_threads = threads;
+    }
+    
+    /**
+     * Seeds the trials of the runs from now on, so that runs of a number of trials with no time limit on the same
+     * number of threads repeat exactly. By default they are seeded differently every time.
+     * @param seed  Seed of the random cards
+     */
+    public void
+    setSeed(long seed)
+    {
+        m_seeds = new SplittableRandom(seed);
+    }
+    
+    /**
+     * Runs trials until either limit is reached. Each thread runs at least one trial, so the time limit cannot leave
+     * the results empty.
+     * @param trials  Maximum number of trials, at least one
+     * @param millis  Maximum time in milliseconds, 0 for no limit
+     * @return results of all the trials
+     * @throws InterruptedException
+     * @throws PokerException if the number of trials or the time is out of range
+     */
+    public Result
+    run(long trials, long millis)
+        throws InterruptedException, PokerException
+    {
+        if (trials < 1 || millis < 0)
+        {
+            throw new PokerException("Invalid trials " + trials + " in " + millis + "ms");
+        }
+        
+        long  deadline = millis > 0 ? System.nanoTime() + millis * 1000000L : Long.MAX_VALUE;
+        
+        ArrayList<Worker>   workers = new ArrayList<Worker>();
+        ArrayList<Thread>   threads = new ArrayList<Thread>();
+        
+        for (int i = 0; i < m_threads; ++i)
+        {
+            // spread the trials as evenly as possible
+            long    share  = trials / m_threads + (i < trials % m_threads ? 1 : 0);
+            Worker  worker = new Worker(m_seeds.nextLong(), share, deadline);
+            Thread  thread = new Thread(worker, "MonteCarlo-" + i);
+            
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        
+        Result  result = new Result();
+        for (int i = 0; i < m_threads; ++i)
+        {
+            threads.get(i).join();
+            result.add(workers.get(i).m_result);
+        }
+        return result;
+    }
+    
+    /*
+     * Codes of all the cards not in either array.
+     */
+    static int[]
+    remaining(int[] hole, int[] board)
+        throws PokerException
+    {
+        long  used = 0;
+        for (int[] cards : new int[][] { hole, board })
+        {
+            for (int code : cards)
+            {
+                Card  card = Card.valueOf(code);
+                if ((used & 1L << code) != 0)
+                {
+                    throw new PokerException("Card appears twice: " + card);
+                }
+                used |= 1L << code;
+            }
+        }
+        
+        int[]  deck = new int[Card.DeckSize - Long.bitCount(used)];
+        int    n    = 0;
+        for (int code = 0; code < Card.DeckSize; ++code)
+        {
+            if ((used & 1L << code) == 0)
+            {
+                deck[n++] = code;
+            }
+        }
+        return deck;
+    }
+    
+    /**
+     * Totals of a set of trials. Equity counts a win as 1 and a tie shared between n players as 1/n.
+     */
+    public static class Result
+    {
+        private  long    m_trials;
+        private  long    m_wins;
+        private  long    m_ties;
+        private  double  m_equity;     // sum of the equity of each trial
+        private  double  m_squares;    // sum of the squares, for the variance
+        
+        void
+        add(Result other)
+        {
+            m_trials  += other.m_trials;
+            m_wins    += other.m_wins;
+            m_ties    += other.m_ties;
+            m_equity  += other.m_equity;
+            m_squares += other.m_squares;
+        }
+        
+        public long
+        getTrials()
+        {
+            return m_trials;
+        }
+        
+        public double
+        getWin()
+        {
+            return (double) m_wins / m_trials;
+        }
+        
+        public double
+        getTie()
+        {
+            return (double) m_ties / m_trials;
+        }
+        
+        public double
+        getLose()
+        {
+            return (double) (m_trials - m_wins - m_ties) / m_trials;
+        }
+        
+        public double
+        getEquity()
+        {
+            return m_equity / m_trials;
+        }
+        
+        /**
+         * @return half the width of the 95% confidence interval of the equity
+         */
+        public double
+        getError()
+        {
+            double  mean     = getEquity();
+            double  variance = Math.max(m_squares / m_trials - mean * mean, 0);
+            return Z * Math.sqrt(variance / m_trials);
+        }
+        
+        @Override
+        public String
+        toString()
+        {
+            return String.format("Trials %d: win %.4f tie %.4f lose %.4f equity %.4f +/- %.4f",
+                                 m_trials, getWin(), getTie(), getLose(), getEquity(), getError());
+        }
+    }
+    
+    /*
+     * Runs trials on a single thread with its own copy of the deck.
+     */
+    private final class Worker
+        implements Runnable
+    {
+        private final int[]   m_cards = m_deck.clone();
+        private final long    m_trials;
+        private final long    m_deadline;
+        private final Result  m_result = new Result();
+        
+        private  long  m_seed;
+        
+        Worker(long seed, long trials, long deadline)
+        {
+            m_seed     = seed != 0 ? seed : 1;   // xorshift never leaves zero
+            m_trials   = trials;
+            m_deadline = deadline;
+        }
+        
+        @Override
+        public void
+        run()
+        {
+            long  trial = 0;
+            while (trial < m_trials)
+            {
+                if (trial % CheckInterval == 0 && trial > 0 && System.nanoTime() >= m_deadline)
+                {
+                    break;
+                }
+                
+                // deal the board and then the opponents from the front of the deck
+                int   dealt = 0;
+                long  board = m_boardMask;
+                for (int i = 0; i < m_boardMissing; ++i)
+                {
+                    board |= card(dealt++);
+                }
+                
+                int  hero = SevenCardRank.evaluate(board | m_holeMask);
+                int  best = 0;
+                int  tied = 0;
+                for (int p = 0; p < m_opponents; ++p)
+                {
+                    long  hole = board;
+                    for (int i = 0; i < SevenCardRank.HoleCards; ++i)
+                    {
+                        hole |= card(dealt++);
+                    }
+                    
+                    int  rank = SevenCardRank.evaluate(hole);
+                    if (rank > best)
+                    {
+                        best = rank;
+                        tied = 1;
+                    }
+                    else if (rank == best)
+                    {
+                        tied++;
+                    }
+                }
+                
+                double  equity;
+                if (hero > best)
+                {
+                    m_result.m_wins++;
+                    equity = 1;
+                }
+                else if (hero == best)
+                {
+                    m_result.m_ties++;
+                    equity = 1.0 / (tied + 1);
+                }
+                else
+                {
+                    equity = 0;
+                }
+                m_result.m_equity  += equity;
+                m_result.m_squares += equity * equity;
+                
+                trial++;
+            }
+            m_result.m_trials = trial;
+        }
+        
+        /*
+         * Swaps a random card from the rest of the deck into a position and returns it as a suite mask.
+         * Swapping leaves the deck a permutation of the unknown cards, so it never needs resetting.
+         */
+        private long
+        card(int position)
+        {
+            int  j    = position + bound(m_cards.length - position);
+            int  code = m_cards[j];
+            m_cards[j] = m_cards[position];
+            m_cards[position] = code;
+            
+            return SevenCardRank.suites(code);
+        }
+        
+        /*
+         * xorshift64* generator, scaled to a number from 0 to bound - 1.
+         */
+        private int
+        bound(int bound)
+        {
+            m_seed ^= m_seed >>> 12;
+            m_seed ^= m_seed << 25;
+            m_seed ^= m_seed >>> 27;
+            long  random = (m_seed * 0x2545F4914F6CDD1DL) >>> 32;
+            return (int) ((random * bound) >>> 32);
+        }
+    }
+    
+    /**
+     * Runs from the command line:<br>
+     * MonteCarlo [-trials N] [-millis N] [-threads N] "hole cards" "board cards" opponents<br>
+     * With no arguments, runs a self check.
+     */
+    public static void
+    main(String... args)
+    {
+        if (args.length == 0)
+        {
+            check();
+            return;
+        }
+        
+        try
+        {
+            long  trials  = 1000000;
+            long  millis  = 0;
+            int   threads = Runtime.getRuntime().availableProcessors();
+            
+            int  arg = 0;
+            while (arg < args.length - 1 && args[arg].startsWith("-"))
+            {
+                String  option = args[arg++];
+                long    value  = Long.parseLong(args[arg++]);
+                
+                if ("-trials".equals(option))
+                {
+                    trials = value;
+                }
+                else if ("-millis".equals(option))
+                {
+                    millis = value;
+                }
+                else if ("-threads".equals(option))
+                {
+                    threads = (int) value;
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+            }
+            
+            if (args.length - arg != 3)
+            {
+                throw new PokerException("Usage: MonteCarlo [options] \"hole cards\" \"board cards\" opponents");
+            }
+            
+            MonteCarlo  monteCarlo = new MonteCarlo(codes(args[arg]), codes(args[arg + 1]),
+                                                    Integer.parseInt(args[arg + 2]));
+            monteCarlo.setThreads(threads);
+            
+            long    start  = System.nanoTime();
+            Result  result = monteCarlo.run(trials, millis);
+            
+            System.out.println(result);
+            System.out.println("Time " + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Self check - the equity against one opponent on flops and turns, from seeded trials which repeat exactly, must
+     * be within the confidence interval, with a little to spare, of the exact equity from ExactEquity.
+     */
+    private static void
+    check()
+    {
+        System.out.println("Testing MonteCarlo");
+        try
+        {
+            String[][]  cases = {
+                { "AH AD", "KS KC 2D" }, { "7S 6S", "5S 4D KH" }, { "AC KD", "QH JH 2S" }, { "2C 7D", "AS KS QS JS" },
+                { "9H 9D", "TC 8C 3H 3S" } };
+            for (String[] c : cases)
+            {
+                int[]  hole  = codes(c[0]);
+                int[]  board = codes(c[1]);
+                
+                ExactEquity  equity = new ExactEquity(new int[][] { hole }, board, new int[0], true);
+                double       exact  = equity.run().getEquity(0);
+                MonteCarlo   trials = seeded(hole, board);
+                Result       result = trials.run(400000, 0);
+                
+                System.out.println(String.format("%s on %-12s %s exact %.4f", c[0], c[1], result, exact));
+                if (Math.abs(result.getEquity() - exact) > 1.5 * result.getError() + 0.001)
+                {
+                    throw new PokerException("Equity of " + c[0] + " on " + c[1] + " is not " + exact);
+                }
+                if (seeded(hole, board).run(400000, 0).getEquity() != result.getEquity())
+                {
+                    throw new PokerException("Seeded run of " + c[0] + " on " + c[1] + " did not repeat");
+                }
+            }
+            
+            try
+            {
+                new MonteCarlo(codes("AH AD"), new int[0], 1).setThreads(0);
+                throw new PokerException("Ran on no threads");
+            }
+            catch (PokerException ex)
+            {
+                if (ex.getMessage().startsWith("Ran"))
+                {
+                    throw ex;
+                }
+            }
+            
+            try
+            {
+                new MonteCarlo(codes("AH AD"), new int[0], 1).run(0, 0);
+                throw new PokerException("Ran no trials");
+            }
+            catch (PokerException ex)
+            {
+                if (ex.getMessage().startsWith("Ran"))
+                {
+                    throw ex;
+                }
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException | InterruptedException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Trials for the self check, on a fixed seed and number of threads so that it runs the same everywhere.
+     */
+    private static MonteCarlo
+    seeded(int[] hole, int[] board)
+        throws PokerException
+    {
+        MonteCarlo  monteCarlo = new MonteCarlo(hole, board, 1);
+        monteCarlo.setThreads(2);
+        monteCarlo.setSeed(1);
+        return monteCarlo;
+    }
+    
+    /*
+     * Parses cards into codes.
+     */
+    static int[]
+    codes(String s)
+        throws PokerException
+    {
+        ArrayList<Card>  cards = Card.parseString(s, true);
+        int[]            codes = new int[cards.size()];
+        for (int i = 0; i < codes.length; ++i)
+        {
+            codes[i] = cards.get(i).code();
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * A five card hand which can be reset with new cards, so one object can be reused for every hand processed and
+ * nothing is allocated per hand.<br>
+ * The cards are sorted by a fixed network of 9 compare and swaps, the fewest for five elements, which has no
+ * loops or data dependent branches, rather than by Arrays.sort. They are then packed and ranked as for Hand, and a
+ * Hand can be made from the current cards when an immutable copy is needed.
+ */
+public final class MutableHand
+    implements Comparable<MutableHand>
+{
+    private final int[]  m_codes = new int[Hand.Size];
+    
+    private  long   m_cards;
+    private  int    m_rank;
+    private  Rules  m_rules;
+    
+    /**
+     * Replaces the cards with five primitive codes, which are not checked to be valid cards.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return this hand
+     * @throws IllegalArgumentException if a code is repeated, which the evaluators cannot rank
+     */
+    public MutableHand
+    reset(int[] codes, int offset)
+    {
+        for (int i = 0; i < Hand.Size; ++i)
+        {
+            m_codes[i] = codes[offset + i];
+        }
+        return init();
+    }
+    
+    /**
+     * Replaces the cards.
+     * @param cards   Array holding the cards
+     * @param offset  Index of the first of the five cards
+     * @return this hand
+     * @throws IllegalArgumentException if a card is repeated, which the evaluators cannot rank
+     */
+    public MutableHand
+    reset(Card[] cards, int offset)
+    {
+        for (int i = 0; i < Hand.Size; ++i)
+        {
+            m_codes[i] = cards[offset + i].code();
+        }
+        return init();
+    }
+    
+    private MutableHand
+    init()
+    {
+        sort(m_codes, 0);
+        int  repeated = repeated(m_codes, 0);
+        if (repeated >= 0)
+        {
+            throw new IllegalArgumentException("Repeated card: " + Card.get(repeated));
+        }
+        m_cards = pack(m_codes, 0);
+        Evaluator  evaluator = Hand.getEvaluator();
+        m_rank  = evaluator.evaluate(m_codes, 0);
+        m_rules = evaluator.getRules();
+        return this;
+    }
+    
+    /**
+     * Sorts five codes in place with a sorting network.
+     * @param codes   Array holding the codes
+     * @param offset  Index of the first of the five codes
+     */
+    public static void
+    sort(int[] codes, int offset)
+    {
+        compareSwap(codes, offset, 0, 1);
+        compareSwap(codes, offset, 3, 4);
+        compareSwap(codes, offset, 2, 4);
+        compareSwap(codes, offset, 2, 3);
+        compareSwap(codes, offset, 1, 4);
+        compareSwap(codes, offset, 0, 3);
+        compareSwap(codes, offset, 0, 2);
+        compareSwap(codes, offset, 1, 3);
+        compareSwap(codes, offset, 1, 2);
+    }
+    
+    /**
+     * @param codes   Array holding sorted codes
+     * @param offset  Index of the first of the five codes
+     * @return a code which is repeated, or -1 if they are all different
+     */
+    static int
+    repeated(int[] codes, int offset)
+    {
+        for (int i = 1; i < Hand.Size; ++i)
+        {
+            if (codes[offset + i - 1] == codes[offset + i])
+            {
+                return codes[offset + i];
+            }
+        }
+        return -1;
+    }
+    
+    private static void
+    compareSwap(int[] codes, int offset, int i, int j)
+    {
+        int  a = codes[offset + i];
+        int  b = codes[offset + j];
+        codes[offset + i] = Math.min(a, b);
+        codes[offset + j] = Math.max(a, b);
+    }
+    
+    /**
+     * @param codes   Array holding sorted codes
+     * @param offset  Index of the first of the five codes
+     * @return codes packed into a long, the first in the lowest bits
+     */
+    static long
+    pack(int[] codes, int offset)
+    {
+        long  cards = 0;
+        for (int i = Hand.Size - 1; i >= 0; --i)
+        {
+            cards = cards << Card.CodeBits | codes[offset + i];
+        }
+        return cards;
+    }
+    
+    /**
+     * @return codes of the cards packed as for Hand, lowest card in the lowest bits
+     */
+    public long
+    getCards()
+    {
+        return m_cards;
+    }
+    
+    /**
+     * @param i  Position from 0 for the lowest card to 4 for the highest
+     * @return primitive code of the card
+     */
+    public int
+    getCode(int i)
+    {
+        return m_codes[i];
+    }
+    
+    /**
+     * @return packed rank from HandRank - a higher rank is a better hand
+     */
+    public int
+    getRank()
+    {
+        return m_rank;
+    }
+    
+    /**
+     * @return evaluation decoded from the rank under the Rules of the evaluator which ranked the cards when they were
+     * last reset, which is a new object
+     */
+    public Evaluation
+    getEvaluation()
+    {
+        return m_rules.decode(m_rank);
+    }
+    
+    /**
+     * @return immutable copy of the current cards
+     */
+    public Hand
+    toHand()
+    {
+        return new Hand(m_cards, m_rank, m_rules);
+    }
+    
+    @Override
+    public int
+    compareTo(MutableHand other)
+    {
+        return Integer.compare(m_rank, other.m_rank);
+    }
+    
+    @Override
+    public String
+    toString()
+    {
+        StringBuilder  buf = new StringBuilder();
+        
+        for (int i = 0; i < Hand.Size; ++i)
+        {
+            buf.append(Card.get(m_codes[i])).append(' ');
+        }
+        buf.append(getEvaluation());
+        return buf.toString();
+    }
+    
+    /*
+     * Self check - the network must sort every pattern of zeros and ones, a reused hand must match new Hands for
+     * random cards, and a hand must keep decoding under the Rules it was ranked by after the evaluator changes.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing MutableHand");
+        try
+        {
+            // by the zero one principle, sorting all 32 patterns of zeros and ones proves it sorts anything
+            int[]  codes = new int[Hand.Size];
+            for (int pattern = 0; pattern < 1 << Hand.Size; ++pattern)
+            {
+                for (int i = 0; i < Hand.Size; ++i)
+                {
+                    codes[i] = pattern >>> i & 1;
+                }
+                sort(codes, 0);
+                for (int i = 1; i < Hand.Size; ++i)
+                {
+                    if (codes[i - 1] > codes[i])
+                    {
+                        throw new PokerException("Not sorted: " + Integer.toBinaryString(pattern));
+                    }
+                }
+            }
+            System.out.println("\nSorted all patterns of zeros and ones");
+            
+            Random       random = new Random(1);
+            MutableHand  hand   = new MutableHand();
+            for (int n = 0; n < 1000000; ++n)
+            {
+                long  used = 0;
+                for (int i = 0; i < Hand.Size; ++i)
+                {
+                    do
+                    {
+                        codes[i] = random.nextInt(Card.DeckSize);
+                    }
+                    while ((used & 1L << codes[i]) != 0);
+                    used |= 1L << codes[i];
+                }
+                
+                Hand  expect = Hand.fromCodes(codes, 0);
+                hand.reset(codes, 0);
+                for (int i = 0; i < Hand.Size; ++i)
+                {
+                    if (hand.getCode(i) != expect.getCode(i))
+                    {
+                        throw new PokerException("Wrong order " + hand + " expected " + expect);
+                    }
+                }
+                if (hand.getRank() != expect.getRank() || !hand.toString().equals(expect.toString()))
+                {
+                    throw new PokerException("Wrong rank " + hand + " expected " + expect);
+                }
+            }
+            System.out.println("Checked 1000000 random hands");
+            
+            try
+            {
+                hand.reset(new int[] { 0, 1, 2, 1, 3 }, 0);
+                throw new PokerException("Repeated card ranked: " + hand);
+            }
+            catch (IllegalArgumentException ex)
+            {
+                System.out.println("Rejected: " + ex.getMessage());
+            }
+            
+            // a straight under Rules.STANDARD is only a high card under LOWBALL
+            Card[]     cards    = Card.parseString("9S TD JC QH KD").toArray(new Card[Hand.Size]);
+            Evaluator  selected = Hand.getEvaluator();
+            String     straight = hand.reset(cards, 0).getEvaluation().toString();
+            Hand.setEvaluator(Evaluator.forRules(Rules.LOWBALL));
+            try
+            {
+                if (!hand.getEvaluation().toString().equals(straight) || !hand.toString().endsWith(straight))
+                {
+                    throw new PokerException("Decoded under LOWBALL: " + hand + " expected " + straight);
+                }
+                String  lowball = hand.reset(cards, 0).getEvaluation().toString();
+                if (lowball.equals(straight))
+                {
+                    throw new PokerException("Not ranked under LOWBALL: " + hand);
+                }
+                System.out.println("Kept " + straight + " after selecting LOWBALL, then ranked " + lowball);
+            }
+            finally
+            {
+                Hand.setEvaluator(selected);
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
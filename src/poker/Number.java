@@ -18,6 +18,19 @@ public enum Number
     
     public final Character  m_code;
     
+    // indexed by character, null where a character is not a valid code
+    private static final Number[]  ByCode           = new Number[128];
+    private static final Number[]  ByCodeIgnoreCase = new Number[128];
+    static
+    {
+        for (Number s : Number.values())
+        {
+            ByCode[s.m_code] = s;
+            ByCodeIgnoreCase[Character.toUpperCase(s.m_code)] = s;
+            ByCodeIgnoreCase[Character.toLowerCase(s.m_code)] = s;
+        }
+    }
+    
     Number(char  code)
     {
         m_code = code;
@@ -33,13 +46,26 @@ public enum Number
     parse(char  code)
         throws PokerException 
     {
-        for (Number s : Number.values())
+        return parse(code, false);
+    }
+    
+    /**
+     * Parses a character representing a number, optionally ignoring case.
+     * @param code        Character representing a number
+     * @param ignoreCase  Whether lower case characters are accepted as well
+     * @return matching Number object
+     * @throws PokerException if no match found
+     */
+    public static Number
+    parse(char  code, boolean ignoreCase)
+        throws PokerException 
+    {
+        Number[]  table = ignoreCase ? ByCodeIgnoreCase : ByCode;
+        Number    s     = code < table.length ? table[code] : null;
+        if (s == null)
         {
-            if (s.m_code.equals(code))
-            {
-                return s;
-            }
+            throw new PokerException("Invalid Number: " + code);
         }
-        throw new PokerException("Invalid Number: " + code);
+        return s;
     }
 }
@@ -0,0 +1,650 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Andrew
+ *
+ * Calculates the Hold'em equity of one HandRange against another, over every way of dealing the two players a
+ * combo from their ranges and completing the board with the cards left, each deal weighted by the product of the
+ * two combos' weights.<br>
+ * The boards are enumerated by Colex index as in ExactEquity when there are at most getBoards of them, so equities
+ * from the flop on are exact, otherwise that many boards are sampled. The samples are drawn in fixed chunks, each
+ * from its own seeded generator, so the result does not depend on the number of threads.<br>
+ * Rather than showing down every pair of combos on a board, each combo of either range is ranked once. The second
+ * range is sorted by rank with cumulative weights, overall and for the combos holding each card, so the weight a
+ * combo of the first range beats or ties is found with binary searches, the combos which share one of its cards
+ * being subtracted through their card's list and the identical combo, subtracted twice, added back.
+ */
+public class RangeEquity
+{
+    public static final long  DefaultBoards = 20000;
+    
+    private static final int   Chunk = 256;    // boards sampled per generator
+    private static final long  Seed  = 0x5DEECE66DL;
+    
+    private final long     m_board;      // suite masks of the known board cards
+    private final int      m_missing;    // board cards still to be dealt
+    private final int[]    m_deck;       // codes of the live cards
+    private final Combos   m_range1;
+    private final Combos   m_range2;
+    private final double[] m_same;       // weight in the second range of each combo of the first
+    
+    private  int           m_threads = Runtime.getRuntime().availableProcessors();
+    private  long          m_boards  = DefaultBoards;
+    private  ForkJoinPool  m_pool;    // kept for later runs when the common pool has another parallelism
+    
+    /**
+     * @param first   Range of the first player
+     * @param second  Range of the second player
+     * @param board   Known board cards, from none to five
+     * @param dead    Cards known not to be in play
+     * @throws PokerException if there are too many board cards, a card appears twice or a range has no live combo
+     * which can be dealt with one of the other
+     */
+    public
+    RangeEquity(HandRange first, HandRange second, int[] board, int[] dead)
+        throws PokerException
+    {
+        if (board.length > Hand.Size)
+        {
+            throw new PokerException("Board cards " + board.length);
+        }
+        
+        long  used = 0;
+        for (int[] codes : new int[][] { board, dead })
+        {
+            for (int code : codes)
+            {
+                Card  card = Card.valueOf(code);
+                if ((used & 1L << code) != 0)
+                {
+                    throw new PokerException("Card appears twice: " + card);
+                }
+                used |= 1L << code;
+            }
+        }
+        
+        m_board   = SevenCardRank.suites(board, 0, board.length);
+        m_missing = Hand.Size - board.length;
+        m_range1  = new Combos(first.without(used));
+        m_range2  = new Combos(second.without(used));
+        if (m_range1.m_count == 0 || m_range2.m_count == 0)
+        {
+            throw new PokerException("No live combos in range");
+        }
+        if (!disjoint(m_range1, m_range2))
+        {
+            throw new PokerException("No combos of the ranges can be dealt together");
+        }
+        
+        m_same = new double[m_range1.m_count];
+        for (int i = 0; i < m_same.length; ++i)
+        {
+            m_same[i] = second.getWeight(m_range1.m_combos[i]);
+        }
+        
+        m_deck = new int[Card.DeckSize - Long.bitCount(used)];
+        for (int code = 0, n = 0; code < Card.DeckSize; ++code)
+        {
+            if ((used & 1L << code) == 0)
+            {
+                m_deck[n++] = code;
+            }
+        }
+        if (m_deck.length < m_missing + 2 * SevenCardRank.HoleCards)
+        {
+            throw new PokerException("Not enough live cards");
+        }
+    }
+    
+    /*
+     * Whether some combo of one range shares no card with some combo of the other.
+     */
+    private static boolean
+    disjoint(Combos first, Combos second)
+    {
+        for (int i = 0; i < first.m_count; ++i)
+        {
+            for (int j = 0; j < second.m_count; ++j)
+            {
+                if ((first.m_cards[i] & second.m_cards[j]) == 0)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param threads  Number of threads to run on, by default the number of processors
+     * @throws PokerException if there are no threads
+     */
+    public void
+    setThreads(int threads)
+        throws PokerException
+    {
+        if (threads < 1)
+        {
+            throw new PokerException("Invalid threads " + threads);
+        }
+        m_threads = threads;
+    }
+    
+    /**
+     * @param boards  Most boards to enumerate, when there are more this many are sampled
+     * @throws PokerException if there are no boards
+     */
+    public void
+    setBoards(long boards)
+        throws PokerException
+    {
+        if (boards < 1)
+        {
+            throw new PokerException("Invalid boards " + boards);
+        }
+        m_boards = boards;
+    }
+    
+    /**
+     * @return number of boards which will be enumerated or sampled
+     */
+    public long
+    getBoards()
+    {
+        return Math.min(Colex.choose(m_deck.length, m_missing), m_boards);
+    }
+    
+    /**
+     * @return whether every possible board will be enumerated
+     */
+    public boolean
+    isExact()
+    {
+        return Colex.choose(m_deck.length, m_missing) <= m_boards;
+    }
+    
+    /**
+     * Enumerates or samples the boards, on the common pool when it has as many threads, otherwise on a pool kept
+     * for later runs on the same number.
+     * @return weighted totals for the first player
+     * @throws PokerException if every board sampled held a card of each combo of a range
+     */
+    public Result
+    run()
+        throws PokerException
+    {
+        // exact tasks split board indices, sampling tasks split chunks of boards
+        long  units = isExact() ? getBoards() : (getBoards() + Chunk - 1) / Chunk;
+        long  chunk = Math.max(units / (m_threads * 16L), 1);
+        
+        ForkJoinPool  pool = ForkJoinPool.commonPool();
+        if (m_threads != pool.getParallelism())
+        {
+            if (m_pool == null || m_pool.getParallelism() != m_threads)
+            {
+                if (m_pool != null)
+                {
+                    m_pool.shutdown();
+                }
+                m_pool = new ForkJoinPool(m_threads);
+            }
+            pool = m_pool;
+        }
+        
+        Result  result = pool.invoke(new Range(0, units, chunk));
+        if (result.m_total == 0)
+        {
+            throw new PokerException("No combos of the ranges dealt on the boards sampled");
+        }
+        return result;
+    }
+    
+    /**
+     * Totals for the first player over every deal, each weighted by the product of the two combos' weights.
+     */
+    public static class Result
+    {
+        private  long    m_boards;
+        private  double  m_wins;
+        private  double  m_ties;
+        private  double  m_total;
+        
+        void
+        add(Result other)
+        {
+            m_boards += other.m_boards;
+            m_wins   += other.m_wins;
+            m_ties   += other.m_ties;
+            m_total  += other.m_total;
+        }
+        
+        public long
+        getBoards()
+        {
+            return m_boards;
+        }
+        
+        public double
+        getWins()
+        {
+            return m_wins;
+        }
+        
+        public double
+        getTies()
+        {
+            return m_ties;
+        }
+        
+        public double
+        getTotal()
+        {
+            return m_total;
+        }
+        
+        /**
+         * @return equity of the first player, that of the second being one less this
+         */
+        public double
+        getEquity()
+        {
+            return (m_wins + m_ties / 2) / m_total;
+        }
+        
+        @Override
+        public String
+        toString()
+        {
+            return String.format("Boards %d%nPlayer 1: win %.6f tie %.6f equity %.6f%nPlayer 2: win %.6f tie %.6f "
+                                 + "equity %.6f", m_boards, m_wins / m_total, m_ties / m_total, getEquity(),
+                                 (m_total - m_wins - m_ties) / m_total, m_ties / m_total, 1 - getEquity());
+        }
+    }
+    
+    /*
+     * The live combos of a range as parallel arrays.
+     */
+    private static final class Combos
+    {
+        private final int       m_count;
+        private final int[]     m_combos;
+        private final int[][]   m_codes;     // the two card codes of each
+        private final long[]    m_cards;     // mask of the card codes of each
+        private final long[]    m_suites;    // suite masks of each, as from SevenCardRank.suites
+        private final double[]  m_weights;
+        
+        Combos(HandRange range)
+        {
+            m_count   = range.size();
+            m_combos  = new int[m_count];
+            m_codes   = new int[SevenCardRank.HoleCards][m_count];
+            m_cards   = new long[m_count];
+            m_suites  = new long[m_count];
+            m_weights = new double[m_count];
+            
+            int[]  codes = new int[SevenCardRank.HoleCards];
+            int    i     = 0;
+            for (int combo = range.next(0); combo >= 0; combo = range.next(combo + 1), ++i)
+            {
+                EquityTable.comboCodes(combo, codes);
+                m_combos[i]   = combo;
+                m_codes[0][i] = codes[0];
+                m_codes[1][i] = codes[1];
+                m_cards[i]    = HandRange.cards(combo);
+                m_suites[i]   = SevenCardRank.suites(codes[0]) | SevenCardRank.suites(codes[1]);
+                m_weights[i]  = range.getWeight(combo);
+            }
+        }
+    }
+    
+    /*
+     * Task enumerating the boards, or sampling the chunks of boards, with indices in a range, splitting large ranges
+     * in two.
+     */
+    private final class Range
+        extends RecursiveTask<Result>
+    {
+        private static final long  serialVersionUID = 1L;
+        
+        private final long  m_first;
+        private final long  m_end;
+        private final long  m_chunk;
+        
+        // the live combos of the second range on a board in rank order, overall and holding each card
+        private  long[]      m_keys;
+        private  int[][]     m_ranks;
+        private  double[][]  m_sums;
+        private  int[]       m_lengths;
+        
+        Range(long first, long end, long chunk)
+        {
+            m_first = first;
+            m_end   = end;
+            m_chunk = chunk;
+        }
+        
+        @Override
+        protected Result
+        compute()
+        {
+            if (m_end - m_first > m_chunk)
+            {
+                long   middle = m_first + (m_end - m_first) / 2;
+                Range  first  = new Range(m_first, middle, m_chunk);
+                first.fork();
+                
+                Result  result = new Range(middle, m_end, m_chunk).compute();
+                result.add(first.join());
+                return result;
+            }
+            
+            // list 0 holds the whole range, list 1 + code the combos holding that card
+            m_keys    = new long[m_range2.m_count];
+            m_ranks   = new int[Card.DeckSize + 1][];
+            m_sums    = new double[Card.DeckSize + 1][];
+            m_lengths = new int[Card.DeckSize + 1];
+            m_ranks[0] = new int[m_range2.m_count];
+            m_sums[0]  = new double[m_range2.m_count + 1];
+            for (int code = 0; code < Card.DeckSize; ++code)
+            {
+                m_ranks[1 + code] = new int[Card.DeckSize - 1];
+                m_sums[1 + code]  = new double[Card.DeckSize];
+            }
+            
+            Result  result = new Result();
+            int[]   subset = new int[Hand.Size];
+            if (isExact())
+            {
+                Colex.unrank(m_first, m_missing, subset);
+                for (long index = m_first; index < m_end; ++index)
+                {
+                    board(m_deck, subset, result);
+                    Colex.next(subset, m_missing, m_deck.length);
+                }
+            }
+            else
+            {
+                // a partial shuffle of the live cards for each board, its first cards being dealt, each chunk starting
+                // from the same order
+                int[]  deck = m_deck.clone();
+                for (int i = 0; i < m_missing; ++i)
+                {
+                    subset[i] = i;
+                }
+                for (long chunk = m_first; chunk < m_end; ++chunk)
+                {
+                    SplittableRandom  random = new SplittableRandom(Seed + chunk);
+                    long              boards = Math.min(Chunk, m_boards - chunk * Chunk);
+                    System.arraycopy(m_deck, 0, deck, 0, deck.length);
+                    for (long b = 0; b < boards; ++b)
+                    {
+                        for (int i = 0; i < m_missing; ++i)
+                        {
+                            int  j = i + random.nextInt(deck.length - i);
+                            int  t = deck[i];
+                            deck[i] = deck[j];
+                            deck[j] = t;
+                        }
+                        board(deck, subset, result);
+                    }
+                }
+            }
+            return result;
+        }
+        
+        /*
+         * Adds the deals on one board, the known cards with the deck cards at the subset's indices.
+         */
+        private void
+        board(int[] deck, int[] subset, Result result)
+        {
+            long  board = m_board;
+            long  dealt = 0;
+            for (int i = 0; i < m_missing; ++i)
+            {
+                int  code = deck[subset[i]];
+                board |= SevenCardRank.suites(code);
+                dealt |= 1L << code;
+            }
+            result.m_boards++;
+            
+            // rank the second range and list it in rank order
+            int  n = 0;
+            for (int j = 0; j < m_range2.m_count; ++j)
+            {
+                if ((m_range2.m_cards[j] & dealt) == 0)
+                {
+                    m_keys[n++] = (long) SevenCardRank.evaluate(board | m_range2.m_suites[j]) << 32 | j;
+                }
+            }
+            Arrays.sort(m_keys, 0, n);
+            Arrays.fill(m_lengths, 0);
+            for (int k = 0; k < n; ++k)
+            {
+                int     rank   = (int) (m_keys[k] >>> 32);
+                int     j      = (int) m_keys[k];
+                double  weight = m_range2.m_weights[j];
+                append(0, rank, weight);
+                append(1 + m_range2.m_codes[0][j], rank, weight);
+                append(1 + m_range2.m_codes[1][j], rank, weight);
+            }
+            
+            // weight each live combo of the first range beats and ties, less that sharing its cards
+            for (int i = 0; i < m_range1.m_count; ++i)
+            {
+                if ((m_range1.m_cards[i] & dealt) != 0)
+                {
+                    continue;
+                }
+                int     rank  = SevenCardRank.evaluate(board | m_range1.m_suites[i]);
+                int     a     = 1 + m_range1.m_codes[0][i];
+                int     b     = 1 + m_range1.m_codes[1][i];
+                double  same  = m_same[i];
+                double  less  = below(0, rank) - below(a, rank) - below(b, rank);
+                double  upto  = below(0, rank + 1) - below(a, rank + 1) - below(b, rank + 1) + same;
+                double  total = total(0) - total(a) - total(b) + same;
+                
+                double  weight = m_range1.m_weights[i];
+                result.m_wins  += weight * less;
+                result.m_ties  += weight * (upto - less);
+                result.m_total += weight * total;
+            }
+        }
+        
+        private void
+        append(int list, int rank, double weight)
+        {
+            int  length = m_lengths[list]++;
+            m_ranks[list][length]    = rank;
+            m_sums[list][length + 1] = m_sums[list][length] + weight;
+        }
+        
+        private double
+        total(int list)
+        {
+            return m_sums[list][m_lengths[list]];
+        }
+        
+        /*
+         * Weight of the combos in a list ranked below a rank.
+         */
+        private double
+        below(int list, int rank)
+        {
+            int[]  ranks = m_ranks[list];
+            int    low   = 0;
+            int    high  = m_lengths[list];
+            while (low < high)
+            {
+                int  middle = (low + high) >>> 1;
+                if (ranks[middle] < rank)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+            return m_sums[list][low];
+        }
+    }
+    
+    /**
+     * Runs from the command line:<br>
+     * RangeEquity [-board "cards"] [-dead "cards"] [-boards N] [-threads N] "range" "range"<br>
+     * With no arguments, runs a self check.
+     */
+    public static void
+    main(String... args)
+    {
+        if (args.length == 0)
+        {
+            check();
+            return;
+        }
+        
+        try
+        {
+            int[]   board   = new int[0];
+            int[]   dead    = new int[0];
+            long    boards  = DefaultBoards;
+            int     threads = Runtime.getRuntime().availableProcessors();
+            
+            HandRange[]  ranges = new HandRange[2];
+            int          count  = 0;
+            for (int arg = 0; arg < args.length; ++arg)
+            {
+                String  option = args[arg];
+                if ("-board".equals(option) && arg + 1 < args.length)
+                {
+                    board = MonteCarlo.codes(args[++arg]);
+                }
+                else if ("-dead".equals(option) && arg + 1 < args.length)
+                {
+                    dead = MonteCarlo.codes(args[++arg]);
+                }
+                else if ("-boards".equals(option) && arg + 1 < args.length)
+                {
+                    boards = Long.parseLong(args[++arg]);
+                }
+                else if ("-threads".equals(option) && arg + 1 < args.length)
+                {
+                    threads = Integer.parseInt(args[++arg]);
+                }
+                else if (option.startsWith("-") || count == ranges.length)
+                {
+                    throw new PokerException("Invalid option: " + option);
+                }
+                else
+                {
+                    ranges[count++] = HandRange.parse(option);
+                }
+            }
+            if (count < ranges.length)
+            {
+                throw new PokerException("Two ranges required");
+            }
+            
+            RangeEquity  equity = new RangeEquity(ranges[0], ranges[1], board, dead);
+            equity.setThreads(threads);
+            equity.setBoards(boards);
+            
+            long  start = System.nanoTime();
+            System.out.println(equity.run() + (equity.isExact() ? "" : "\nSampled"));
+            System.out.println("Time " + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Self check - single combos must match ExactEquity exactly, enumerating and sampling must not depend on the
+     * number of threads, and ranges which cannot be dealt together, no boards and no threads must be rejected.
+     */
+    private static void
+    check()
+    {
+        System.out.println("Testing RangeEquity");
+        try
+        {
+            // single combo ranges, then the same hole cards and the board for ExactEquity
+            String[][]  cases = {
+                { "AhAs", "KdKc", "AH AS", "KD KC", "" },
+                { "AhAd", "KcQc", "AH AD", "KC QC", "KS KH 2D" },
+                { "7h8h", "2c3d", "7H 8H", "2C 3D", "AS KS QS JS TS" } };
+            for (String[] c : cases)
+            {
+                int[]   board = MonteCarlo.codes(c[4]);
+                double  exact = new ExactEquity(new int[][] { MonteCarlo.codes(c[2]), MonteCarlo.codes(c[3]) }, board,
+                                                new int[0], false).run().getEquity(0);
+                
+                RangeEquity  equity = new RangeEquity(HandRange.parse(c[0]), HandRange.parse(c[1]), board, new int[0]);
+                equity.setBoards(Long.MAX_VALUE);
+                Result  result = equity.run();
+                if (Math.abs(result.getEquity() - exact) > 1e-12 || result.getBoards() != equity.getBoards())
+                {
+                    throw new PokerException(c[0] + " vs " + c[1] + " on " + c[4] + " equity " + result.getEquity()
+                                             + " expected " + exact);
+                }
+                System.out.println(String.format("%s vs %s on %-14s equity %.6f", c[0], c[1], c[4],
+                                                 result.getEquity()));
+            }
+            
+            // reusing a pool and changing the number of threads leaves the totals as they were
+            RangeEquity  equity = new RangeEquity(HandRange.parse("QQ+,AK"), HandRange.parse("JJ-99,AQs"), new int[0],
+                                                  new int[0]);
+            equity.setBoards(5000);
+            double  sampled = equity.run().getEquity();
+            for (int threads : new int[] { 1, 3, 3 })
+            {
+                equity.setThreads(threads);
+                if (equity.run().getEquity() != sampled)
+                {
+                    throw new PokerException("Sampled on " + threads + " threads gave " + equity.run().getEquity()
+                                             + " not " + sampled);
+                }
+            }
+            System.out.println(String.format("QQ+,AK vs JJ-99,AQs sampled equity %.6f on 1 and 3 threads", sampled));
+            
+            Object[][]  invalid = {
+                { "AhKh", "AhQh", 1L, 1 },
+                { "AA", "KK", 0L, 1 },
+                { "AA", "KK", 1L, 0 } };
+            for (Object[] c : invalid)
+            {
+                try
+                {
+                    RangeEquity  bad = new RangeEquity(HandRange.parse((String) c[0]), HandRange.parse((String) c[1]),
+                                                       new int[0], new int[0]);
+                    bad.setBoards((Long) c[2]);
+                    bad.setThreads((Integer) c[3]);
+                    throw new PokerException("Accepted " + Arrays.toString(c));
+                }
+                catch (PokerException ex)
+                {
+                    if (ex.getMessage().startsWith("Accepted"))
+                    {
+                        throw ex;
+                    }
+                }
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+}
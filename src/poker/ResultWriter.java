@@ -0,0 +1,250 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author Andrew
+ *
+ * Writes the result of each line processed by a Counter as a line of text, straight into a reused byte buffer
+ * which is written to a channel whenever it fills, so memory stays constant however long the input is.<br>
+ * A result is the line number, the winning players from 1 separated by commas, then the Evaluation of each
+ * player's hand, separated by tabs, for example "12&#9;2&#9;ONE_PAIR FOUR&#9;TWO_PAIRS KING/SEVEN". A line in
+ * error gives its line number, ERROR and the message instead. The text of each Evaluation is made once for each
+ * Rules and kept as bytes, so nothing is allocated per line.<br>
+ * When part of a file is processed in parallel the line numbers are not yet known, so a part's writer has no
+ * channel and grows to hold its results with each line number relative to the part as 8 binary bytes. Its results
+ * are then appended to the main writer in input order, adding the lines before the part.
+ */
+final class ResultWriter
+{
+    private static final int  BufferSize = 1 << 16;
+    
+    // longest result: line number, winners and ten evaluations
+    private static final int  MaxResult = 20 + 3 * Showdown.MaxSeats + Showdown.MaxSeats * 32;
+    
+    private static final byte[]  Error = "ERROR".getBytes(StandardCharsets.US_ASCII);
+    
+    private static final int  Numbers = Number.values().length;
+    
+    // text of each Evaluation by rules, kind, first number and the third and fourth which hold any second value
+    private static final int                           RulesTexts = Evaluation.Kind.values().length * Numbers
+                                                                    * Numbers * Numbers;
+    private static final AtomicReferenceArray<byte[]>  Texts;
+    
+    static
+    {
+        Texts = new AtomicReferenceArray<byte[]>(Rules.values().length * RulesTexts);
+    }
+    
+    private final WritableByteChannel  m_channel;
+    private final Rules                m_rules = Hand.getEvaluator().getRules();
+    
+    private  ByteBuffer  m_buffer = ByteBuffer.allocate(BufferSize);
+    
+    /**
+     * @param channel  Channel to write to
+     */
+    ResultWriter(WritableByteChannel channel)
+    {
+        m_channel = channel;
+    }
+    
+    /**
+     * Creates a writer holding the results of part of a file.
+     */
+    ResultWriter()
+    {
+        m_channel = null;
+    }
+    
+    /*
+     * Writes the result of a showdown.
+     */
+    void
+    result(long line, int winners, Showdown showdown, int players)
+    {
+        ensure(MaxResult);
+        putLine(line);
+        
+        m_buffer.put((byte) '\t');
+        for (int seat = 0; winners != 0; ++seat, winners >>>= 1)
+        {
+            if ((winners & 1) != 0)
+            {
+                if (m_buffer.get(m_buffer.position() - 1) != '\t')
+                {
+                    m_buffer.put((byte) ',');
+                }
+                putNumber(seat + 1);
+            }
+        }
+        
+        for (int seat = 0; seat < players; ++seat)
+        {
+            m_buffer.put((byte) '\t');
+            m_buffer.put(text(showdown.getRank(seat)));
+        }
+        m_buffer.put((byte) '\n');
+    }
+    
+    /*
+     * Writes an error in place of a result.
+     */
+    void
+    error(long line, String message)
+    {
+        byte[]  bytes = message.getBytes();
+        ensure(MaxResult + bytes.length);
+        putLine(line);
+        m_buffer.put((byte) '\t').put(Error).put((byte) '\t').put(bytes).put((byte) '\n');
+    }
+    
+    /*
+     * Drops the results held without writing them out.
+     */
+    void
+    discard()
+    {
+        m_buffer.clear();
+    }
+    
+    /*
+     * Appends the results held by the writer of a part, numbering its lines after a number of lines.
+     */
+    void
+    append(ResultWriter part, long lines)
+    {
+        ByteBuffer  results = part.m_buffer;
+        results.flip();
+        while (results.hasRemaining())
+        {
+            long  line = results.getLong();
+            int   end  = results.position();
+            while (results.get(end) != '\n')
+            {
+                end++;
+            }
+            
+            int  length = end + 1 - results.position();
+            ensure(20 + length);
+            putLine(lines + line);
+            m_buffer.put(m_buffer.position(), results, results.position(), length);
+            m_buffer.position(m_buffer.position() + length);
+            results.position(end + 1);
+        }
+        results.clear();
+    }
+    
+    /*
+     * Writes everything buffered to the channel.
+     */
+    void
+    flush()
+    {
+        m_buffer.flip();
+        try
+        {
+            while (m_buffer.hasRemaining())
+            {
+                m_channel.write(m_buffer);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+        m_buffer.clear();
+    }
+    
+    /*
+     * Makes room for a number of bytes, writing out the buffer or for a part growing it.
+     */
+    private void
+    ensure(int bytes)
+    {
+        if (m_buffer.remaining() >= bytes)
+        {
+            return;
+        }
+        if (m_channel != null)
+        {
+            flush();
+        }
+        if (m_buffer.remaining() < bytes)
+        {
+            ByteBuffer  larger = ByteBuffer.allocate(Math.max(2 * m_buffer.capacity(), m_buffer.position() + bytes));
+            m_buffer.flip();
+            m_buffer = larger.put(m_buffer);
+        }
+    }
+    
+    private void
+    putLine(long line)
+    {
+        if (m_channel == null)
+        {
+            m_buffer.putLong(line);
+        }
+        else
+        {
+            putNumber(line);
+        }
+    }
+    
+    /*
+     * Puts the decimal digits of a number.
+     */
+    private void
+    putNumber(long number)
+    {
+        int  digits = 1;
+        for (long n = number; n >= 10; n /= 10)
+        {
+            digits++;
+        }
+        
+        int  pos = m_buffer.position() + digits;
+        m_buffer.position(pos);
+        do
+        {
+            m_buffer.put(--pos, (byte) ('0' + number % 10));
+            number /= 10;
+        }
+        while (number != 0);
+    }
+    
+    /*
+     * Bytes of the text of the Evaluation of a rank, made on first use. The parts of a parallel run share the texts,
+     * so they are published through an AtomicReferenceArray, which makes a text's bytes visible to every thread
+     * that reads it. Threads may still race to make the same text, but then only make equal copies.
+     */
+    private byte[]
+    text(int rank)
+    {
+        int  index = rank >>> HandRank.KindShift;
+        for (int position = 0; position < Hand.Size - 1; ++position)
+        {
+            if (position != 1)
+            {
+                index = index * Numbers + HandRank.number(rank, position).ordinal();
+            }
+        }
+        
+        index += m_rules.ordinal() * RulesTexts;
+        byte[]  text = Texts.get(index);
+        if (text == null)
+        {
+            text = m_rules.decode(rank).toString().getBytes(StandardCharsets.US_ASCII);
+            Texts.set(index, text);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew
+ *
+ * The rule variants hands can be ranked under. Each Evaluator ranks under one of them, so a variant is chosen at
+ * runtime by choosing an Evaluator for it. The evaluators are specialised for their variant, so the standard ones
+ * pay nothing for the others.<br>
+ * Ranks under every variant are packed as for HandRank, so a higher rank is always the better hand, but the kind
+ * field holds the position of the Evaluation.Kind in the variant's order, and for LOWBALL each number field holds
+ * 12 less its value counting the ace as 0, so lower cards pack higher. decode() undoes both to give the
+ * Evaluation.<br>
+ * Under WHEEL a wheel straight is packed as 5 4 3 2 A, so it decodes as a FIVE high straight and ranks below
+ * 2 3 4 5 6. Under SHORT_DECK A6789 is packed as 9 8 7 6 A in the same way.
+ */
+public enum Rules
+{
+    /**
+     * A2345 is not a straight, so A is only ever high
+     */
+    STANDARD(Number.TWO, false,
+             new int[] { 1278, 2860, 858, 858, 9, 1278, 156, 156, 9 },
+             new int[] { 1303560, 1098240, 123552, 54912, 9180, 5112, 3744, 624, 36 },
+             Evaluation.Kind.HIGH_CARD, Evaluation.Kind.ONE_PAIR, Evaluation.Kind.TWO_PAIRS,
+             Evaluation.Kind.THREE_OF_A_KIND, Evaluation.Kind.STRAIGHT, Evaluation.Kind.FLUSH,
+             Evaluation.Kind.FULL_HOUSE, Evaluation.Kind.FOUR_OF_A_KIND, Evaluation.Kind.STRAIGHT_FLUSH),
+    
+    /**
+     * A2345 is the lowest straight, and straight flush
+     */
+    WHEEL(Number.TWO, false,
+          new int[] { 1277, 2860, 858, 858, 10, 1277, 156, 156, 10 },
+          new int[] { 1302540, 1098240, 123552, 54912, 10200, 5108, 3744, 624, 40 },
+          Evaluation.Kind.HIGH_CARD, Evaluation.Kind.ONE_PAIR, Evaluation.Kind.TWO_PAIRS,
+          Evaluation.Kind.THREE_OF_A_KIND, Evaluation.Kind.STRAIGHT, Evaluation.Kind.FLUSH,
+          Evaluation.Kind.FULL_HOUSE, Evaluation.Kind.FOUR_OF_A_KIND, Evaluation.Kind.STRAIGHT_FLUSH),
+    
+    /**
+     * Six plus hold'em - the 36 cards from SIX up, a flush beats a full house and A6789 is the lowest straight
+     */
+    SHORT_DECK(Number.SIX, false,
+               new int[] { 120, 504, 252, 252, 6, 120, 72, 72, 6 },
+               new int[] { 122400, 193536, 36288, 16128, 6120, 480, 1728, 288, 24 },
+               Evaluation.Kind.HIGH_CARD, Evaluation.Kind.ONE_PAIR, Evaluation.Kind.TWO_PAIRS,
+               Evaluation.Kind.THREE_OF_A_KIND, Evaluation.Kind.STRAIGHT, Evaluation.Kind.FULL_HOUSE,
+               Evaluation.Kind.FLUSH, Evaluation.Kind.FOUR_OF_A_KIND, Evaluation.Kind.STRAIGHT_FLUSH),
+    
+    /**
+     * Ace to five lowball - the lowest hand wins, the ace is always low and straights and flushes do not count,
+     * so A2345 is the best hand
+     */
+    LOWBALL(Number.TWO, true,
+            new int[] { 1287, 2860, 858, 858, 0, 0, 156, 156, 0 },
+            new int[] { 1317888, 1098240, 123552, 54912, 0, 0, 3744, 624, 0 },
+            Evaluation.Kind.FOUR_OF_A_KIND, Evaluation.Kind.FULL_HOUSE, Evaluation.Kind.THREE_OF_A_KIND,
+            Evaluation.Kind.TWO_PAIRS, Evaluation.Kind.ONE_PAIR, Evaluation.Kind.HIGH_CARD);
+    
+    private static final Evaluation.Kind[]  Kinds = Evaluation.Kind.values();
+    
+    private static final int  NumberMask = (1 << HandRank.NumberBits) - 1;
+    private static final int  Ace        = Number.ACE.ordinal();
+    
+    private final Number   m_lowest;
+    private final boolean  m_aceLow;
+    private final int[]    m_kindClasses;
+    private final int[]    m_kindHands;
+    private final int[]    m_kindCodes;    // kind field of each Kind ordinal, -1 if none
+    private final int[]    m_kinds;        // Kind ordinal of each kind field
+    
+    private
+    Rules(Number lowest, boolean aceLow, int[] kindClasses, int[] kindHands, Evaluation.Kind... order)
+    {
+        m_lowest      = lowest;
+        m_aceLow      = aceLow;
+        m_kindClasses = kindClasses;
+        m_kindHands   = kindHands;
+        m_kinds       = new int[order.length];
+        
+        // not from Kinds, as the static fields of an enum are only set after its constants are made
+        m_kindCodes = new int[Evaluation.Kind.values().length];
+        Arrays.fill(m_kindCodes, -1);
+        for (int code = 0; code < order.length; ++code)
+        {
+            m_kinds[code] = order[code].ordinal();
+            m_kindCodes[order[code].ordinal()] = code;
+        }
+    }
+    
+    /**
+     * @return lowest number in the deck
+     */
+    public Number
+    getLowest()
+    {
+        return m_lowest;
+    }
+    
+    /**
+     * @return whether the ace is always low and lower numbers are packed higher, as under LOWBALL
+     */
+    public boolean
+    isAceLow()
+    {
+        return m_aceLow;
+    }
+    
+    /**
+     * @return number of cards in the deck
+     */
+    public int
+    getDeckSize()
+    {
+        return Card.DeckSize - (m_lowest.ordinal() << Card.SuiteBits);
+    }
+    
+    /**
+     * @param code  Card code from Card.code
+     * @return whether the card is in the deck
+     */
+    public boolean
+    isDealt(int code)
+    {
+        return code >>> Card.SuiteBits >= m_lowest.ordinal();
+    }
+    
+    /**
+     * @param kind  Evaluation.Kind ordinal
+     * @return number of different ranks of that kind among all five card hands
+     */
+    public int
+    getClasses(int kind)
+    {
+        return m_kindClasses[kind];
+    }
+    
+    /**
+     * @return number of different ranks among all five card hands
+     */
+    public int
+    getClasses()
+    {
+        int  classes = 0;
+        for (int count : m_kindClasses)
+        {
+            classes += count;
+        }
+        return classes;
+    }
+    
+    /**
+     * @param kind  Evaluation.Kind ordinal
+     * @return number of five card hands of that kind
+     */
+    public int
+    getHands(int kind)
+    {
+        return m_kindHands[kind];
+    }
+    
+    /**
+     * @param kind  Evaluation.Kind ordinal
+     * @return value of the kind field of ranks of that kind, higher for a better kind, or -1 if there are none
+     */
+    public int
+    kindCode(int kind)
+    {
+        return m_kindCodes[kind];
+    }
+    
+    /**
+     * @param rank  Packed rank under these rules
+     * @return kind of the hand
+     */
+    public Evaluation.Kind
+    kind(int rank)
+    {
+        return Kinds[m_kinds[rank >>> HandRank.KindShift]];
+    }
+    
+    /**
+     * Decodes a packed rank under these rules. Evaluation compares by the standard order of kinds and numbers, so
+     * only Evaluations of STANDARD and WHEEL ranks compare as their ranks do.
+     * @param rank  Packed rank
+     * @return matching Evaluation
+     */
+    public Evaluation
+    decode(int rank)
+    {
+        return Evaluation.decode(standard(rank));
+    }
+    
+    /*
+     * The rank laid out as for HandRank, with the Kind ordinal and Number ordinals, which may not compare as the rank.
+     */
+    int
+    standard(int rank)
+    {
+        int  packed = m_kinds[rank >>> HandRank.KindShift] << HandRank.KindShift;
+        for (int shift = 0; shift < HandRank.KindShift; shift += HandRank.NumberBits)
+        {
+            int  number = rank >>> shift & NumberMask;
+            if (m_aceLow)
+            {
+                // 12 less the value with the ace as 0, back to the ordinal with the ace high
+                number = (2 * Ace - number) % (Ace + 1);
+            }
+            packed |= number << shift;
+        }
+        return packed;
+    }
+    
+    /**
+     * Parses the name of a rule variant, ignoring case.
+     * @param name  Name of the variant
+     * @return matching Rules
+     * @throws PokerException if no match found
+     */
+    public static Rules
+    parse(String  name)
+        throws PokerException
+    {
+        for (Rules r : Rules.values())
+        {
+            if (r.name().equalsIgnoreCase(name))
+            {
+                return r;
+            }
+        }
+        throw new PokerException("Invalid Rules: " + name);
+    }
+}
@@ -0,0 +1,361 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * Evaluates the best five card hand out of five to seven cards, as in Texas Hold'em, without trying each subset.
+ * The result is the HandRank packed rank of the best five cards, so it compares exactly like the best Hand.<br>
+ * The cards are held as a long with a 16 bit mask of numbers for each suite, so the cards of a shared board can
+ * be combined with each player's hole cards with a single or. The numbers held by exactly one, two, three or four
+ * suites are then found with bitwise operations across the suite masks.<br>
+ * A flush is a suite mask with five or more bits and straights are found by and-ing a mask with itself shifted,
+ * so nothing depends on the order of the cards. For Rules.WHEEL the ace is also copied below the two before
+ * looking for runs, which finds A2345 without a separate test.
+ */
+public final class SevenCardRank
+{
+    public static final int  MaxCards  = 7;
+    public static final int  HoleCards = 2;
+    public static final int  SuiteBits = 16;
+    
+    private static final int  NumberMask = (1 << Number.values().length) - 1;
+    private static final int  Ace        = Number.ACE.ordinal();
+    
+    // packed numbers of the straight with each high number, from FIVE for the wheel up
+    private static final int[]  Straights = new int[Number.values().length];
+    
+    static
+    {
+        for (int high = Number.SIX.ordinal(); high <= Ace; ++high)
+        {
+            Straights[high] = highest(0x1F << (high - 4), 5, 0);
+        }
+        Straights[Number.FIVE.ordinal()] = highest(0xF, 4, 0) << HandRank.NumberBits | Ace;
+    }
+    
+    private
+    SevenCardRank()
+    {
+        // static functions only
+    }
+    
+    /**
+     * Combines cards into a mask per suite.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first code
+     * @param count   Number of codes
+     * @return masks of numbers, suite ordinal 0 in the lowest 16 bits
+     */
+    public static long
+    suites(int[] codes, int offset, int count)
+    {
+        long  suites = 0;
+        for (int i = offset; i < offset + count; ++i)
+        {
+            suites |= suites(codes[i]);
+        }
+        return suites;
+    }
+    
+    /**
+     * Combines cards into a mask per suite.
+     * @param cards   Array holding the cards
+     * @param offset  Index of the first card
+     * @param count   Number of cards
+     * @return masks of numbers, suite ordinal 0 in the lowest 16 bits
+     */
+    public static long
+    suites(Card[] cards, int offset, int count)
+    {
+        long  suites = 0;
+        for (int i = offset; i < offset + count; ++i)
+        {
+            suites |= suites(cards[i].code());
+        }
+        return suites;
+    }
+    
+    /**
+     * @param code  Card code from Card.code
+     * @return suite masks holding just that card
+     */
+    public static long
+    suites(int code)
+    {
+        return 1L << ((code & Card.SuiteMask) * SuiteBits + (code >>> Card.SuiteBits));
+    }
+    
+    /**
+     * Evaluates five to seven consecutive primitive card codes of an array.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first code
+     * @param count   Number of codes, from 5 to 7
+     * @return packed rank of the best five cards
+     */
+    public static int
+    evaluate(int[] codes, int offset, int count)
+    {
+        return evaluate(suites(codes, offset, count));
+    }
+    
+    /**
+     * Evaluates five to seven different cards.
+     * @param suites  Masks of numbers per suite from suites(), combined with or
+     * @return packed rank of the best five cards
+     */
+    public static int
+    evaluate(long suites)
+    {
+        return evaluate(suites, 0);
+    }
+    
+    /**
+     * Evaluates five to seven different cards under Rules.WHEEL, where A2345 is the lowest straight.
+     * @param suites  Masks of numbers per suite from suites(), combined with or
+     * @return packed rank of the best five cards
+     */
+    public static int
+    evaluateWheel(long suites)
+    {
+        return evaluate(suites, 1);
+    }
+    
+    /*
+     * Evaluates with the ace also played just below the lowest number set in wheel, which is 0 if it is always
+     * high. The numbers are shifted up one when looking for straights, so 1 plays it below the two.
+     */
+    static int
+    evaluate(long suites, int wheel)
+    {
+        int  a = (int) suites & NumberMask;
+        int  b = (int) (suites >>> SuiteBits) & NumberMask;
+        int  c = (int) (suites >>> 2 * SuiteBits) & NumberMask;
+        int  d = (int) (suites >>> 3 * SuiteBits) & NumberMask;
+        
+        // with at most seven cards there can only be one flush, and then there can not also be a full house or four
+        int  flush = Integer.bitCount(a) >= 5 ? a
+                   : Integer.bitCount(b) >= 5 ? b
+                   : Integer.bitCount(c) >= 5 ? c
+                   : Integer.bitCount(d) >= 5 ? d : 0;
+        if (flush != 0)
+        {
+            int  high = straightHigh(flush, wheel);
+            if (high >= 0)
+            {
+                return HandRank.StraightFlush << HandRank.KindShift | Straights[high];
+            }
+            return HandRank.Flush << HandRank.KindShift | highest(flush, 5, 0);
+        }
+        
+        // numbers present in at least one, two or three suites, and in all four
+        int  any   = a | b | c | d;
+        int  two   = (a & b) | (a & c) | (a & d) | (b & c) | (b & d) | (c & d);
+        int  three = (a & b & c) | (a & b & d) | (a & c & d) | (b & c & d);
+        int  four  = a & b & c & d;
+        
+        if (four != 0)
+        {
+            int  quad = top(four);
+            return HandRank.FourOfAKind << HandRank.KindShift | repeat(quad, 4, 0) << HandRank.NumberBits
+                   | top(any & ~(1 << quad));
+        }
+        
+        if (three != 0)
+        {
+            int  trips = top(three);
+            int  pairs = two & ~(1 << trips);
+            if (pairs != 0)
+            {
+                return HandRank.FullHouse << HandRank.KindShift | repeat(trips, 3, 0) << 2 * HandRank.NumberBits
+                       | repeat(top(pairs), 2, 0);
+            }
+        }
+        
+        int  high = straightHigh(any, wheel);
+        if (high >= 0)
+        {
+            return HandRank.Straight << HandRank.KindShift | Straights[high];
+        }
+        
+        if (three != 0)
+        {
+            int  trips = top(three);
+            return HandRank.ThreeOfAKind << HandRank.KindShift
+                   | highest(any & ~(1 << trips), 2, repeat(trips, 3, 0));
+        }
+        
+        if (two != 0)
+        {
+            int  pair = top(two);
+            int  rest = two & ~(1 << pair);
+            if (rest != 0)
+            {
+                int  low = top(rest);
+                return HandRank.TwoPairs << HandRank.KindShift
+                       | highest(any & ~(1 << pair | 1 << low), 1, repeat(low, 2, repeat(pair, 2, 0)));
+            }
+            return HandRank.OnePair << HandRank.KindShift | highest(any & ~(1 << pair), 3, repeat(pair, 2, 0));
+        }
+        
+        return HandRank.HighCard << HandRank.KindShift | highest(any, 5, 0);
+    }
+    
+    /*
+     * Highest number in a mask.
+     */
+    private static int
+    top(int mask)
+    {
+        return 31 - Integer.numberOfLeadingZeros(mask);
+    }
+    
+    /*
+     * Appends a number to packed numbers a number of times.
+     */
+    private static int
+    repeat(int number, int times, int packed)
+    {
+        for (int i = 0; i < times; ++i)
+        {
+            packed = packed << HandRank.NumberBits | number;
+        }
+        return packed;
+    }
+    
+    /*
+     * Appends the highest numbers in a mask to packed numbers.
+     */
+    private static int
+    highest(int mask, int count, int packed)
+    {
+        for (int i = 0; i < count; ++i)
+        {
+            int  number = top(mask);
+            packed = packed << HandRank.NumberBits | number;
+            mask ^= 1 << number;
+        }
+        return packed;
+    }
+    
+    /*
+     * Highest number of the highest run of five numbers in a mask, or -1 if there is none. The mask is shifted up
+     * one and the ace copied into the bits of wheel, so with wheel 1 A2345 is a run ending at FIVE.
+     */
+    private static int
+    straightHigh(int mask, int wheel)
+    {
+        int  low  = mask << 1 | -(mask >>> Ace) & wheel;
+        int  runs = low & low >>> 1 & low >>> 2 & low >>> 3 & low >>> 4;
+        return runs == 0 ? -1 : top(runs) + 3;
+    }
+    
+    /*
+     * Self check - compares every five card hand with HandRank, and random six and seven card hands with the best
+     * HandRank of all their five card subsets. The wheel rules must differ from HandRank only for A2345.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing SevenCardRank");
+        try
+        {
+            int[]  codes = new int[MaxCards];
+            int    hands = 0;
+            
+            for (codes[0] = 0; codes[0] < Card.DeckSize; ++codes[0])
+            for (codes[1] = codes[0] + 1; codes[1] < Card.DeckSize; ++codes[1])
+            for (codes[2] = codes[1] + 1; codes[2] < Card.DeckSize; ++codes[2])
+            for (codes[3] = codes[2] + 1; codes[3] < Card.DeckSize; ++codes[3])
+            for (codes[4] = codes[3] + 1; codes[4] < Card.DeckSize; ++codes[4])
+            {
+                int  expect = HandRank.evaluate(codes, 0);
+                check(codes, Hand.Size, expect, 0);
+                
+                int  numbers = 0;
+                for (int i = 0; i < Hand.Size; ++i)
+                {
+                    numbers |= 1 << (codes[i] >>> Card.SuiteBits);
+                }
+                if (numbers == (1 << Ace | 0xF))
+                {
+                    int  kind = expect >>> HandRank.KindShift == HandRank.Flush ? HandRank.StraightFlush
+                                                                                : HandRank.Straight;
+                    expect = kind << HandRank.KindShift | Straights[Number.FIVE.ordinal()];
+                }
+                check(codes, Hand.Size, expect, 1);
+                hands++;
+            }
+            System.out.println("\nChecked " + hands + " five card hands");
+            
+            Random  random = new Random(1);
+            int[]   deck   = new int[Card.DeckSize];
+            int[]   five   = new int[Hand.Size];
+            for (int i = 0; i < deck.length; ++i)
+            {
+                deck[i] = i;
+            }
+            
+            for (int count = 6; count <= MaxCards; ++count)
+            {
+                for (int n = 0; n < 1000000; ++n)
+                {
+                    // partial shuffle to deal the cards
+                    for (int i = 0; i < count; ++i)
+                    {
+                        int  j = i + random.nextInt(deck.length - i);
+                        int  t = deck[i];
+                        deck[i] = deck[j];
+                        deck[j] = t;
+                        codes[i] = deck[i];
+                    }
+                    
+                    int  best = 0;
+                    for (int skip = 0; skip < 1 << count; ++skip)
+                    {
+                        if (Integer.bitCount(skip) == count - Hand.Size)
+                        {
+                            for (int i = 0, k = 0; i < count; ++i)
+                            {
+                                if ((skip & 1 << i) == 0)
+                                {
+                                    five[k++] = codes[i];
+                                }
+                            }
+                            best = Math.max(best, HandRank.evaluate(five, 0));
+                        }
+                    }
+                    check(codes, count, best, 0);
+                }
+                System.out.println("Checked 1000000 random " + count + " card hands");
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    private static void
+    check(int[] codes, int count, int expect, int wheel)
+        throws PokerException
+    {
+        int  actual = evaluate(suites(codes, 0, count), wheel);
+        if (actual != expect)
+        {
+            StringBuilder  buf = new StringBuilder("Mismatch for");
+            for (int i = 0; i < count; ++i)
+            {
+                buf.append(' ').append(Card.valueOf(codes[i]));
+            }
+            buf.append(": ").append(Evaluation.decode(actual)).append(" expected ").append(Evaluation.decode(expect));
+            throw new PokerException(buf.toString());
+        }
+    }
+}
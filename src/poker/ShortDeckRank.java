@@ -0,0 +1,67 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+/**
+ * @author Andrew
+ *
+ * Evaluates the best five of five to seven cards under Rules.SHORT_DECK, where the deck runs from SIX up, a flush
+ * beats a full house and A6789 is the lowest straight.<br>
+ * The suite masks are evaluated as by SevenCardRank with the ace also played below the six, and the result is then
+ * adjusted with a table lookup rather than branching on the kind. No FIVE is dealt, so a FIVE in the packed numbers
+ * can only be from A6789 and is replaced by the ACE. A flush and a full house can not both be made from seven
+ * cards, so only their kind fields need to be swapped.
+ */
+public final class ShortDeckRank
+{
+    // ace played in the bit below the six, in the numbers shifted up one
+    private static final int  Wheel = 1 << Number.SIX.ordinal();
+    
+    private static final int  Five       = Number.FIVE.ordinal();
+    private static final int  AceShift   = Number.ACE.ordinal() - Five;
+    private static final int  NumberMask = (1 << HandRank.NumberBits) - 1;
+    private static final int  Numbers    = (1 << HandRank.KindShift) - 1;
+    
+    // kind field under the short deck rules for each kind field from SevenCardRank
+    private static final int[]  Kinds = new int[Evaluation.Kind.values().length];
+    
+    static
+    {
+        for (int kind = 0; kind < Kinds.length; ++kind)
+        {
+            Kinds[kind] = Rules.SHORT_DECK.kindCode(kind) << HandRank.KindShift;
+        }
+    }
+    
+    private
+    ShortDeckRank()
+    {
+        // static functions only
+    }
+    
+    /**
+     * Evaluates five consecutive primitive card codes of an array, which must all be from the short deck.
+     * @param codes   Array holding the codes from Card.code
+     * @param offset  Index of the first of the five codes
+     * @return packed rank under Rules.SHORT_DECK
+     */
+    public static int
+    evaluate(int[] codes, int offset)
+    {
+        return evaluate(SevenCardRank.suites(codes, offset, Hand.Size));
+    }
+    
+    /**
+     * Evaluates five to seven different cards from the short deck.
+     * @param suites  Masks of numbers per suite from SevenCardRank.suites, combined with or
+     * @return packed rank of the best five cards under Rules.SHORT_DECK
+     */
+    public static int
+    evaluate(long suites)
+    {
+        int  rank = SevenCardRank.evaluate(suites, Wheel);
+        rank += (rank & NumberMask) == Five ? AceShift : 0;
+        return Kinds[rank >>> HandRank.KindShift] | rank & Numbers;
+    }
+}
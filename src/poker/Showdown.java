@@ -0,0 +1,294 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * Decides the winners of a showdown between up to ten players.<br>
+ * Each player's hand is ranked once into a packed rank and the winners are found in the same linear pass, keeping
+ * the best rank and a bit mask of the seats holding it, rather than sorting Hand objects. The ranks are kept so
+ * that side pots can be decided among just the players eligible for them, again in one pass.<br>
+ * An instance holds the ranks of the last showdown, so it can be reused without creating objects.
+ */
+public class Showdown
+{
+    public static final int  MaxSeats = 10;
+    
+    private final int[]  m_ranks = new int[MaxSeats];
+    
+    private  int  m_seats;
+    private  int  m_best;
+    private  int  m_winners;
+    
+    /**
+     * Ranks five card hands, one per seat.
+     * @param evaluator  Evaluator to rank each hand
+     * @param codes      Array holding the codes from Card.code, five for each seat in turn
+     * @param seats      Number of seats, from 2 to 10
+     * @return bit mask of the winning seats, seat 0 in the lowest bit
+     */
+    public int
+    hands(Evaluator evaluator, int[] codes, int seats)
+    {
+        m_seats   = seats;
+        m_best    = -1;
+        m_winners = 0;
+        for (int seat = 0; seat < seats; ++seat)
+        {
+            rank(seat, evaluator.evaluate(codes, seat * Hand.Size));
+        }
+        return m_winners;
+    }
+    
+    /**
+     * Ranks five card hands, one per seat, through a cache.
+     * @param cache  Cache to rank each hand
+     * @param codes  Array holding the codes from Card.code, five for each seat in turn
+     * @param seats  Number of seats, from 2 to 10
+     * @return bit mask of the winning seats, seat 0 in the lowest bit
+     */
+    public int
+    hands(HandCache cache, int[] codes, int seats)
+    {
+        m_seats   = seats;
+        m_best    = -1;
+        m_winners = 0;
+        for (int seat = 0; seat < seats; ++seat)
+        {
+            rank(seat, cache.getRank(codes, seat * Hand.Size));
+        }
+        return m_winners;
+    }
+    
+    /**
+     * Ranks the best five cards of each seat's two hole cards and the shared board.
+     * @param evaluator  Evaluator to rank each seat's seven cards
+     * @param codes      Array holding the codes from Card.code, two hole cards for each seat in turn then five board
+     *                   cards
+     * @param seats      Number of seats, from 2 to 10
+     * @return bit mask of the winning seats, seat 0 in the lowest bit
+     */
+    public int
+    holdem(Evaluator evaluator, int[] codes, int seats)
+    {
+        int   hole  = SevenCardRank.HoleCards;
+        long  board = SevenCardRank.suites(codes, seats * hole, Hand.Size);
+        
+        m_seats   = seats;
+        m_best    = -1;
+        m_winners = 0;
+        for (int seat = 0; seat < seats; ++seat)
+        {
+            rank(seat, evaluator.evaluate(board | SevenCardRank.suites(codes, seat * hole, hole)));
+        }
+        return m_winners;
+    }
+    
+    /**
+     * Decides between hands already ranked, one per seat, as by a BatchRank.
+     * @param ranks   Array holding the packed rank of each seat in turn
+     * @param offset  Index of the rank of seat 0
+     * @param seats   Number of seats, from 2 to 10
+     * @return bit mask of the winning seats, seat 0 in the lowest bit
+     */
+    public int
+    ranked(int[] ranks, int offset, int seats)
+    {
+        m_seats   = seats;
+        m_best    = -1;
+        m_winners = 0;
+        for (int seat = 0; seat < seats; ++seat)
+        {
+            rank(seat, ranks[offset + seat]);
+        }
+        return m_winners;
+    }
+    
+    /*
+     * Records the rank of a seat and updates the winners.
+     */
+    private void
+    rank(int seat, int rank)
+    {
+        m_ranks[seat] = rank;
+        if (rank > m_best)
+        {
+            m_best    = rank;
+            m_winners = 1 << seat;
+        }
+        else if (rank == m_best)
+        {
+            m_winners |= 1 << seat;
+        }
+    }
+    
+    /**
+     * @return bit mask of the winning seats of the last showdown
+     */
+    public int
+    getWinners()
+    {
+        return m_winners;
+    }
+    
+    /**
+     * @return whether the pot is split between more than one seat
+     */
+    public boolean
+    isSplit()
+    {
+        return Integer.bitCount(m_winners) > 1;
+    }
+    
+    /**
+     * Decides a side pot, which only some seats are eligible for.
+     * @param eligible  Bit mask of the seats eligible for the pot
+     * @return bit mask of the eligible seats sharing the pot, 0 if none are eligible
+     */
+    public int
+    getWinners(int eligible)
+    {
+        int  best    = -1;
+        int  winners = 0;
+        for (int seat = 0; seat < m_seats; ++seat)
+        {
+            if ((eligible & 1 << seat) == 0)
+            {
+                continue;
+            }
+            
+            int  rank = m_ranks[seat];
+            if (rank > best)
+            {
+                best    = rank;
+                winners = 1 << seat;
+            }
+            else if (rank == best)
+            {
+                winners |= 1 << seat;
+            }
+        }
+        return winners;
+    }
+    
+    /**
+     * @return packed rank of a seat in the last showdown
+     */
+    public int
+    getRank(int seat)
+    {
+        return m_ranks[seat];
+    }
+    
+    /**
+     * @return packed rank of the winning hand of the last showdown
+     */
+    public int
+    getBest()
+    {
+        return m_best;
+    }
+    
+    /*
+     * Self check - compares random showdowns of every size with sorting Hand objects, and side pots with the
+     * winners among just the eligible seats.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing Showdown");
+        try
+        {
+            Showdown  showdown = new Showdown();
+            Random    random   = new Random(1);
+            int[]     deck     = new int[Card.DeckSize];
+            int[]     codes    = new int[MaxSeats * Hand.Size];
+            for (int i = 0; i < deck.length; ++i)
+            {
+                deck[i] = i;
+            }
+            
+            for (int seats = 2; seats <= MaxSeats; ++seats)
+            {
+                for (int n = 0; n < 100000; ++n)
+                {
+                    // partial shuffle to deal the cards
+                    for (int i = 0; i < seats * Hand.Size; ++i)
+                    {
+                        int  j = i + random.nextInt(deck.length - i);
+                        int  t = deck[i];
+                        deck[i] = deck[j];
+                        deck[j] = t;
+                        codes[i] = deck[i];
+                    }
+                    
+                    ArrayList<Hand>  hands = new ArrayList<Hand>();
+                    for (int seat = 0; seat < seats; ++seat)
+                    {
+                        hands.add(Hand.fromCodes(codes, seat * Hand.Size));
+                    }
+                    int  eligible = random.nextInt(1 << seats);
+                    
+                    check(showdown.hands(Hand.getEvaluator(), codes, seats), winners(hands, -1));
+                    check(showdown.getWinners(eligible), winners(hands, eligible));
+                }
+                System.out.println("Checked 100000 showdowns between " + seats + " seats");
+            }
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+    }
+    
+    /*
+     * Winners found by sorting the eligible hands.
+     */
+    private static int
+    winners(ArrayList<Hand> hands, int eligible)
+    {
+        ArrayList<Hand>  sorted = new ArrayList<Hand>();
+        for (int seat = 0; seat < hands.size(); ++seat)
+        {
+            if ((eligible & 1 << seat) != 0)
+            {
+                sorted.add(hands.get(seat));
+            }
+        }
+        if (sorted.isEmpty())
+        {
+            return 0;
+        }
+        Collections.sort(sorted);
+        
+        Hand  best    = sorted.get(sorted.size() - 1);
+        int   winners = 0;
+        for (int seat = 0; seat < hands.size(); ++seat)
+        {
+            if ((eligible & 1 << seat) != 0 && hands.get(seat).compareTo(best) == 0)
+            {
+                winners |= 1 << seat;
+            }
+        }
+        return winners;
+    }
+    
+    private static void
+    check(int actual, int expect)
+        throws PokerException
+    {
+        if (actual != expect)
+        {
+            throw new PokerException("Winners " + Integer.toBinaryString(actual) + " expected "
+                                     + Integer.toBinaryString(expect));
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.util.Random;
+
+/**
+ * @author Andrew
+ *
+ * The cards one player holds so far in a hand dealt street by street, which absorbs one card at a time and can take
+ * the last card back again, so a live table or a search need not evaluate each player from scratch as the board
+ * grows.<br>
+ * The cards are held as SevenCardRank suite masks, so adding or removing one is a single or, and the rank of each
+ * depth is kept on a stack, so undo costs no evaluation at all. From five cards the rank is that of the best five
+ * under the Evaluator given, and for exactly five it is the rank Hand gives the same cards, so it compares exactly
+ * as Hand.compareTo.<br>
+ * With fewer than five cards there can be no straight or flush yet, and the rank is the layout of the groups of
+ * numbers held so far under the evaluator's Rules, with the missing low positions left as zero. The kind field is
+ * from the order of the Rules and under LOWBALL the numbers are packed as LowballRank packs them, so it orders hands
+ * with the same number of cards as the variant does and decodes under its Rules.
+ */
+public final class StreetHand
+{
+    private static final int  NumberMask = (1 << Number.values().length) - 1;
+    private static final int  Ace        = Number.ACE.ordinal();
+    
+    private final Evaluator  m_evaluator;
+    private final Rules      m_rules;
+    
+    private final int[]  m_codes = new int[SevenCardRank.MaxCards];
+    private final int[]  m_ranks = new int[SevenCardRank.MaxCards + 1];    // rank at each depth, none at 0
+    
+    private  long  m_suites;
+    private  int   m_count;
+    
+    /**
+     * Constructor ranking with the evaluator Hand currently uses.
+     */
+    public
+    StreetHand()
+    {
+        this(Hand.getEvaluator());
+    }
+    
+    /**
+     * @param evaluator  Evaluator ranking five to seven cards
+     */
+    public
+    StreetHand(Evaluator evaluator)
+    {
+        m_evaluator = evaluator;
+        m_rules     = evaluator.getRules();
+    }
+    
+    /**
+     * Adds a card, which is not checked against those already held.
+     * @param code  Card code from Card.code
+     * @return this hand
+     * @throws IllegalStateException if seven cards are already held
+     */
+    public StreetHand
+    add(int code)
+    {
+        if (m_count == SevenCardRank.MaxCards)
+        {
+            throw new IllegalStateException("StreetHand already holds " + m_count + " cards");
+        }
+        
+        m_codes[m_count++] = code;
+        m_suites |= SevenCardRank.suites(code);
+        m_ranks[m_count] = m_count >= Hand.Size ? m_evaluator.evaluate(m_suites)
+                                              : partial(m_rules, m_suites, m_count);
+        return this;
+    }
+    
+    /**
+     * Adds a card.
+     * @param card  Card to add
+     * @return this hand
+     */
+    public StreetHand
+    add(Card card)
+    {
+        return add(card.code());
+    }
+    
+    /**
+     * Takes back the card added last, restoring the rank before it.
+     * @return code of the card removed
+     * @throws IllegalStateException if no cards are held
+     */
+    public int
+    undo()
+    {
+        if (m_count == 0)
+        {
+            throw new IllegalStateException("StreetHand holds no cards");
+        }
+        
+        int  code = m_codes[--m_count];
+        m_suites &= ~SevenCardRank.suites(code);
+        return code;
+    }
+    
+    /**
+     * Removes all the cards.
+     * @return this hand
+     */
+    public StreetHand
+    clear()
+    {
+        m_suites = 0;
+        m_count  = 0;
+        return this;
+    }
+    
+    /**
+     * @return number of cards held
+     */
+    public int
+    getCount()
+    {
+        return m_count;
+    }
+    
+    /**
+     * @param i  Position from 0 for the first card added
+     * @return primitive code of the card
+     */
+    public int
+    getCode(int i)
+    {
+        return m_codes[i];
+    }
+    
+    /**
+     * @return masks of numbers per suite of the cards held, as from SevenCardRank.suites
+     */
+    public long
+    getSuites()
+    {
+        return m_suites;
+    }
+    
+    /**
+     * @return packed rank of the best five cards held, or of the cards so far if fewer, 0 if none
+     */
+    public int
+    getRank()
+    {
+        return m_ranks[m_count];
+    }
+    
+    /**
+     * @return whether at least five cards are held, so the rank is final for the cards held
+     */
+    public boolean
+    isComplete()
+    {
+        return m_count >= Hand.Size;
+    }
+    
+    /**
+     * @return evaluation decoded from the rank under the Rules of the evaluator
+     */
+    public Evaluation
+    getEvaluation()
+    {
+        return m_rules.decode(getRank());
+    }
+    
+    @Override
+    public String
+    toString()
+    {
+        StringBuilder  buf = new StringBuilder();
+        
+        for (int i = 0; i < m_count; ++i)
+        {
+            buf.append(Card.get(m_codes[i])).append(' ');
+        }
+        buf.append(getEvaluation());
+        return buf.toString();
+    }
+    
+    /*
+     * Rank of fewer than five cards under some Rules from the numbers held by exactly four, three, two and one suites,
+     * largest group first as in HandRank. With the ace low the masks are rotated as in LowballRank, so each group is
+     * worst first and packed as 12 less its value.
+     */
+    static int
+    partial(Rules rules, long suites, int count)
+    {
+        boolean  low = rules.isAceLow();
+        int      a   = numbers((int) suites, low);
+        int      b   = numbers((int) (suites >>> SevenCardRank.SuiteBits), low);
+        int      c   = numbers((int) (suites >>> 2 * SevenCardRank.SuiteBits), low);
+        int      d   = numbers((int) (suites >>> 3 * SevenCardRank.SuiteBits), low);
+        
+        int  any   = a | b | c | d;
+        int  two   = (a & b) | (a & c) | (a & d) | (b & c) | (b & d) | (c & d);
+        int  three = (a & b & c) | (a & b & d) | (a & c & d) | (b & c & d);
+        int  four  = a & b & c & d;
+        
+        int  packed = group(four, 4, low, 0);
+        packed = group(three & ~four, 3, low, packed);
+        packed = group(two & ~three, 2, low, packed);
+        packed = group(any & ~two, 1, low, packed);
+        packed <<= (Hand.Size - count) * HandRank.NumberBits;
+        
+        // no more than four cards, so no full house
+        int  kind = four != 0                    ? HandRank.FourOfAKind
+                  : three != 0                   ? HandRank.ThreeOfAKind
+                  : Integer.bitCount(two) > 1    ? HandRank.TwoPairs
+                  : two != 0                     ? HandRank.OnePair : HandRank.HighCard;
+        
+        return rules.kindCode(kind) << HandRank.KindShift | packed;
+    }
+    
+    /*
+     * Mask of the numbers of one suite, rotated so the ace is bit 0 if the ace is low.
+     */
+    private static int
+    numbers(int mask, boolean low)
+    {
+        return (low ? mask << 1 | mask >>> Ace & 1 : mask) & NumberMask;
+    }
+    
+    /*
+     * Appends each number in a mask, highest bit first, a number of times to packed numbers.
+     */
+    private static int
+    group(int mask, int times, boolean low, int packed)
+    {
+        for (int m = mask; m != 0; m ^= Integer.highestOneBit(m))
+        {
+            int  bit    = 31 - Integer.numberOfLeadingZeros(m);
+            int  number = low ? Ace - bit : bit;
+            for (int i = 0; i < times; ++i)
+            {
+                packed = packed << HandRank.NumberBits | number;
+            }
+        }
+        return packed;
+    }
+    
+    /*
+     * Self check - under every evaluator, deals random cards one at a time and compares each rank from five cards
+     * with the best Hand of every five card subset, and the kind of each rank of fewer with that under the standard
+     * rules, then undoes back to two cards and redeals, checking the ranks are restored on the way down. Partial
+     * hands must also order and decode as expected under the standard rules and LOWBALL.
+     */
+    public static void
+    main(String... args)
+    {
+        System.out.println("Testing StreetHand");
+        Evaluator  saved = Hand.getEvaluator();
+        try
+        {
+            Random  random = new Random(1);
+            int[]   five   = new int[Hand.Size];
+            int[]   ranks  = new int[SevenCardRank.MaxCards + 1];
+            
+            for (Evaluator evaluator : Evaluator.values())
+            {
+                Hand.setEvaluator(evaluator);
+                
+                Rules   rules = evaluator.getRules();
+                int[]   deck  = new int[rules.getDeckSize()];
+                for (int code = 0, i = 0; code < Card.DeckSize; ++code)
+                {
+                    if (rules.isDealt(code))
+                    {
+                        deck[i++] = code;
+                    }
+                }
+                
+                StreetHand  hand = new StreetHand(evaluator);
+                for (int n = 0; n < 100000; ++n)
+                {
+                    // partial shuffle to deal the cards, the first two kept as the hole cards on the second pass
+                    int  from = hand.getCount();
+                    for (int i = from; i < SevenCardRank.MaxCards; ++i)
+                    {
+                        int  j = i + random.nextInt(deck.length - i);
+                        int  t = deck[i];
+                        deck[i] = deck[j];
+                        deck[j] = t;
+                        
+                        hand.add(deck[i]);
+                        ranks[hand.getCount()] = hand.getRank();
+                        if (hand.isComplete())
+                        {
+                            check(hand, best(deck, hand.getCount(), five));
+                        }
+                        else if (rules.kind(hand.getRank())
+                                 != Rules.STANDARD.kind(partial(Rules.STANDARD, hand.getSuites(), hand.getCount())))
+                        {
+                            throw new PokerException("Wrong kind of partial hand: " + hand);
+                        }
+                    }
+                    
+                    while (hand.getCount() > SevenCardRank.HoleCards)
+                    {
+                        hand.undo();
+                        if (hand.getRank() != ranks[hand.getCount()])
+                        {
+                            throw new PokerException("Rank not restored by undo: " + hand);
+                        }
+                    }
+                    if (n % 2 == 1)
+                    {
+                        hand.clear();
+                    }
+                }
+                System.out.println("Checked 100000 deals under " + evaluator);
+            }
+            
+            // fewer than five cards rank by their groups
+            StreetHand  trips = deal(Evaluator.REFERENCE, "9S 9D KH 9C");
+            StreetHand  pairs = deal(Evaluator.REFERENCE, "AS AD KH KC");
+            if (trips.getRank() <= pairs.getRank())
+            {
+                throw new PokerException("Trips do not beat two pairs: " + trips + " " + pairs);
+            }
+            trips.add(Card.valueOf(Number.NINE, Suite.HEARTS));
+            if (Rules.STANDARD.kind(trips.getRank()) != Evaluation.Kind.FOUR_OF_A_KIND)
+            {
+                throw new PokerException("Expected four of a kind: " + trips);
+            }
+            
+            // under LOWBALL the lowest numbers and the smallest groups are best, and the kind decodes as such
+            Evaluator   lowball = Evaluator.forRules(Rules.LOWBALL);
+            StreetHand  wheel   = deal(lowball, "AS 2D 3H 4C");
+            StreetHand  high    = deal(lowball, "KS QD JH TC");
+            StreetHand  pair    = deal(lowball, "AS AD 3H 4C");
+            trips = deal(lowball, "9S 9D KH 9C");
+            pairs = deal(lowball, "AS AD KH KC");
+            if (wheel.getRank() <= high.getRank() || high.getRank() <= pair.getRank()
+                || pairs.getRank() <= trips.getRank())
+            {
+                throw new PokerException("Wrong LOWBALL order: " + wheel + ", " + high + ", " + pair + ", " + pairs
+                                         + ", " + trips);
+            }
+            if (!trips.getEvaluation().toString().equals("THREE_OF_A_KIND NINE")
+                || !wheel.getEvaluation().toString().equals("HIGH_CARD FOUR"))
+            {
+                throw new PokerException("Wrong LOWBALL evaluation: " + trips + ", " + wheel);
+            }
+            System.out.println("\nChecked partial hands");
+            
+            System.out.println("\nTest PASSED");
+        }
+        catch (PokerException ex)
+        {
+            System.err.println("\nERROR: " + ex);
+        }
+        finally
+        {
+            Hand.setEvaluator(saved);
+        }
+    }
+    
+    private static StreetHand
+    deal(Evaluator evaluator, String cards)
+        throws PokerException
+    {
+        StreetHand  hand = new StreetHand(evaluator);
+        for (Card card : Card.parseString(cards))
+        {
+            hand.add(card);
+        }
+        return hand;
+    }
+    
+    /*
+     * Highest Hand rank among all five card subsets of the first count codes.
+     */
+    private static int
+    best(int[] codes, int count, int[] five)
+        throws PokerException
+    {
+        Hand  best = null;
+        for (int skip = 0; skip < 1 << count; ++skip)
+        {
+            if (Integer.bitCount(skip) == count - Hand.Size)
+            {
+                for (int i = 0, k = 0; i < count; ++i)
+                {
+                    if ((skip & 1 << i) == 0)
+                    {
+                        five[k++] = codes[i];
+                    }
+                }
+                Hand  hand = Hand.fromCodes(five, 0);
+                if (best == null || hand.compareTo(best) > 0)
+                {
+                    best = hand;
+                }
+            }
+        }
+        return best.getRank();
+    }
+    
+    private static void
+    check(StreetHand hand, int expect)
+        throws PokerException
+    {
+        if (hand.getRank() != expect)
+        {
+            throw new PokerException("Mismatch for " + hand + " expected "
+                                     + hand.m_evaluator.getRules().decode(expect));
+        }
+    }
+}
@@ -14,6 +14,19 @@ public enum Suite
     
     public final Character  m_code;
     
+    // indexed by character, null where a character is not a valid code
+    private static final Suite[]  ByCode           = new Suite[128];
+    private static final Suite[]  ByCodeIgnoreCase = new Suite[128];
+    static
+    {
+        for (Suite s : Suite.values())
+        {
+            ByCode[s.m_code] = s;
+            ByCodeIgnoreCase[Character.toUpperCase(s.m_code)] = s;
+            ByCodeIgnoreCase[Character.toLowerCase(s.m_code)] = s;
+        }
+    }
+    
     Suite(char  code)
     {
         m_code = code;
@@ -29,13 +42,26 @@ public enum Suite
     parse(char  code)
         throws PokerException 
     {
-        for (Suite s : Suite.values())
+        return parse(code, false);
+    }
+    
+    /**
+     * Parses a character representing a suite, optionally ignoring case.
+     * @param code        Character representing a suite
+     * @param ignoreCase  Whether lower case characters are accepted as well
+     * @return matching Suite object
+     * @throws PokerException if no match found
+     */
+    public static Suite
+    parse(char  code, boolean ignoreCase)
+        throws PokerException 
+    {
+        Suite[]  table = ignoreCase ? ByCodeIgnoreCase : ByCode;
+        Suite    s     = code < table.length ? table[code] : null;
+        if (s == null)
         {
-            if (s.m_code.equals(code))
-            {
-                return s;
-            }
+            throw new PokerException("Invalid Suite: " + code);
         }
-        throw new PokerException("Invalid Suite: " + code);
+        return s;
     }
 }
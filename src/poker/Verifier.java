@@ -0,0 +1,751 @@
+/**
+ * (C) COPYRIGHT 2018 Andrew Parle
+ */
+package poker;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Andrew
+ *
+ * Exhaustive check of hand ranking over all 2,598,960 five card hands.<br>
+ * Every hand is ranked with Hand and its category checked against a direct count of numbers, suites and runs, so
+ * a rank with the wrong Evaluation.Kind is caught. The distinct ranks must form exactly 7462 equivalence classes
+ * with the expected number of classes and hands in each category, each class must build the same Evaluation
+ * through the public construction functions as by decoding, and the decoded Evaluations must be in rank order.
+ * A key is also made for every hand from first principles, which must be the same for the hands of each rank and
+ * increase with the rank. Every Evaluator and SevenCardRank are then compared with Hand for every hand, and each
+ * Evaluator's best five of random six and seven cards with the best of each five, and Counter must report lines
+ * with a repeated card as errors under each Evaluator.<br>
+ * The same checks are made for each other variant of the Rules over the hands of its deck, with the counts of that
+ * variant, ranking with the first Evaluator for it and comparing any others with that.<br>
+ * The hands are ranked in parallel by ranges of their colex index, so the whole check takes seconds:<br>
+ * Verifier [-threads N]
+ */
+public class Verifier
+{
+    public static final int  Hands   = (int) Colex.choose(Card.DeckSize, Hand.Size);
+    public static final int  Classes = 7462;
+    
+    // failures reported for each check before giving up on it
+    private static final int  MaxReports = 10;
+    
+    // hands ranked by a task without splitting
+    private static final int  Chunk = 1 << 16;
+    
+    // random hands of six and of seven cards checked for each Evaluator
+    private static final int  RandomHands = 100000;
+    
+    // Hold'em lines with a card repeated, which Counter must report as errors, of cards in every variant's deck
+    private static final String[]  RepeatedHoldem = { "AH KD AH QS TC 9C 8C 7D 6D", "AH KD QS JS TC 9C 8C 7D TC" };
+    
+    // lines of two five card hands with a card repeated, within a hand and between the hands, for a full deck and
+    // for a short deck, so that the repeat is found rather than a card missing from the deck
+    private static final String[]  RepeatedHands = { "AH AH 2C 3C 4C 5D 6D 7D 8D 9S", "AH KD QS JS 2C 3C 4C 5D 6D 2C" };
+    private static final String[]  RepeatedShort = { "AH AH KC QC JC TD 9D 8D 7D 6S", "AH KD QS JS TC 9C 8C 7D 6D TC" };
+    
+    private static final Evaluation.Kind[]  Kinds   = Evaluation.Kind.values();
+    private static final Number[]           Numbers = Number.values();
+    private static final int                Ace     = Number.ACE.ordinal();
+    
+    /**
+     * A way of ranking five cards to check.
+     */
+    interface Ranking
+    {
+        /**
+         * @param codes  Five card codes in increasing order
+         * @return packed rank
+         */
+        int
+        rank(int[] codes);
+    }
+    
+    private final ArrayList<String>  m_failures = new ArrayList<String>();
+    
+    private  int  m_threads = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * @param threads  Number of threads to rank on, by default the number of processors
+     */
+    public void
+    setThreads(int threads)
+    {
+        m_threads = threads;
+    }
+    
+    /**
+     * @return descriptions of the failures found so far, empty if there are none
+     */
+    public List<String>
+    getFailures()
+    {
+        return m_failures;
+    }
+    
+    /**
+     * Runs every check for every variant of the Rules, printing a report.
+     * @return whether they all passed
+     */
+    public boolean
+    verify()
+    {
+        for (Rules rules : Rules.values())
+        {
+            verify(rules);
+        }
+        return m_failures.isEmpty();
+    }
+    
+    /*
+     * Runs the checks for one variant of the rules. The standard ranks are from Hand, the others from the first
+     * Evaluator for the variant.
+     */
+    private void
+    verify(Rules rules)
+    {
+        System.out.println((rules == Rules.STANDARD ? "" : "\n") + "Rules " + rules + "\n");
+        
+        int[]  ranks = null;
+        if (rules == Rules.STANDARD)
+        {
+            ranks = rankAll(new Ranking()
+            {
+                @Override
+                public int
+                rank(int[] codes)
+                {
+                    try
+                    {
+                        return Hand.fromCodes(codes, 0).getRank();
+                    }
+                    catch (PokerException ex)
+                    {
+                        // the codes are enumerated so are always valid
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+            checkClasses(rules, ranks);
+        }
+        
+        for (final Evaluator evaluator : Evaluator.values())
+        {
+            if (evaluator.getRules() != rules)
+            {
+                continue;
+            }
+            Ranking  ranking = new Ranking()
+            {
+                @Override
+                public int
+                rank(int[] codes)
+                {
+                    return evaluator.evaluate(codes, 0);
+                }
+            };
+            if (ranks == null)
+            {
+                ranks = rankAll(rules, ranking);
+                checkClasses(rules, ranks);
+            }
+            else
+            {
+                compare(evaluator.toString(), rules, ranks, ranking);
+            }
+            checkBest(evaluator);
+            checkRepeated(evaluator, RepeatedHoldem, true);
+            checkRepeated(evaluator, rules.getLowest() == Number.TWO ? RepeatedHands : RepeatedShort, false);
+        }
+        if (ranks == null)
+        {
+            fail("No Evaluator for " + rules);
+        }
+        
+        if (rules == Rules.STANDARD)
+        {
+            compare("SevenCardRank", rules, ranks, new Ranking()
+            {
+                @Override
+                public int
+                rank(int[] codes)
+                {
+                    return SevenCardRank.evaluate(codes, 0, Hand.Size);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Ranks every hand of the standard deck in parallel.
+     * @return ranks by colex index of the hand
+     */
+    public int[]
+    rankAll(Ranking ranking)
+    {
+        return rankAll(Rules.STANDARD, ranking);
+    }
+    
+    /**
+     * Ranks every hand of the deck of a variant of the rules in parallel.
+     * @return ranks by colex index of the hand within the deck
+     */
+    public int[]
+    rankAll(Rules rules, Ranking ranking)
+    {
+        int[]         ranks = new int[hands(rules)];
+        ForkJoinPool  pool  = new ForkJoinPool(m_threads);
+        try
+        {
+            pool.invoke(new Range(rules, ranking, ranks, 0, ranks.length));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return ranks;
+    }
+    
+    /*
+     * Checks the category of every hand, and the count, construction and order of the classes.
+     */
+    private void
+    checkClasses(Rules rules, int[] ranks)
+    {
+        long[]  hands   = new long[Kinds.length];
+        long[]  classes = new long[Kinds.length];
+        BitSet  seen    = new BitSet();
+        int[]   index   = { 0, 1, 2, 3, 4 };
+        int[]   codes   = new int[Hand.Size];
+        int     wrong   = 0;
+        
+        for (int i = 0; i < ranks.length; ++i)
+        {
+            deal(rules, index, codes);
+            
+            int  rank = ranks[i];
+            int  kind = rules.kind(rank).ordinal();
+            int  real = category(codes, rules);
+            if (kind != real)
+            {
+                if (wrong++ < MaxReports)
+                {
+                    fail("Hand " + hand(codes) + " ranked " + Kinds[kind] + " but is " + Kinds[real]);
+                }
+            }
+            else if (!seen.get(rank))
+            {
+                seen.set(rank);
+                classes[kind]++;
+                
+                Evaluation  decoded = rules.decode(rank);
+                Evaluation  built   = build(kind, rules.standard(rank));
+                if (decoded.compareTo(built) != 0 || !decoded.toString().equals(built.toString()))
+                {
+                    fail("Hand " + hand(codes) + " decodes to " + decoded + " but builds " + built);
+                }
+            }
+            hands[kind]++;
+            
+            Colex.next(index, Hand.Size, rules.getDeckSize());
+        }
+        
+        System.out.println(String.format("%-16s %8s %8s %10s %10s", "Kind", "Classes", "Expected", "Hands",
+                                         "Expected"));
+        for (int kind = 0; kind < Kinds.length; ++kind)
+        {
+            System.out.println(String.format("%-16s %8d %8d %10d %10d", Kinds[kind], classes[kind],
+                                             rules.getClasses(kind), hands[kind], rules.getHands(kind)));
+            if (classes[kind] != rules.getClasses(kind) || hands[kind] != rules.getHands(kind))
+            {
+                fail("Wrong counts for " + Kinds[kind]);
+            }
+        }
+        System.out.println(String.format("%-16s %8d %8d %10d %10d", "Total", seen.cardinality(), rules.getClasses(),
+                                         ranks.length, ranks.length));
+        if (seen.cardinality() != rules.getClasses())
+        {
+            fail(seen.cardinality() + " classes");
+        }
+        
+        // Evaluations ignore kickers, so in rank order each is no less than the one before
+        if (rules == Rules.STANDARD || rules == Rules.WHEEL)
+        {
+            Evaluation  last = null;
+            for (int rank = seen.nextSetBit(0); rank >= 0; rank = seen.nextSetBit(rank + 1))
+            {
+                Evaluation  evaluation = rules.decode(rank);
+                if (last != null && last.compareTo(evaluation) > 0)
+                {
+                    fail(last + " ranks below " + evaluation);
+                }
+                last = evaluation;
+            }
+        }
+        
+        checkOrder(rules, ranks, seen.stream().toArray());
+    }
+    
+    /*
+     * Checks that the hands with each rank have the same key from first principles, and that the keys increase with
+     * the ranks, so the ranks order every hand as the rules do.
+     */
+    private void
+    checkOrder(Rules rules, int[] ranks, int[] sorted)
+    {
+        long[]  keys  = new long[sorted.length];
+        int[]   index = { 0, 1, 2, 3, 4 };
+        int[]   codes = new int[Hand.Size];
+        int     wrong = 0;
+        
+        Arrays.fill(keys, -1);
+        for (int i = 0; i < ranks.length; ++i)
+        {
+            deal(rules, index, codes);
+            
+            int   pos = Arrays.binarySearch(sorted, ranks[i]);
+            long  key = key(codes, rules);
+            if (pos < 0)
+            {
+                // a rank only held by hands of the wrong kind, which have been reported
+            }
+            else if (keys[pos] < 0)
+            {
+                keys[pos] = key;
+            }
+            else if (keys[pos] != key && wrong++ < MaxReports)
+            {
+                fail("Hand " + hand(codes) + " has the rank of different hands");
+            }
+            
+            Colex.next(index, Hand.Size, rules.getDeckSize());
+        }
+        
+        for (int i = 1; i < sorted.length; ++i)
+        {
+            if (keys[i - 1] >= keys[i] && wrong++ < MaxReports)
+            {
+                fail(rules.decode(sorted[i]) + " " + Integer.toHexString(sorted[i]) + " ranks above "
+                     + rules.decode(sorted[i - 1]) + " " + Integer.toHexString(sorted[i - 1]) + " out of order");
+            }
+        }
+        System.out.println(String.format("%-16s %s", "Order", wrong == 0 ? "matches" : wrong + " wrong"));
+    }
+    
+    /*
+     * Compares a ranking with the expected ranks for every hand.
+     */
+    private void
+    compare(String name, Rules rules, int[] expect, Ranking ranking)
+    {
+        long    start  = System.nanoTime();
+        int[]   ranks  = rankAll(rules, ranking);
+        long    millis = (System.nanoTime() - start) / 1000000;
+        
+        int  wrong = 0;
+        if (!Arrays.equals(ranks, expect))
+        {
+            int[]  index = new int[Hand.Size];
+            int[]  codes = new int[Hand.Size];
+            for (int i = 0; i < ranks.length; ++i)
+            {
+                if (ranks[i] != expect[i] && wrong++ < MaxReports)
+                {
+                    Colex.unrank(i, Hand.Size, index);
+                    deal(rules, index, codes);
+                    fail(name + " ranks " + hand(codes) + " " + Integer.toHexString(ranks[i]) + " not "
+                         + Integer.toHexString(expect[i]));
+                }
+            }
+        }
+        System.out.println(String.format("%-16s %s in %dms", name, wrong == 0 ? "matches" : wrong + " differ",
+                                         millis));
+    }
+    
+    /*
+     * Checks the best five of random six and seven cards from the suite masks against the best of each five.
+     */
+    private void
+    checkBest(Evaluator evaluator)
+    {
+        Rules   rules  = evaluator.getRules();
+        Random  random = new Random(1);
+        int[]   deck   = new int[rules.getDeckSize()];
+        int[]   codes  = new int[SevenCardRank.MaxCards];
+        int[]   five   = new int[Hand.Size];
+        int     wrong  = 0;
+        
+        for (int i = 0; i < deck.length; ++i)
+        {
+            deck[i] = Card.DeckSize - deck.length + i;
+        }
+        
+        for (int count = Hand.Size + 1; count <= SevenCardRank.MaxCards; ++count)
+        {
+            for (int n = 0; n < RandomHands; ++n)
+            {
+                // partial shuffle to deal the cards
+                for (int i = 0; i < count; ++i)
+                {
+                    int  j = i + random.nextInt(deck.length - i);
+                    int  t = deck[i];
+                    deck[i]  = deck[j];
+                    deck[j]  = t;
+                    codes[i] = deck[i];
+                }
+                
+                int  best = Integer.MIN_VALUE;
+                for (int skip = 0; skip < 1 << count; ++skip)
+                {
+                    if (Integer.bitCount(skip) == count - Hand.Size)
+                    {
+                        for (int i = 0, k = 0; i < count; ++i)
+                        {
+                            if ((skip & 1 << i) == 0)
+                            {
+                                five[k++] = codes[i];
+                            }
+                        }
+                        best = Math.max(best, evaluator.evaluate(five, 0));
+                    }
+                }
+                
+                int  actual = evaluator.evaluate(SevenCardRank.suites(codes, 0, count));
+                if (actual != best && wrong++ < MaxReports)
+                {
+                    fail(evaluator + " ranks " + hand(Arrays.copyOf(codes, count)) + " " + rules.decode(actual)
+                         + " not " + rules.decode(best));
+                }
+            }
+        }
+        System.out.println(String.format("%-16s %s", evaluator + " best", wrong == 0 ? "matches" : wrong + " differ"));
+    }
+    
+    /*
+     * Checks that Counter reports each line with a repeated card as an error rather than ranking it or failing.
+     */
+    private void
+    checkRepeated(Evaluator evaluator, String[] lines, boolean holdem)
+    {
+        Evaluator  previous = Hand.getEvaluator();
+        String     result;
+        Hand.setEvaluator(evaluator);
+        try
+        {
+            Counter  counter = new Counter();
+            counter.setHoldem(holdem);
+            counter = counter.newConnection(Channels.newChannel(new ByteArrayOutputStream()));
+            
+            byte[]  text = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.US_ASCII);
+            counter.processLines(ByteBuffer.wrap(text), 0, text.length, 0);
+            
+            int  ranked = lines.length - counter.getErrors();
+            result = ranked == 0 ? "rejected" : ranked + " ranked";
+            if (ranked != 0)
+            {
+                fail(evaluator + " ranks " + ranked + " lines with a repeated card");
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            result = "failed";
+            fail(evaluator + " fails on a repeated card: " + ex);
+        }
+        finally
+        {
+            Hand.setEvaluator(previous);
+        }
+        System.out.println(String.format("%-16s %s", evaluator + (holdem ? " holdem" : " hands"), result));
+    }
+    
+    private void
+    fail(String failure)
+    {
+        System.out.println("FAIL " + failure);
+        m_failures.add(failure);
+    }
+    
+    /*
+     * Category of five cards from first principles.
+     */
+    static int
+    category(int[] codes, Rules rules)
+    {
+        return (int) (key(codes, rules) >>> HandRank.KindShift & 0xF);
+    }
+    
+    /*
+     * Key of five cards from first principles, ordering hands as the rules do. It holds the strength of the kind
+     * under the rules, the Kind ordinal, then the numbers of the cards which decide between hands of that kind.
+     */
+    private static long
+    key(int[] codes, Rules rules)
+    {
+        boolean  lowball = rules == Rules.LOWBALL;
+        int[]    counts  = new int[Numbers.length];
+        int      suites  = 0;
+        for (int code : codes)
+        {
+            counts[code >>> Card.SuiteBits]++;
+            suites |= 1 << (code & Card.SuiteMask);
+        }
+        
+        // the ace may also play below the lowest number of the deck as the start of a straight
+        boolean  wrap   = (rules == Rules.WHEEL || rules == Rules.SHORT_DECK) && counts[Ace] == 1;
+        int      pairs  = 0;
+        int      threes = 0;
+        int      fours  = 0;
+        int      run    = wrap ? 1 : 0;
+        int      high   = -1;
+        for (int number = rules.getLowest().ordinal(); number < Numbers.length; ++number)
+        {
+            int  count = counts[number];
+            pairs  += count == 2 ? 1 : 0;
+            threes += count == 3 ? 1 : 0;
+            fours  += count == 4 ? 1 : 0;
+            run     = count == 1 ? run + 1 : 0;
+            high    = run == Hand.Size ? number : high;
+        }
+        boolean  flush    = !lowball && Integer.bitCount(suites) == 1;
+        boolean  straight = !lowball && high >= 0;
+        
+        Evaluation.Kind  kind;
+        if (straight && flush)
+        {
+            kind = Evaluation.Kind.STRAIGHT_FLUSH;
+        }
+        else if (fours > 0)
+        {
+            kind = Evaluation.Kind.FOUR_OF_A_KIND;
+        }
+        else if (threes > 0 && pairs > 0)
+        {
+            kind = Evaluation.Kind.FULL_HOUSE;
+        }
+        else if (flush)
+        {
+            kind = Evaluation.Kind.FLUSH;
+        }
+        else if (straight)
+        {
+            kind = Evaluation.Kind.STRAIGHT;
+        }
+        else if (threes > 0)
+        {
+            kind = Evaluation.Kind.THREE_OF_A_KIND;
+        }
+        else if (pairs == 2)
+        {
+            kind = Evaluation.Kind.TWO_PAIRS;
+        }
+        else if (pairs == 1)
+        {
+            kind = Evaluation.Kind.ONE_PAIR;
+        }
+        else
+        {
+            kind = Evaluation.Kind.HIGH_CARD;
+        }
+        
+        // a straight is decided by its highest number, anything else by its numbers, largest group first then best
+        // first - for lowball the lowest first with the ace lowest, each as 12 less its value
+        long  numbers = 0;
+        if (straight)
+        {
+            numbers = high;
+        }
+        else
+        {
+            for (int size = 4; size > 0; --size)
+            {
+                for (int value = 0; value <= Ace; ++value)
+                {
+                    int  v      = lowball ? value : Ace - value;
+                    int  number = !lowball ? v : v == Ace ? Ace : Ace - 1 - v;
+                    for (int i = 0; counts[number] == size && i < size; ++i)
+                    {
+                        numbers = numbers << HandRank.NumberBits | v;
+                    }
+                }
+            }
+        }
+        
+        long  strength = strength(kind, rules);
+        return (strength << 4 | kind.ordinal()) << HandRank.KindShift | numbers;
+    }
+    
+    /*
+     * Position of a kind in the order of the rules.
+     */
+    private static int
+    strength(Evaluation.Kind kind, Rules rules)
+    {
+        switch (rules)
+        {
+            case LOWBALL:
+                return Kinds.length - 1 - kind.ordinal();
+            case SHORT_DECK:
+                return kind == Evaluation.Kind.FLUSH ? Evaluation.Kind.FULL_HOUSE.ordinal()
+                       : kind == Evaluation.Kind.FULL_HOUSE ? Evaluation.Kind.FLUSH.ordinal() : kind.ordinal();
+            default:
+                return kind.ordinal();
+        }
+    }
+    
+    /*
+     * Builds the Evaluation of a rank through the public construction function of its kind.
+     */
+    private static Evaluation
+    build(int kind, int rank)
+    {
+        Number  value = HandRank.number(rank, 0);
+        switch (Kinds[kind])
+        {
+            case HIGH_CARD:
+                return Evaluation.evalHighCard(value);
+            case ONE_PAIR:
+                return Evaluation.evalOnePair(value);
+            case TWO_PAIRS:
+                return Evaluation.evalTwoPair(value, HandRank.number(rank, 2));
+            case THREE_OF_A_KIND:
+                return Evaluation.evalThreeOfAKind(value);
+            case STRAIGHT:
+                return Evaluation.evalStraight(value);
+            case FLUSH:
+                return Evaluation.evalFlush(value);
+            case FULL_HOUSE:
+                return Evaluation.evalFullHouse(value, HandRank.number(rank, 3));
+            case FOUR_OF_A_KIND:
+                return Evaluation.evalFourOfAKind(value);
+            default:
+                return Evaluation.evalStraightFlush(value);
+        }
+    }
+    
+    /*
+     * Number of five card hands in the deck of the rules.
+     */
+    private static int
+    hands(Rules rules)
+    {
+        return (int) Colex.choose(rules.getDeckSize(), Hand.Size);
+    }
+    
+    /*
+     * Codes of the cards of the deck of the rules at the indices of a subset.
+     */
+    private static void
+    deal(Rules rules, int[] index, int[] codes)
+    {
+        int  first = Card.DeckSize - rules.getDeckSize();
+        for (int i = 0; i < Hand.Size; ++i)
+        {
+            codes[i] = first + index[i];
+        }
+    }
+    
+    private static String
+    hand(int[] codes)
+    {
+        StringBuilder  buf = new StringBuilder();
+        for (int code : codes)
+        {
+            buf.append(buf.length() > 0 ? " " : "").append(Card.get(code));
+        }
+        return buf.toString();
+    }
+    
+    /*
+     * Task ranking the hands with colex indices in a range, splitting large ranges in two.
+     */
+    private static final class Range
+        extends RecursiveAction
+    {
+        private static final long  serialVersionUID = 1L;
+        
+        private final Rules    m_rules;
+        private final Ranking  m_ranking;
+        private final int[]    m_ranks;
+        private final int      m_first;
+        private final int      m_end;
+        
+        Range(Rules rules, Ranking ranking, int[] ranks, int first, int end)
+        {
+            m_rules   = rules;
+            m_ranking = ranking;
+            m_ranks   = ranks;
+            m_first   = first;
+            m_end     = end;
+        }
+        
+        @Override
+        protected void
+        compute()
+        {
+            if (m_end - m_first > Chunk)
+            {
+                int  middle = m_first + (m_end - m_first) / 2;
+                invokeAll(new Range(m_rules, m_ranking, m_ranks, m_first, middle),
+                          new Range(m_rules, m_ranking, m_ranks, middle, m_end));
+                return;
+            }
+            
+            int[]  index = new int[Hand.Size];
+            int[]  codes = new int[Hand.Size];
+            Colex.unrank(m_first, Hand.Size, index);
+            for (int i = m_first; i < m_end; ++i)
+            {
+                deal(m_rules, index, codes);
+                m_ranks[i] = m_ranking.rank(codes);
+                Colex.next(index, Hand.Size, m_rules.getDeckSize());
+            }
+        }
+    }
+    
+    public static void
+    main(String... args)
+    {
+        System.out.println("Running Verifier\n");
+        try
+        {
+            Verifier  verifier = new Verifier();
+            for (int arg = 0; arg < args.length; ++arg)
+            {
+                if ("-threads".equals(args[arg]) && arg + 1 < args.length)
+                {
+                    verifier.setThreads(Integer.parseInt(args[++arg]));
+                }
+                else
+                {
+                    throw new PokerException("Invalid option: " + args[arg]);
+                }
+            }
+            
+            long     start  = System.nanoTime();
+            boolean  passed = verifier.verify();
+            System.out.println("\nTime " + (System.nanoTime() - start) / 1000000 + "ms");
+            
+            if (!passed)
+            {
+                System.out.println("\nTest FAILED");
+                System.exit(1);
+            }
+            System.out.println("\nTest PASSED");
+        }
+        catch (Exception ex)
+        {
+            System.err.println("\nERROR: " + ex);
+            System.exit(1);
+        }
+    }
+}